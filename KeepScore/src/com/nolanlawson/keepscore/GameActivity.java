@@ -16,7 +16,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -40,10 +39,13 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.nolanlawson.keepscore.data.RecordedChange;
 import com.nolanlawson.keepscore.data.RecordedChange.Type;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameCache;
 import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.GameWriter;
 import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.db.ScoreJournal;
 import com.nolanlawson.keepscore.helper.ColorScheme;
 import com.nolanlawson.keepscore.helper.GameActivityHelper;
 import com.nolanlawson.keepscore.helper.PlayerColor;
@@ -56,7 +58,6 @@ import com.nolanlawson.keepscore.util.CollectionUtil.Function;
 import com.nolanlawson.keepscore.util.DataExpiringStack;
 import com.nolanlawson.keepscore.util.Functions;
 import com.nolanlawson.keepscore.util.Pair;
-import com.nolanlawson.keepscore.util.StopWatch;
 import com.nolanlawson.keepscore.util.UtilLogger;
 import com.nolanlawson.keepscore.widget.PlayerView;
 
@@ -110,6 +111,7 @@ public abstract class GameActivity extends SherlockActivity {
     private boolean paused = true;
     private GameDBHelper dbHelper;
     private boolean savedGameBeforeExit;
+    private ScoreJournal journal;
 
     private DataExpiringStack<RecordedChange> undoStack = new DataExpiringStack<RecordedChange>(UNDO_STACK_SIZE);
     private DataExpiringStack<RecordedChange> redoStack = new DataExpiringStack<RecordedChange>(UNDO_STACK_SIZE);
@@ -123,11 +125,21 @@ public abstract class GameActivity extends SherlockActivity {
 
         createGame();
 
+        // apply any changes that were lost because the app died before they could be saved
+        journal = ScoreJournal.getInstance(this);
+        boolean recoveredChanges = journal.recover(game);
+
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.FULL_WAKE_LOCK, getPackageName());
 
         setContentView(R.layout.game);
         setUpWidgets();
+
+        journal.start(game);
+        if (recoveredChanges) {
+            saveGame(game, null);
+        }
+
         scheduleAutomaticBackup();
     }
 
@@ -150,11 +162,12 @@ public abstract class GameActivity extends SherlockActivity {
         paused = true;
 
         if (shouldAutosave()) {
-            saveGame(game, false, null);
+            // no need to wait for the save; the journal covers us if the process dies first
+            saveGame(game, null);
         }
 
         if (dbHelper != null) {
-            dbHelper.close();
+            KeepScoreApplication.releaseDbHelper(this);
             dbHelper = null;
         }
 
@@ -219,7 +232,7 @@ public abstract class GameActivity extends SherlockActivity {
 
     private GameDBHelper getDbHelper() {
         if (dbHelper == null) {
-            dbHelper = new GameDBHelper(this);
+            dbHelper = KeepScoreApplication.acquireDbHelper(this);
         }
         return dbHelper;
     }
@@ -230,10 +243,10 @@ public abstract class GameActivity extends SherlockActivity {
             @Override
             public void run() {
                 if (shouldAutosave()) {
-                    saveGame(game, true, new Runnable() {
+                    saveGame(game, new Callback<Game>() {
 
                         @Override
-                        public void run() {
+                        public void onCallback(Game savedGame) {
                             if (!paused) {
                                 startPeriodicSave();
                             }
@@ -278,9 +291,20 @@ public abstract class GameActivity extends SherlockActivity {
 
         switch (item.getItemId()) {
         case R.id.menu_history:
-            Intent historyIntent = new Intent(this, HistoryActivity.class);
-            historyIntent.putExtra(HistoryActivity.EXTRA_GAME, game);
-            startActivity(historyIntent);
+            if (game.getId() == -1) {
+                // the history looks the game up by id, so wait until the writer has assigned it one
+                saveGame(game, new Callback<Game>() {
+
+                    @Override
+                    public void onCallback(Game savedGame) {
+                        if (!isFinishing()) {
+                            startHistoryActivity();
+                        }
+                    }
+                });
+            } else {
+                startHistoryActivity();
+            }
             break;
         case R.id.menu_settings:
             Intent settingsIntent = new Intent(GameActivity.this, SettingsActivity.class);
@@ -322,6 +346,7 @@ public abstract class GameActivity extends SherlockActivity {
             } else {
                 playerView.reexecuteChange(recordedChange);
             }
+            journal.append(playerScores.get(recordedChange.getPlayerNumber()));
             stackToPop.pop(recordedChange);
 
             lastPlayerNumber = recordedChange.getPlayerNumber();
@@ -348,6 +373,14 @@ public abstract class GameActivity extends SherlockActivity {
         }
     }
 
+    private void startHistoryActivity() {
+        // cache a snapshot, since this game keeps changing
+        GameCache.put((Game) game.clone());
+        Intent historyIntent = new Intent(this, HistoryActivity.class);
+        historyIntent.putExtra(HistoryActivity.EXTRA_GAME_ID, game.getId());
+        startActivity(historyIntent);
+    }
+
     private void startOrganizePlayersActivity() {
 
         Intent intent = new Intent(this, OrganizePlayersActivity.class);
@@ -408,7 +441,7 @@ public abstract class GameActivity extends SherlockActivity {
 
     private void createRematchGame() {
 
-        saveGame(game, true, null); // save the original game
+        saveGame(game, null); // save the original game
 
         for (PlayerView playerView : playerViews) {
             playerView.cancelPendingUpdates();
@@ -416,13 +449,14 @@ public abstract class GameActivity extends SherlockActivity {
 
         game = game.makeCleanCopy();
         playerScores = game.getPlayerScores();
+        journal.start(game);
 
         setUpWidgets();
 
         for (PlayerView playerView : playerViews) {
             playerView.reset(GameActivity.this);
         }
-        saveGame(game, true, null); // save the new game
+        saveGame(game, null); // save the new game
 
         updateRoundTotalViewText();
         undoStack.clear();
@@ -493,7 +527,7 @@ public abstract class GameActivity extends SherlockActivity {
             playerScore.setName(playerNames[i]);
             playerScore.setPlayerColor(PlayerColor.deserialize(playerColors[i]));
             playerScore.setPlayerNumber(i);
-            playerScore.setHistory(new ArrayList<Delta>());
+            playerScore.setHistory(new DeltaHistory());
             playerScore.setScore(PreferenceHelper.getIntPreference(R.string.CONSTANT_pref_initial_score,
                     R.string.CONSTANT_pref_initial_score_default, GameActivity.this));
 
@@ -504,51 +538,21 @@ public abstract class GameActivity extends SherlockActivity {
         log.d("created new playerScores: %s", playerScores);
     }
 
-    private synchronized void saveGame(final Game gameToSave, boolean inBackground, final Runnable onFinished) {
+    /**
+     * Save the game on the background writer.  Saves requested while another save of the same game is still
+     * waiting are merged into it.
+     * 
+     * @param gameToSave
+     * @param onSaved called on the main thread once the game is saved, or null
+     */
+    private void saveGame(Game gameToSave, Callback<Game> onSaved) {
 
         for (PlayerView playerView : playerViews) {
             playerView.getShouldAutosave().set(false);
         }
 
-        if (inBackground) {
-            // do in the background to avoid jankiness
-            new AsyncTask<Void, Void, Void>() {
-
-                @Override
-                protected Void doInBackground(Void... params) {
-
-                    saveGame(gameToSave);
-
-                    return null;
-                }
-
-                @Override
-                protected void onPostExecute(Void result) {
-                    super.onPostExecute(result);
-                    if (onFinished != null) {
-                        onFinished.run();
-                    }
-                }
-
-            }.execute((Void) null);
-        } else {
-            // do in foreground to ensure the game gets saved before the
-            // activity finishes
-            saveGame(gameToSave);
-            if (onFinished != null) {
-                onFinished.run();
-            }
-        }
-    }
-
-    private synchronized void saveGame(Game gameToSave) {
-        StopWatch stopWatch = new StopWatch("saveGame()");
-
-        getDbHelper().saveGame(gameToSave);
-        log.d("saved game: %s", gameToSave);
+        GameWriter.getInstance(this).save(gameToSave, onSaved);
         savedGameBeforeExit = true;
-
-        stopWatch.log(log);
     }
 
     private void setUpWidgets() {
@@ -580,7 +584,7 @@ public abstract class GameActivity extends SherlockActivity {
 
         for (int i = 0; i < playerScores.size(); i++) {
 
-            PlayerScore playerScore = playerScores.get(i);
+            final PlayerScore playerScore = playerScores.get(i);
             int resId = getPlayerViewResId(i);
             View view = getPlayerScoreView(resId);
             if (view == null) {
@@ -592,6 +596,7 @@ public abstract class GameActivity extends SherlockActivity {
 
                 @Override
                 public void onCallback(RecordedChange recordedChange) {
+                    journal.append(playerScore);
                     undoStack.pop(recordedChange);
                     redoStack.clear();
                 }
@@ -674,7 +679,7 @@ public abstract class GameActivity extends SherlockActivity {
 
             @Override
             public Integer apply(PlayerScore obj) {
-                return obj.getHistory().size() >= round ? obj.getHistory().get(round - 1).getValue() : 0;
+                return obj.getHistory().size() >= round ? obj.getHistory().getValue(round - 1) : 0;
             }
         });
 
@@ -874,47 +879,36 @@ public abstract class GameActivity extends SherlockActivity {
 
         // delete the game and recreate it with the new data
 
-        // do in the background to avoid jank
-        new AsyncTask<Void, Void, Void>() {
-
-            @Override
-            protected Void doInBackground(Void... params) {
-
-                // delete the old game before starting new one
-                getDbHelper().deleteGame(game);
-                // after this, because the id is not -1, only UPDATEs will be
-                // performed,
-                // so the delete is clean even if the background saver keeps
-                // running
-
-                final Game newGame = (Game) game.clone();
-                newGame.setId(-1);
-                newGame.setPlayerScores(newPlayerScores);
-                for (PlayerScore playerScore : newGame.getPlayerScores()) {
-                    playerScore.setId(-1);
-                }
-
-                Runnable onFinished = new Runnable() {
+        // delete the old game before starting new one; the writer does this in the background, in order
+        GameWriter.getInstance(this).delete(game);
+        // after this, because the id is not -1, only UPDATEs will be
+        // performed,
+        // so the delete is clean even if the periodic saver keeps
+        // running
 
-                    @Override
-                    public void run() {
-                        log.d("game to parcel is: %s", game);
+        final Game newGame = (Game) game.clone();
+        newGame.setId(-1);
+        newGame.setPlayerScores(newPlayerScores);
+        for (PlayerScore playerScore : newGame.getPlayerScores()) {
+            playerScore.setId(-1);
+        }
 
-                        // start a new activity so that the layout can refresh
-                        // correctly
-                        // TODO: don't start a new activity; just refresh the
-                        // layout
+        Callback<Game> onSaved = new Callback<Game>() {
 
-                        GameActivityHelper.openGameWithClearTop(GameActivity.this, newGame);
-                    }
+            @Override
+            public void onCallback(Game savedGame) {
+                log.d("game to parcel is: %s", game);
 
-                };
-                saveGame(newGame, true, onFinished); // automatically save the
-                                                     // game
+                // start a new activity so that the layout can refresh
+                // correctly
+                // TODO: don't start a new activity; just refresh the
+                // layout
 
-                return null;
+                GameActivityHelper.openGameWithClearTop(GameActivity.this, newGame);
             }
-        }.execute((Void) null);
+
+        };
+        saveGame(newGame, onSaved); // automatically save the game
 
     }
 
@@ -3,8 +3,12 @@ package com.nolanlawson.keepscore;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.app.Activity;
+import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -19,13 +23,14 @@ import com.actionbarsherlock.app.ActionBar.Tab;
 import com.actionbarsherlock.app.SherlockFragment;
 import com.actionbarsherlock.app.SherlockFragmentActivity;
 import com.actionbarsherlock.view.MenuItem;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.data.GameHistoryModel;
 import com.nolanlawson.keepscore.db.Game;
-import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.db.GameCache;
 import com.nolanlawson.keepscore.fragment.HistoryPlayerTableFragment;
 import com.nolanlawson.keepscore.fragment.HistoryRoundChartFragment;
 import com.nolanlawson.keepscore.fragment.HistoryRoundTableFragment;
 import com.nolanlawson.keepscore.fragment.HistoryTimelineFragment;
+import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.util.UtilLogger;
 
 /**
@@ -38,15 +43,16 @@ public class HistoryActivity extends SherlockFragmentActivity implements ActionB
 
     private static final UtilLogger log = new UtilLogger(HistoryActivity.class);
 
-    // Public service announcement: You just lost the
-    public static final String EXTRA_GAME = "game";
+    /** id of the game to show, which should already be in the {@link GameCache} */
+    public static final String EXTRA_GAME_ID = "gameId";
     private static final int MAX_PLAYERS_FOR_ROUND_TABLE = 8;
     
     private AppSectionsPagerAdapter appSectionsPagerAdapter;
     private ViewPager viewPager;
     private ActionBar actionBar;
     
-    private Game game;
+    private GameHistoryModel historyModel;
+    private List<Callback<GameHistoryModel>> onHistoryModelLoaded = new ArrayList<Callback<GameHistoryModel>>();
     private boolean showTimeline;
     private boolean showRoundTable;
     
@@ -74,27 +80,37 @@ public class HistoryActivity extends SherlockFragmentActivity implements ActionB
 
         setContentView(R.layout.history);
         
-        game = getIntent().getParcelableExtra(EXTRA_GAME);
-        showTimeline = determineIfShouldShowTimeline();
-        showRoundTable = determineIfShouldShowRoundTable();
-
-        // Create the adapter that will return a fragment for each of the three primary sections
-        // of the app.
-        appSectionsPagerAdapter = new AppSectionsPagerAdapter(getSupportFragmentManager());
-
         actionBar = getSupportActionBar();
         
-        // Specify that we will be displaying tabs in the action bar.
-        actionBar.setNavigationMode(ActionBar.NAVIGATION_MODE_TABS);
-        
-        viewPager = (ViewPager) findViewById(R.id.pager);
-        viewPager.setAdapter(appSectionsPagerAdapter);
-        viewPager.setOnPageChangeListener(this);
-        
         // home button goes back
         actionBar.setDisplayHomeAsUpEnabled(true);
         actionBar.setHomeButtonEnabled(true);
 
+        viewPager = (ViewPager) findViewById(R.id.pager);
+        viewPager.setOnPageChangeListener(this);
+
+        log.d("intent is %s", getIntent());
+
+        // worked out once and shared by all the tabs, and kept across rotations
+        historyModel = (GameHistoryModel) getLastCustomNonConfigurationInstance();
+        if (historyModel == null) {
+            loadHistoryModel(getIntent().getIntExtra(EXTRA_GAME_ID, -1));
+        } else {
+            setUpTabs();
+        }
+    }
+
+    /**
+     * Add the tabs, which depend on the history of the game.
+     */
+    private void setUpTabs() {
+        
+        showTimeline = determineIfShouldShowTimeline();
+        showRoundTable = determineIfShouldShowRoundTable();
+
+        // Specify that we will be displaying tabs in the action bar.
+        actionBar.setNavigationMode(ActionBar.NAVIGATION_MODE_TABS);
+        
         for (int i = 0; i < TabDef.values().length; i++) {
             TabDef tab = TabDef.values()[i];
             if (!showTimeline && tab == TabDef.ChartByTime) {
@@ -105,10 +121,61 @@ public class HistoryActivity extends SherlockFragmentActivity implements ActionB
             actionBar.addTab(actionBar.newTab().setText(tab.getTitleResId()).setTag(tab).setTabListener(this));
         }
 
-        log.d("intent is %s", getIntent());
-        log.d("game is %s", game);
+        // Create the adapter that will return a fragment for each of the tabs
+        appSectionsPagerAdapter = new AppSectionsPagerAdapter(getSupportFragmentManager());
+        viewPager.setAdapter(appSectionsPagerAdapter);
     }
     
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return historyModel;
+    }
+
+    /**
+     * Pass the history of the game to the callback once it's been worked out, on the main thread.
+     * 
+     * @param callback
+     */
+    public void getHistoryModel(Callback<GameHistoryModel> callback) {
+        if (historyModel != null) {
+            callback.onCallback(historyModel);
+        } else {
+            onHistoryModelLoaded.add(callback);
+        }
+    }
+
+    private void loadHistoryModel(final int gameId) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, GameHistoryModel>() {
+
+            @Override
+            protected GameHistoryModel doInBackground(Void... params) {
+                // only loaded from the database if the process was killed since the game was cached
+                Game game = GameCache.get(context, gameId);
+                return game == null ? null : GameHistoryModel.create(game, context);
+            }
+
+            @Override
+            protected void onPostExecute(GameHistoryModel result) {
+                super.onPostExecute(result);
+                if (isFinishing()) {
+                    return;
+                }
+                if (result == null) {
+                    log.w("game %d no longer exists", gameId);
+                    finish();
+                    return;
+                }
+                historyModel = result;
+                setUpTabs();
+                for (Callback<GameHistoryModel> callback : onHistoryModelLoaded) {
+                    callback.onCallback(result);
+                }
+                onHistoryModelLoaded.clear();
+            }
+        }.execute((Void) null);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // go back on pressing home in the action bar
@@ -122,23 +189,14 @@ public class HistoryActivity extends SherlockFragmentActivity implements ActionB
     
     private boolean determineIfShouldShowRoundTable() {
         // this table looks scrunched up if there are too many players.  It's not useful.
-        return game.getPlayerScores().size() <= MAX_PLAYERS_FOR_ROUND_TABLE;
+        return historyModel.getNumPlayers() <= MAX_PLAYERS_FOR_ROUND_TABLE;
     }
 
     private boolean determineIfShouldShowTimeline() {
         
         // on older versions of keepscore, we didn't log the timestamps of deltas.  So return true
         // if any deltas have a timestamp on them
-        for (PlayerScore playerScore : game.getPlayerScores()) {
-            for (Delta delta : playerScore.getHistory()) {
-                if (delta.getTimestamp() > 0L) {
-                    return true;
-                }
-            }
-        }
-        return false;
-        
-        
+        return historyModel.hasTimestamps();
     }
 
     private class AppSectionsPagerAdapter extends FragmentStatePagerAdapter {
@@ -152,11 +210,7 @@ public class HistoryActivity extends SherlockFragmentActivity implements ActionB
             
             TabDef tabDef = (TabDef)actionBar.getTabAt(i).getTag();
             
-            SherlockFragment fragment = createFragment(tabDef);
-            Bundle args = new Bundle();
-            args.putParcelable(GameActivity.EXTRA_GAME, game);
-            fragment.setArguments(args);
-            return fragment;
+            return createFragment(tabDef);
         }
         
         private SherlockFragment createFragment(TabDef tabDef) {
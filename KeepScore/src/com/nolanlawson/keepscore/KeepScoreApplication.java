@@ -0,0 +1,82 @@
+package com.nolanlawson.keepscore;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.util.UtilLogger;
+
+/**
+ * Holds the one GameDBHelper shared by the whole process, so that the database (and its prepared statements) isn't
+ * re-opened for every query.  The helper is reference-counted, and it's only closed once nobody has used it for a
+ * while.
+ * 
+ * @author nolan
+ * 
+ */
+public class KeepScoreApplication extends Application {
+
+    private static final UtilLogger log = new UtilLogger(KeepScoreApplication.class);
+
+    private Handler handler;
+    private GameDBHelper dbHelper;
+    private int dbReferenceCount;
+    private long dbIdleTimeout;
+
+    private Runnable closeIdleDb = new Runnable() {
+
+        @Override
+        public void run() {
+            synchronized (KeepScoreApplication.this) {
+                if (dbReferenceCount == 0 && dbHelper != null) {
+                    log.d("closing idle database");
+                    dbHelper.close();
+                    dbHelper = null;
+                }
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        handler = new Handler(Looper.getMainLooper());
+        dbIdleTimeout = getResources().getInteger(R.integer.db_idle_timeout_ms);
+    }
+
+    /**
+     * Get the shared GameDBHelper.  Every call must be balanced by a call to
+     * {@link #releaseDbHelper(Context)}, and the helper itself must never be closed.
+     * 
+     * @param context
+     * @return
+     */
+    public static GameDBHelper acquireDbHelper(Context context) {
+        return ((KeepScoreApplication) context.getApplicationContext()).acquireDbHelper();
+    }
+
+    public static void releaseDbHelper(Context context) {
+        ((KeepScoreApplication) context.getApplicationContext()).releaseDbHelper();
+    }
+
+    public synchronized GameDBHelper acquireDbHelper() {
+        handler.removeCallbacks(closeIdleDb);
+        if (dbHelper == null) {
+            log.d("opening database");
+            dbHelper = new GameDBHelper(this);
+        }
+        dbReferenceCount++;
+        return dbHelper;
+    }
+
+    public synchronized void releaseDbHelper() {
+        if (dbReferenceCount <= 0) {
+            throw new IllegalStateException("database released more times than it was acquired");
+        }
+        if (--dbReferenceCount == 0) {
+            handler.postDelayed(closeIdleDb, dbIdleTimeout);
+        }
+    }
+}
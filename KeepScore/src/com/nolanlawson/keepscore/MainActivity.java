@@ -1,6 +1,7 @@
 package com.nolanlawson.keepscore;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -37,6 +38,8 @@ import android.view.View.OnClickListener;
 import android.view.animation.Animation;
 import android.view.animation.Animation.AnimationListener;
 import android.view.animation.AnimationUtils;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.Button;
@@ -55,9 +58,11 @@ import com.nolanlawson.keepscore.data.LoadGamesBackupResult;
 import com.nolanlawson.keepscore.data.SavedGameAdapter;
 import com.nolanlawson.keepscore.data.SeparatedListAdapter;
 import com.nolanlawson.keepscore.data.TimePeriod;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameCache;
 import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.GameWriter;
 import com.nolanlawson.keepscore.db.GameSummary;
 import com.nolanlawson.keepscore.db.PlayerScore;
 import com.nolanlawson.keepscore.helper.GameActivityHelper;
@@ -69,11 +74,14 @@ import com.nolanlawson.keepscore.helper.SdcardHelper.Location;
 import com.nolanlawson.keepscore.helper.ToastHelper;
 import com.nolanlawson.keepscore.helper.VersionHelper;
 import com.nolanlawson.keepscore.serialization.GamesBackup;
+import com.nolanlawson.keepscore.serialization.GamesBackupCatalog;
+import com.nolanlawson.keepscore.serialization.GamesBackupRestorer;
 import com.nolanlawson.keepscore.serialization.GamesBackupSerializer;
 import com.nolanlawson.keepscore.serialization.GamesBackupSummary;
 import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.util.CollectionUtil;
 import com.nolanlawson.keepscore.util.CollectionUtil.Predicate;
+import com.nolanlawson.keepscore.util.Functions;
 import com.nolanlawson.keepscore.util.StringUtil;
 import com.nolanlawson.keepscore.util.UtilLogger;
 import com.nolanlawson.keepscore.widget.CustomFastScrollView;
@@ -82,6 +90,11 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
     private static UtilLogger log = new UtilLogger(MainActivity.class);
 
+    // how many saved games to load at a time
+    private static final int PAGE_SIZE = 50;
+    // start loading the next page once the user has scrolled this close to the end
+    private static final int PAGE_PREFETCH_DISTANCE = 20;
+
     // have to use this to ensure that the Dialog doesn't keep getting recreated,
     // because I cannot use configChanges="orientation" like I normally would,
     // because ActionBarSherlock doesn't support it.  Grrrrr....
@@ -97,6 +110,17 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
     private Set<GameSummary> lastChecked;
 
     private boolean selectedMode;
+
+    // paging state; the generation is bumped whenever the list is rebuilt, so that stale pages are ignored
+    private GameSummary lastLoadedGame;
+    private boolean moreGamesToLoad;
+    private boolean loadingPage;
+    private int pageGeneration;
+
+    // where the change feed was when the list was loaded, and the day it was loaded, since that determines
+    // which time period each game falls into
+    private long loadedChangeNumber;
+    private long loadedTodayStart;
     
     private Handler handler = new Handler(Looper.getMainLooper());
 
@@ -116,6 +140,29 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
         loadBackupFileFromShare(getIntent());
         
         showInitialMessage();
+        
+        convertLegacyHistoriesInBackground();
+    }
+    
+    private void convertLegacyHistoriesInBackground() {
+        // one-time conversion of the old comma-separated histories to the compact binary format; 
+        // does nothing once everything has been converted
+        new AsyncTask<Void, Void, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... params) {
+                GameDBHelper dbHelper = null;
+                try {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    dbHelper.convertLegacyHistories();
+                } finally {
+                    if (dbHelper != null) {
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
+                    }
+                }
+                return null;
+            }
+        }.execute((Void) null);
     }
     
     @Override
@@ -145,38 +192,152 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
         super.onResume();
         log.d("onResume()");
 
-        List<GameSummary> games = getAllGames();
-        Collections.sort(games, GameSummary.byRecentlySaved());
-        log.d("loaded games %s", games);
+        long todayStart = Functions.TODAY_START.apply(new Date()).getTime();
+        if (adapter != null && todayStart == loadedTodayStart) {
+            // usually only the game the user just left has changed, so just patch that in
+            applyGameChanges();
+        } else {
+            // first time, or the time periods have moved on since the list was loaded
+            loadedTodayStart = todayStart;
+            reloadGames();
+        }
+        lastPosition = null;
+        lastChecked = null;
 
-        SortedMap<TimePeriod, List<GameSummary>> organizedGames = organizeGamesByTimePeriod(games);
+        // a game that was just left may still be being saved, so patch in its latest state once it's written
+        GameWriter.getInstance(this).runAfterPendingWrites(new Runnable() {
 
-        adapter = new SeparatedListAdapter<SavedGameAdapter>(this);
-        for (Entry<TimePeriod, List<GameSummary>> entry : organizedGames.entrySet()) {
-            TimePeriod timePeriod = entry.getKey();
-            List<GameSummary> gamesSection = entry.getValue();
-            SavedGameAdapter subAdapter = new SavedGameAdapter(this, gamesSection);
-            if (lastChecked != null) {
-                // reload the checked items from when the user last quit
-                subAdapter.setChecked(lastChecked);
+            @Override
+            public void run() {
+                if (!isFinishing() && adapter != null) {
+                    applyGameChanges();
+                }
             }
-            subAdapter.setOnCheckChangedRunnable(new Runnable() {
+        });
+    }
 
-                @Override
-                public void run() {
-                    showOrHideButtonRow();
+    /**
+     * Rebuild the list from scratch, loading the first page.
+     */
+    private void reloadGames() {
+        adapter = new SeparatedListAdapter<SavedGameAdapter>(this);
+        pageGeneration++;
+        lastLoadedGame = null;
+        moreGamesToLoad = true;
+        loadingPage = false;
+
+        GameDBHelper dbHelper = null;
+        try {
+            dbHelper = KeepScoreApplication.acquireDbHelper(this);
+
+            // read this first, so that changes made while loading are re-applied later, rather than missed
+            loadedChangeNumber = dbHelper.findLatestChangeNumber();
+
+            // the section headers come from a count per time period, so that we don't have to load every game
+            Date date = new Date();
+            for (TimePeriod timePeriod : TimePeriod.values()) {
+                long start = timePeriod.getStartDateFunction().apply(date).getTime();
+                long end = timePeriod.getEndDateFunction().apply(date).getTime();
+                if (dbHelper.findGameCountByDateSaved(start, end) > 0) {
+                    adapter.addSection(getString(timePeriod.getTitleResId()), 
+                            createSubAdapter(new ArrayList<GameSummary>()));
                 }
-            });
-            adapter.addSection(getString(timePeriod.getTitleResId()), subAdapter);
+            }
+
+            // load the first page right away, including enough to get back to the user's last position
+            int limit = PAGE_SIZE + (lastPosition != null ? lastPosition : 0);
+            onPageLoaded(dbHelper.findGameSummaries(null, limit), limit);
+        } finally {
+            if (dbHelper != null) {
+                KeepScoreApplication.releaseDbHelper(this);
+            }
         }
         setListAdapter(adapter);
+        fastScrollView.listItemsChanged();
 
         if (lastPosition != null) {
             // scroll to the user's last position when they quit
             getListView().setSelection(lastPosition);
         }
-        lastPosition = null;
-        lastChecked = null;
+    }
+
+    /**
+     * Update only the rows for games that were saved, renamed, or deleted since the list was loaded.
+     */
+    private void applyGameChanges() {
+        List<GameSummary> changedGames;
+        List<Integer> changedGameIds;
+        GameDBHelper dbHelper = null;
+        try {
+            dbHelper = KeepScoreApplication.acquireDbHelper(this);
+            long changeNumber = dbHelper.findLatestChangeNumber();
+            if (changeNumber == loadedChangeNumber) {
+                return; // nothing changed
+            }
+            changedGameIds = dbHelper.findGameIdsChangedSince(loadedChangeNumber);
+            changedGames = dbHelper.findGameSummariesByIds(changedGameIds);
+            loadedChangeNumber = changeNumber;
+        } finally {
+            if (dbHelper != null) {
+                KeepScoreApplication.releaseDbHelper(this);
+            }
+        }
+        log.d("applying changes to games %s", changedGameIds);
+
+        Set<Integer> changedGameIdSet = new HashSet<Integer>(changedGameIds);
+        Set<Integer> deletedGameIds = new HashSet<Integer>(changedGameIds);
+        for (GameSummary game : changedGames) {
+            deletedGameIds.remove(game.getId());
+        }
+
+        // take out the old rows; they're equal to the new ones, since GameSummaries are compared by id
+        for (Entry<String, SavedGameAdapter> entry : new ArrayList<Entry<String, SavedGameAdapter>>(
+                adapter.getSectionsMap().entrySet())) {
+            SavedGameAdapter subAdapter = entry.getValue();
+            boolean removedAny = false;
+            for (int i = subAdapter.getCount() - 1; i >= 0; i--) {
+                GameSummary game = subAdapter.getItem(i);
+                if (changedGameIdSet.contains(game.getId())) {
+                    subAdapter.remove(game);
+                    removedAny = true;
+                    if (deletedGameIds.contains(game.getId())) {
+                        subAdapter.getChecked().remove(game);
+                    }
+                }
+            }
+            if (removedAny && subAdapter.isEmpty()) {
+                // might be re-created below, if the game just moved
+                adapter.removeSection(entry.getKey());
+            }
+        }
+
+        // put the new rows in the right section, unless they belong in a page that hasn't been loaded yet
+        Date date = new Date();
+        for (GameSummary game : changedGames) {
+            if (moreGamesToLoad && !isBefore(game, lastLoadedGame)) {
+                continue;
+            }
+            SavedGameAdapter subAdapter = getOrCreateSection(getTimePeriod(date, game));
+            subAdapter.add(game);
+            subAdapter.sort(GameSummary.byRecentlySaved());
+        }
+
+        adapter.notifyDataSetChanged();
+        adapter.refreshSections();
+        fastScrollView.listItemsChanged();
+
+        showOrHideButtonRow();
+    }
+
+    /**
+     * Return true if the first game comes before the second in the list, i.e. it was saved more recently.
+     */
+    private static boolean isBefore(GameSummary game, GameSummary other) {
+        if (other == null) {
+            return false;
+        }
+        return game.getDateSaved() > other.getDateSaved()
+                || (game.getDateSaved() == other.getDateSaved() && game.getId() > other.getId());
     }
 
     @Override
@@ -269,7 +430,13 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             showLoadBackupDialog();
             break;
         case R.id.menu_share:
-            showShareDialog(getAllGameIds());
+            findAllGameIds(new Callback<List<Integer>>() {
+
+                @Override
+                public void onCallback(List<Integer> gameIds) {
+                    showShareDialog(gameIds);
+                }
+            });
             break;
         case R.id.menu_delete_selected:
             showDeleteSelectedDialog();
@@ -278,7 +445,13 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             showShareDialog(getSelectedGameIds());
             break;
         case R.id.menu_export_to_spreadsheet:
-            showExportToSpreadsheetDialog(getAllGameIds());
+            findAllGameIds(new Callback<List<Integer>>() {
+
+                @Override
+                public void onCallback(List<Integer> gameIds) {
+                    showExportToSpreadsheetDialog(gameIds);
+                }
+            });
             break;
         }
         return false;
@@ -416,31 +589,30 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
     private void exportToSpreadsheet(final List<Integer> gameIds) {
         
         final ProgressDialog progressDialog = showProgressDialog(R.string.text_loading_generic, 
-                gameIds.size() + 1); // plus one for saving the spreadsheet itself
+                gameIds.size());
         
         new AsyncTask<Void, Void, String>(){
 
             @Override
             protected String doInBackground(Void... params) {
                 
-                List<Game> games = new ArrayList<Game>();
+                String filename = SdcardHelper.createSpreadsheetFilename();
                 GameDBHelper dbHelper = null;
                 try {
-                    dbHelper = new GameDBHelper(MainActivity.this);
-                    for (Integer gameId : gameIds) {
-                        games.add(dbHelper.findGameById(gameId));
-                        publishProgress((Void)null);
-                    }
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    SdcardHelper.saveSpreadsheet(filename, gameIds, dbHelper, MainActivity.this, new Runnable() {
+                        
+                        @Override
+                        public void run() {
+                            publishProgress((Void)null);
+                        }
+                    });
                 } finally {
                     if (dbHelper != null) {
-                        dbHelper.close();
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                     }
                 }
                 
-                String filename = SdcardHelper.createSpreadsheetFilename();
-                SdcardHelper.saveSpreadsheet(filename, games, MainActivity.this);
-                publishProgress((Void)null);
-                
                 return filename;
             }
 
@@ -542,6 +714,22 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
         }
 
         spacerView = findViewById(R.id.view_spacer);
+
+        fastScrollView.setOnScrollListener(new OnScrollListener() {
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // do nothing
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (totalItemCount > 0 
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
     }
 
     private void showSaveBackupDialog() {
@@ -551,7 +739,16 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             return;
         }
 
-        final List<Integer> gameIds = getAllGameIds();
+        findAllGameIds(new Callback<List<Integer>>() {
+
+            @Override
+            public void onCallback(List<Integer> gameIds) {
+                showSaveBackupDialog(gameIds);
+            }
+        });
+    }
+
+    private void showSaveBackupDialog(final List<Integer> gameIds) {
 
         String message = getResources().getQuantityString(
                 R.plurals.text_save_backup,
@@ -564,7 +761,7 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         dialog.dismiss();
-                        saveBackup(Format.GZIP, Location.Backups, gameIds, new Callback<String>() {
+                        saveBackup(Format.BINARY, Location.Backups, gameIds, new Callback<String>() {
 
                             public void onCallback(String filename) {
                                 String message = getResources().getQuantityString(
@@ -601,32 +798,55 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             @Override
             protected Boolean doInBackground(Void... params) {
                 
-                List<Game> games = new ArrayList<Game>();
+                final GamesBackup gamesBackup = new GamesBackup();
+                gamesBackup.setVersion(format == Format.BINARY 
+                        ? GamesBackupSerializer.VERSION_SIX : GamesBackupSerializer.CURRENT_VERSION);
+                gamesBackup.setDateSaved(System.currentTimeMillis());
+                gamesBackup.setAutomatic(false);
+                // an upper bound, since games might be deleted while they're being written; the serializer corrects it
+                gamesBackup.setGameCount(gameIds.size());
+                gamesBackup.setFilename(filename);
+
                 GameDBHelper dbHelper = null;
                 try {
-                    dbHelper = new GameDBHelper(MainActivity.this);
-                    for (Integer gameId : gameIds) {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    final Iterator<Game> games = dbHelper.iterateGames(gameIds);
+                    
+                    // games are read from the database as they're written out
+                    boolean saved = SdcardHelper.save(filename, format, location, new SdcardHelper.StreamWriter() {
                         
-                        Game game = dbHelper.findGameById(gameId);
-                        games.add(game);
-                        publishProgress((Void) null);
+                        @Override
+                        public void writeTo(OutputStream outputStream) throws IOException {
+                            GamesBackupSerializer.serialize(gamesBackup, new Iterator<Game>() {
+
+                                @Override
+                                public boolean hasNext() {
+                                    return games.hasNext();
+                                }
+
+                                @Override
+                                public Game next() {
+                                    Game game = games.next();
+                                    publishProgress((Void) null);
+                                    return game;
+                                }
+
+                                @Override
+                                public void remove() {
+                                    throw new UnsupportedOperationException();
+                                }
+                            }, outputStream, format);
+                        }
+                    });
+                    if (saved && location == Location.Backups) {
+                        GamesBackupCatalog.put(gamesBackup);
                     }
+                    return saved;
                 } finally {
                     if (dbHelper != null) {
-                        dbHelper.close();
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                     }
                 }
-
-                GamesBackup gamesBackup = new GamesBackup();
-                gamesBackup.setVersion(GamesBackupSerializer.CURRENT_VERSION);
-                gamesBackup.setDateSaved(System.currentTimeMillis());
-                gamesBackup.setAutomatic(false);
-                gamesBackup.setGameCount(games.size());
-                gamesBackup.setGames(games);
-                gamesBackup.setFilename(filename);
-                String xmlData = GamesBackupSerializer.serialize(gamesBackup);
-
-                return SdcardHelper.save(filename, format, location, xmlData);
             }
 
             @Override
@@ -684,21 +904,16 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
             @Override
             protected List<GamesBackupSummary> doInBackground(Void... params) {
-                List<GamesBackupSummary> summaries = new ArrayList<GamesBackupSummary>();
-
-                // fetch the summaries only, so that we don't have to read the entire XML file for each one
-                for (String backup : backups) {
-                    File file = SdcardHelper.getFile(backup, Location.Backups);
-                    Uri uri = Uri.fromFile(file);
-                    
-                    Format format = file.getName().endsWith(".gz") ? Format.GZIP : Format.XML;
+                // fetch the summaries only, usually straight from the catalog, so that we don't have to read 
+                // the entire XML file for each one
+                List<GamesBackupSummary> summaries = GamesBackupCatalog.getSummaries(backups, 
+                        getContentResolver(), new Runnable() {
                     
-                    GamesBackupSummary summary = GamesBackupSerializer.readGamesBackupSummary(
-                            uri, format, getContentResolver());
-                    summaries.add(summary);
-                    
-                    publishProgress((Void)null);
-                }
+                    @Override
+                    public void run() {
+                        publishProgress((Void)null);
+                    }
+                });
 
                 // show most recent ones first
                 Collections.sort(summaries, new Comparator<GamesBackupSummary>(){
@@ -746,7 +961,7 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
                         GamesBackupSummary summary = adapter.getItem(which);
                         
                         Uri uri = Uri.fromFile(SdcardHelper.getFile(summary.getFilename(), Location.Backups));
-                        Format format = summary.getFilename().endsWith(".gz") ? Format.GZIP : Format.XML;
+                        Format format = Format.forFilename(summary.getFilename());
                         
                         loadBackup(summary, uri, format);
                     }
@@ -755,25 +970,31 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
     private void loadBackup(final GamesBackupSummary summary, final Uri uri, final Format format) {
 
-        final ProgressDialog progressDialog = showProgressDialog(R.string.text_loading, summary.getGameCount());
+        final ProgressDialog progressDialog = showProgressDialog(R.string.text_loading, 
+                GamesBackupRestorer.PROGRESS_MAX);
 
-        new AsyncTask<Void, Void, LoadGamesBackupResult>() {
+        new AsyncTask<Void, Integer, LoadGamesBackupResult>() {
+
+            private int lastProgress;
 
             @Override
             protected LoadGamesBackupResult doInBackground(Void... params) {
-                return loadBackupInBackground(uri, format, new Runnable() {
+                return loadBackupInBackground(summary, uri, format, new Callback<Integer>() {
 
                     @Override
-                    public void run() {
-                        publishProgress((Void) null);
+                    public void onCallback(Integer progress) {
+                        if (progress != lastProgress) {
+                            lastProgress = progress;
+                            publishProgress(progress);
+                        }
                     }
                 });
             }
 
             @Override
-            protected void onProgressUpdate(Void... values) {
+            protected void onProgressUpdate(Integer... values) {
                 super.onProgressUpdate(values);
-                progressDialog.incrementProgressBy(1);
+                progressDialog.setProgress(values[0]);
             }
 
             @Override
@@ -788,67 +1009,81 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
     private void onReceiveLoadGamesBackupResult(LoadGamesBackupResult result) {
 
+        // load the new games into the existing adapter; even a failed restore may have saved some of them
+        applyGameChanges();
+
         if (result == null) {
             // failed to load the backup for some reason
             ToastHelper.showLong(this, R.string.toast_error_with_backup);
             return;
         }
 
-        // load the new games into the existing adapter
-        for (Game game : result.getLoadedGames()) {
-            onNewGameCreated(game);
-        }
-
         // create a nice summary message
 
         String message = String.format(getString(R.string.text_load_backup), result.getFilename(),
-                result.getNumFound(), result.getLoadedGames().size(), result.getNumDuplicates());
+                result.getNumFound(), result.getNumLoaded(), result.getNumDuplicates());
 
         new AlertDialog.Builder(this).setCancelable(true).setTitle(R.string.title_success).setMessage(message)
                 .setPositiveButton(android.R.string.ok, null).show();
     }
 
-    private LoadGamesBackupResult loadBackupInBackground(Uri uri, Format format, Runnable onProgress) {
+    /**
+     * Parse the backup straight from the file and save the games as they're read.  A differential backup is
+     * restored along with the rest of its chain, newest first, so that each game is restored as it was most
+     * recently backed up.
+     * 
+     * @param summary
+     * @param uri
+     * @param format
+     *            the format of the given backup; the rest of its chain is read in whatever format its filenames say
+     * @param onProgress
+     *            called with the progress so far, out of GamesBackupRestorer.PROGRESS_MAX
+     * @return
+     */
+    private LoadGamesBackupResult loadBackupInBackground(GamesBackupSummary summary, Uri uri, Format format,
+            Callback<Integer> onProgress) {
 
-        // use the start date as a unique identifier; it's a
-        // millisecond-timestamp, so it should work
+        List<Uri> uris = new ArrayList<Uri>();
+        uris.add(uri);
+        if (summary.getBaseFilename() != null) {
+            uris.addAll(findEarlierBackupsInChain(summary));
+        }
 
-        GamesBackup gamesBackup;
-        try {
-            String xmlData = SdcardHelper.open(uri, format, getContentResolver());
-            gamesBackup = GamesBackupSerializer.deserialize(xmlData);
-        } catch (Exception e) {
-            log.e(e, "unexpected");
-            return null;
+        long totalBytes = 0;
+        for (Uri chainUri : uris) {
+            long length = SdcardHelper.getLength(chainUri, getContentResolver());
+            if (length < 0) {
+                totalBytes = -1;
+                break;
+            }
+            totalBytes += length;
         }
-        List<Game> loadedGames = new ArrayList<Game>();
-        int numFound = 0, numDuplicates = 0;
+
+        GamesBackup gamesBackup = null;
+        LoadGamesBackupResult result;
         GameDBHelper dbHelper = null;
         try {
-            dbHelper = new GameDBHelper(this);
-            for (Game game : gamesBackup.getGames()) {
-                numFound++;
-                if (dbHelper.existsByDateStarted(game.getDateStarted())) {
-                    numDuplicates++;
-                } else {
-                    dbHelper.saveGame(game, false); // don't update 'dateSaved'
-                    // value - keep original
-                    loadedGames.add(game);
+            dbHelper = KeepScoreApplication.acquireDbHelper(this);
+            GamesBackupRestorer restorer = new GamesBackupRestorer(dbHelper, getContentResolver(), totalBytes,
+                    summary.getGameCount(), onProgress);
+            for (Uri chainUri : uris) {
+                // the rest of the chain might not be in the same format as the backup that was picked
+                Format chainFormat = chainUri.equals(uri) ? format : Format.forFilename(chainUri.getLastPathSegment());
+                GamesBackup chainGamesBackup = restorer.restore(chainUri, chainFormat);
+                if (gamesBackup == null) {
+                    gamesBackup = chainGamesBackup;
                 }
-                onProgress.run();
             }
+            result = restorer.finish();
+        } catch (Exception e) {
+            log.e(e, "unexpected");
+            return null;
         } finally {
             if (dbHelper != null) {
-                dbHelper.close();
+                KeepScoreApplication.releaseDbHelper(this);
             }
         }
 
-        // this is just for the summary message we show the user
-        LoadGamesBackupResult result = new LoadGamesBackupResult();
-        result.setLoadedGames(loadedGames);
-        result.setNumDuplicates(numDuplicates);
-        result.setNumFound(numFound);
-        
         // Pre-version 3, we don't have the filename in the deserialized XML
         String filenameToDisplay = gamesBackup.getFilename() != null 
                 ? gamesBackup.getFilename() : uri.getLastPathSegment();
@@ -857,6 +1092,45 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
         return result;
     }
 
+    /**
+     * Find the full backup that a differential backup is based on, plus any differential backups in between, 
+     * newest first.
+     * 
+     * @param summary
+     * @return
+     */
+    private List<Uri> findEarlierBackupsInChain(GamesBackupSummary summary) {
+        List<GamesBackupSummary> differentialSummaries = new ArrayList<GamesBackupSummary>();
+        
+        List<GamesBackupSummary> allSummaries = GamesBackupCatalog.getSummaries(
+                SdcardHelper.list(Location.Backups), getContentResolver(), null);
+        for (GamesBackupSummary otherSummary : allSummaries) {
+            if (summary.getBaseFilename().equals(otherSummary.getBaseFilename())
+                    && otherSummary.getDateSaved() < summary.getDateSaved()) {
+                differentialSummaries.add(otherSummary);
+            }
+        }
+        
+        // newest first
+        Collections.sort(differentialSummaries, new Comparator<GamesBackupSummary>(){
+
+            public int compare(GamesBackupSummary lhs, GamesBackupSummary rhs) {
+                return Long.valueOf(rhs.getDateSaved()).compareTo(lhs.getDateSaved());
+            }
+        });
+        
+        List<Uri> result = new ArrayList<Uri>();
+        for (GamesBackupSummary differentialSummary : differentialSummaries) {
+            result.add(Uri.fromFile(SdcardHelper.getFile(differentialSummary.getFilename(), Location.Backups)));
+        }
+        if (SdcardHelper.backupExists(summary.getBaseFilename(), Location.Backups)) {
+            result.add(Uri.fromFile(SdcardHelper.getFile(summary.getBaseFilename(), Location.Backups)));
+        } else {
+            log.w("base backup %s is missing", summary.getBaseFilename());
+        }
+        return result;
+    }
+
     private List<Integer> getSelectedGameIds() {
         final Set<Integer> ids = new HashSet<Integer>();
         for (SavedGameAdapter subAdapter : adapter.getSectionsMap().values()) {
@@ -867,27 +1141,193 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
         return new ArrayList<Integer>(ids);
     }
     
-    private List<Integer> getAllGameIds() {
-        List<Integer> ids = new ArrayList<Integer>();
-        for (int i = 0; i < adapter.getCount(); i++) {
-            Object item = adapter.getItem(i);
-            if (item instanceof GameSummary) { // else it's a subsection title
-                ids.add(((GameSummary)item).getId());
+    /**
+     * Pass the ids of all the saved games to the callback, on the main thread.  Not every game is necessarily
+     * loaded into the adapter, so they're read from the database in the background.
+     * 
+     * @param onLoaded
+     */
+    private void findAllGameIds(final Callback<List<Integer>> onLoaded) {
+        new AsyncTask<Void, Void, List<Integer>>() {
+
+            @Override
+            protected List<Integer> doInBackground(Void... params) {
+                GameDBHelper dbHelper = null;
+                try {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    return dbHelper.findAllGameIds();
+                } finally {
+                    if (dbHelper != null) {
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
+                    }
+                }
             }
-        }
-        return ids;
+
+            @Override
+            protected void onPostExecute(List<Integer> result) {
+                super.onPostExecute(result);
+                if (!isFinishing()) {
+                    onLoaded.onCallback(result);
+                }
+            }
+
+        }.execute((Void) null);
     }
     
-    private List<GameSummary> getAllGames() {
-        GameDBHelper dbHelper = null;
-        try {
-            dbHelper = new GameDBHelper(this);
-            return dbHelper.findAllGameSummaries();
-        } finally {
-            if (dbHelper != null) {
-                dbHelper.close();
+    private SavedGameAdapter createSubAdapter(List<GameSummary> games) {
+        SavedGameAdapter subAdapter = new SavedGameAdapter(this, games);
+        if (lastChecked != null) {
+            // reload the checked items from when the user last quit
+            subAdapter.setChecked(lastChecked);
+        }
+        subAdapter.setOnCheckChangedRunnable(new Runnable() {
+
+            @Override
+            public void run() {
+                showOrHideButtonRow();
             }
+        });
+        return subAdapter;
+    }
+
+    /**
+     * Load the next page of games in the background, unless it's already loading or there's nothing left.
+     */
+    private void loadNextPage() {
+        if (!moreGamesToLoad || loadingPage) {
+            return;
         }
+        loadingPage = true;
+
+        final int generation = pageGeneration;
+        final GameSummary after = lastLoadedGame;
+
+        new AsyncTask<Void, Void, List<GameSummary>>() {
+
+            @Override
+            protected List<GameSummary> doInBackground(Void... params) {
+                GameDBHelper dbHelper = null;
+                try {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    return dbHelper.findGameSummaries(after, PAGE_SIZE);
+                } finally {
+                    if (dbHelper != null) {
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
+                    }
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<GameSummary> result) {
+                super.onPostExecute(result);
+                if (generation != pageGeneration) {
+                    return; // the list was rebuilt in the meantime
+                }
+                loadingPage = false;
+                onPageLoaded(result, PAGE_SIZE);
+            }
+
+        }.execute((Void) null);
+    }
+
+    /**
+     * Load everything that hasn't been loaded yet in the background, e.g. because the user wants to select all the
+     * games.
+     * 
+     * @param onLoaded
+     *            run on the main thread once everything is loaded, unless the list was rebuilt in the meantime
+     */
+    private void loadRemainingGames(final Runnable onLoaded) {
+        if (!moreGamesToLoad) {
+            onLoaded.run();
+            return;
+        }
+        // any page still loading would be a duplicate
+        pageGeneration++;
+        loadingPage = true;
+
+        final int generation = pageGeneration;
+        final GameSummary after = lastLoadedGame;
+
+        new AsyncTask<Void, Void, List<GameSummary>>() {
+
+            @Override
+            protected List<GameSummary> doInBackground(Void... params) {
+                GameDBHelper dbHelper = null;
+                try {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
+                    return dbHelper.findGameSummaries(after, -1);
+                } finally {
+                    if (dbHelper != null) {
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
+                    }
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<GameSummary> result) {
+                super.onPostExecute(result);
+                if (generation != pageGeneration) {
+                    return; // the list was rebuilt in the meantime
+                }
+                loadingPage = false;
+                onPageLoaded(result, -1);
+                onLoaded.run();
+            }
+
+        }.execute((Void) null);
+    }
+
+    private void onPageLoaded(List<GameSummary> games, int limit) {
+        log.d("loaded page of %s games", games.size());
+
+        moreGamesToLoad = (games.size() == limit);
+        if (games.isEmpty()) {
+            return;
+        }
+        lastLoadedGame = games.get(games.size() - 1);
+
+        // already sorted by most recently saved
+        for (Entry<TimePeriod, List<GameSummary>> entry : organizeGamesByTimePeriod(games).entrySet()) {
+            SavedGameAdapter subAdapter = getOrCreateSection(entry.getKey());
+            for (GameSummary game : entry.getValue()) {
+                subAdapter.add(game);
+            }
+        }
+        adapter.notifyDataSetChanged();
+        adapter.refreshSections();
+        fastScrollView.listItemsChanged();
+    }
+
+    /**
+     * Get the sub-adapter for the time period, adding a new section in the proper place if it doesn't exist.
+     */
+    private SavedGameAdapter getOrCreateSection(TimePeriod timePeriod) {
+        String sectionName = getString(timePeriod.getTitleResId());
+
+        SavedGameAdapter subAdapter = adapter.getSectionsMap().get(sectionName);
+        if (subAdapter != null) {
+            return subAdapter;
+        }
+
+        subAdapter = createSubAdapter(new ArrayList<GameSummary>());
+
+        Map<String, Integer> sectionsToOrder = new HashMap<String, Integer>();
+        for (TimePeriod period : TimePeriod.values()) {
+            sectionsToOrder.put(getString(period.getTitleResId()), period.ordinal());
+        }
+        int index = 0;
+        for (int i = 0; i < adapter.getSectionHeaders().getCount(); i++) {
+            String section = adapter.getSectionHeaders().getItem(i);
+
+            if (sectionsToOrder.get(sectionName) < sectionsToOrder.get(section)) {
+                break;
+            }
+            index++;
+        }
+
+        adapter.insertSection(sectionName, index, subAdapter);
+        return subAdapter;
     }
 
     @Override
@@ -926,13 +1366,19 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
     }
 
     private void selectAll() {
-        for (SavedGameAdapter subAdapter : adapter.getSectionsMap().values()) {
-            for (int i = 0; i < subAdapter.getCount(); i++) {
-                GameSummary game = subAdapter.getItem(i);
-                subAdapter.getChecked().add(game);
+        loadRemainingGames(new Runnable() {
+
+            @Override
+            public void run() {
+                for (SavedGameAdapter subAdapter : adapter.getSectionsMap().values()) {
+                    for (int i = 0; i < subAdapter.getCount(); i++) {
+                        GameSummary game = subAdapter.getItem(i);
+                        subAdapter.getChecked().add(game);
+                    }
+                }
+                adapter.notifyDataSetChanged();
             }
-        }
-        adapter.notifyDataSetChanged();
+        });
     }
 
     private void deselectAll() {
@@ -975,14 +1421,14 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
                 GameDBHelper dbHelper = null;
                 try {
-                    dbHelper = new GameDBHelper(MainActivity.this);
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
                     List<Integer> gameIds = CollectionUtil.transform(games, GameSummary.GET_ID);
                     
                     dbHelper.deleteGames(gameIds);
 
                 } finally {
                     if (dbHelper != null) {
-                        dbHelper.close();
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                     }
                 }
                 return null;
@@ -1050,11 +1496,11 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             protected Game doInBackground(Void... params) {
                 GameDBHelper dbHelper = null;
                 try {
-                    dbHelper = new GameDBHelper(MainActivity.this);
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
                     return dbHelper.findGameById(gameSummary.getId());
                 } finally {
                     if (dbHelper != null) {
-                        dbHelper.close();
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                     }
                 }
             }
@@ -1074,10 +1520,23 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
             @Override
             public void onCallback(Game game) {
+                if (game == null) {
+                    onGameNotFound();
+                    return;
+                }
                 copyGame(game, resetScores);
             }
         });      
     }
+
+    /**
+     * The game was deleted after the list was loaded (e.g. by a delete that was still pending), so drop it from the
+     * list.
+     */
+    private void onGameNotFound() {
+        ToastHelper.showShort(this, R.string.toast_game_not_found);
+        applyGameChanges();
+    }
     
     private void copyGame(Game game, final boolean resetScores) {
 
@@ -1089,7 +1548,7 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             for (PlayerScore playerScore : newGame.getPlayerScores()) {
                 playerScore.setScore(PreferenceHelper.getIntPreference(R.string.CONSTANT_pref_initial_score,
                         R.string.CONSTANT_pref_initial_score_default, this));
-                playerScore.setHistory(new ArrayList<Delta>());
+                playerScore.setHistory(new DeltaHistory());
             }
         }
 
@@ -1099,11 +1558,11 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
             protected Void doInBackground(Void... params) {
                 GameDBHelper dbHelper = null;
                 try {
-                    dbHelper = new GameDBHelper(MainActivity.this);
+                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
                     dbHelper.saveGame(newGame);
                 } finally {
                     if (dbHelper != null) {
-                        dbHelper.close();
+                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                     }
                 }
                 return null;
@@ -1124,40 +1583,11 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
         GameSummary newGameSummary = GameSummary.fromGame(newGame);
         
-        // if the appropriate section doesn't exist, need to create it
+        // creates the appropriate section if it doesn't exist
         TimePeriod timePeriodForThisGame = getTimePeriod(new Date(), newGameSummary);
-        String sectionForThisGame = getString(timePeriodForThisGame.getTitleResId());
-
-        if (adapter.getCount() == 0 || !adapter.getSectionsMap().keySet().contains(sectionForThisGame)) {
-            SavedGameAdapter subAdapter = new SavedGameAdapter(MainActivity.this, new ArrayList<GameSummary>(
-                    Collections.singleton(newGameSummary)));
-            subAdapter.setOnCheckChangedRunnable(new Runnable() {
-
-                @Override
-                public void run() {
-                    showOrHideButtonRow();
-                }
-            });
-            Map<String, Integer> sectionsToOrder = new HashMap<String, Integer>();
-            for (TimePeriod timePeriod : TimePeriod.values()) {
-                sectionsToOrder.put(getString(timePeriod.getTitleResId()), timePeriod.ordinal());
-            }
-            int index = 0;
-            for (int i = 0; i < adapter.getSectionHeaders().getCount(); i++) {
-                String section = adapter.getSectionHeaders().getItem(i);
-
-                if (sectionsToOrder.get(sectionForThisGame) < sectionsToOrder.get(section)) {
-                    break;
-                }
-                index++;
-            }
-
-            adapter.insertSection(sectionForThisGame, index, subAdapter);
-        } else { // just insert it into the proper section
-            SavedGameAdapter subAdapter = adapter.getSectionsMap().get(sectionForThisGame);
-            subAdapter.add(newGameSummary);
-            subAdapter.sort(GameSummary.byRecentlySaved());
-        }
+        SavedGameAdapter subAdapter = getOrCreateSection(timePeriodForThisGame);
+        subAdapter.add(newGameSummary);
+        subAdapter.sort(GameSummary.byRecentlySaved());
         adapter.notifyDataSetChanged();
         adapter.refreshSections();
         fastScrollView.listItemsChanged();
@@ -1268,8 +1698,13 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
 
             @Override
             public void onCallback(Game game) {
+                if (game == null) {
+                    onGameNotFound();
+                    return;
+                }
+                GameCache.put(game);
                 Intent intent = new Intent(MainActivity.this, HistoryActivity.class);
-                intent.putExtra(HistoryActivity.EXTRA_GAME, game);
+                intent.putExtra(HistoryActivity.EXTRA_GAME_ID, game.getId());
 
                 startActivity(intent);
                 
@@ -1300,11 +1735,11 @@ public class MainActivity extends SherlockListActivity implements OnClickListene
                             protected Void doInBackground(Void... params) {
                                 GameDBHelper dbHelper = null;
                                 try {
-                                    dbHelper = new GameDBHelper(MainActivity.this);
+                                    dbHelper = KeepScoreApplication.acquireDbHelper(MainActivity.this);
                                     dbHelper.updateGameName(game.getId(), newName);
                                 } finally {
                                     if (dbHelper != null) {
-                                        dbHelper.close();
+                                        KeepScoreApplication.releaseDbHelper(MainActivity.this);
                                     }
                                 }
                                 return null;
@@ -19,7 +19,7 @@ import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.nolanlawson.keepscore.data.EditablePlayerAdapter;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.Game;
 import com.nolanlawson.keepscore.db.PlayerScore;
 import com.nolanlawson.keepscore.helper.DialogHelper;
@@ -194,7 +194,7 @@ public class OrganizePlayersActivity extends SherlockListActivity implements OnC
         playerScore.setPlayerNumber(adapter.getCount());
         playerScore.setScore(PreferenceHelper.getIntPreference(R.string.CONSTANT_pref_initial_score,
                 R.string.CONSTANT_pref_initial_score_default, this));
-        playerScore.setHistory(new ArrayList<Delta>());
+        playerScore.setHistory(new DeltaHistory());
         playerScore.setPlayerColor(PlayerColor.BUILT_INS[playerScore.getPlayerNumber() % PlayerColor.BUILT_INS.length]);
 
         adapter.add(playerScore);
@@ -1,22 +1,41 @@
 package com.nolanlawson.keepscore;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
 
 import com.nolanlawson.keepscore.db.Game;
 import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.GameSummary;
 import com.nolanlawson.keepscore.helper.SdcardHelper;
 import com.nolanlawson.keepscore.helper.SdcardHelper.Format;
 import com.nolanlawson.keepscore.helper.SdcardHelper.Location;
 import com.nolanlawson.keepscore.serialization.GamesBackup;
+import com.nolanlawson.keepscore.serialization.GamesBackupCatalog;
+import com.nolanlawson.keepscore.serialization.GamesBackupRetentionPolicy;
 import com.nolanlawson.keepscore.serialization.GamesBackupSerializer;
+import com.nolanlawson.keepscore.serialization.GamesBackupSummary;
 import com.nolanlawson.keepscore.util.UtilLogger;
 
 /**
- * Task to run occasionally in order to automatically back up saved games to an
- * XML file.
+ * Task to run occasionally in order to automatically back up saved games to a
+ * file.
+ * 
+ * Most runs only write a differential backup, containing just the games that
+ * have changed since the previous automatic backup, along with the name of the
+ * full backup that the chain is based on.  Every so often (or whenever the base
+ * is missing), a new full backup is written instead.
+ * 
+ * After each backup, old automatic backups are pruned according to the
+ * {@link GamesBackupRetentionPolicy}.  Manual backups are never touched.
  * 
  * @author nolan
  * 
@@ -33,39 +52,123 @@ public class PeriodicAutomaticBackupService extends IntentService {
     
     public static final String SERVICE_NAME = PeriodicAutomaticBackupService.class.getSimpleName();
     
+    /** how many differential backups to write before starting over with a full one */
+    private static final int MAX_DIFFERENTIAL_BACKUPS = 6;
+    
+    // kept separate from the default preferences, so it doesn't get copied into setting sets
+    private static final String STATE_PREFERENCES = "automatic_backup_state";
+    private static final String KEY_BASE_FILENAME = "baseFilename";
+    private static final String KEY_CHANGE_NUMBER = "changeNumber";
+    private static final String KEY_NUM_DIFFERENTIAL_BACKUPS = "numDifferentialBackups";
+    
     public PeriodicAutomaticBackupService() {
         super(SERVICE_NAME);
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        String filename = SdcardHelper.createBackupFilename(Format.GZIP);
+        String filename = SdcardHelper.createBackupFilename(Format.BINARY);
+        
+        SharedPreferences state = getSharedPreferences(STATE_PREFERENCES, MODE_PRIVATE);
+        String baseFilename = state.getString(KEY_BASE_FILENAME, null);
+        long lastChangeNumber = state.getLong(KEY_CHANGE_NUMBER, -1);
+        int numDifferentialBackups = state.getInt(KEY_NUM_DIFFERENTIAL_BACKUPS, 0);
+        
         GameDBHelper dbHelper =  null;
         try {
-            dbHelper = new GameDBHelper(this);
-            List<Game> games = dbHelper.findAllGames();
+            dbHelper = KeepScoreApplication.acquireDbHelper(this);
             
-            log.i("Beginning periodic automatic backup of %d saved KeepScore games...", games.size());
+            // read this first, so that anything that changes while we're writing goes in the next backup
+            long changeNumber = dbHelper.findLatestChangeNumber();
+            
+            boolean full = baseFilename == null
+                    || numDifferentialBackups >= MAX_DIFFERENTIAL_BACKUPS
+                    || changeNumber < lastChangeNumber // database was recreated
+                    || !SdcardHelper.backupExists(baseFilename, Location.Backups);
+            
+            List<Integer> gameIds;
+            List<Long> deletedDatesStarted = Collections.emptyList();
+            if (full) {
+                gameIds = dbHelper.findAllGameIds();
+                log.i("Beginning full automatic backup of %d saved KeepScore games...", gameIds.size());
+            } else {
+                if (changeNumber == lastChangeNumber) {
+                    log.i("No KeepScore games changed since the last automatic backup.");
+                    return;
+                }
+                // leave out the games that were deleted
+                gameIds = new ArrayList<Integer>();
+                for (GameSummary gameSummary : dbHelper.findGameSummariesByIds(
+                        dbHelper.findGameIdsChangedSince(lastChangeNumber))) {
+                    gameIds.add(gameSummary.getId());
+                }
+                // ...but remember them, so they aren't restored from the older backups
+                deletedDatesStarted = dbHelper.findDatesStartedDeletedSince(lastChangeNumber);
+                log.i("Beginning differential automatic backup of %d changed KeepScore games...", gameIds.size());
+            }
             
-            GamesBackup gamesBackup = new GamesBackup();
+            final GamesBackup gamesBackup = new GamesBackup();
             
-            gamesBackup.setVersion(GamesBackupSerializer.CURRENT_VERSION);
+            gamesBackup.setVersion(GamesBackupSerializer.VERSION_SIX);
             gamesBackup.setDateSaved(System.currentTimeMillis());
-            gamesBackup.setGameCount(games.size());
+            // an upper bound, since games might be deleted while they're being written; the serializer corrects it
+            gamesBackup.setGameCount(gameIds.size());
             gamesBackup.setAutomatic(true);
             gamesBackup.setFilename(filename);
-            gamesBackup.setGames(games);
+            gamesBackup.setBaseFilename(full ? null : baseFilename);
+            gamesBackup.setDeletedDatesStarted(deletedDatesStarted);
             
-            String xmlData = GamesBackupSerializer.serialize(gamesBackup);
-            SdcardHelper.save(filename, Format.GZIP, Location.Backups, xmlData);
+            // stream the games straight from the database to the file, rather than loading them all at once
+            final Iterator<Game> games = dbHelper.iterateGames(gameIds);
+            boolean saved = SdcardHelper.save(filename, Format.BINARY, Location.Backups, 
+                    new SdcardHelper.StreamWriter() {
+                
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    GamesBackupSerializer.serialize(gamesBackup, games, outputStream, Format.BINARY);
+                }
+            });
             
-            log.i("KeepScore backed up %d games to \"%s\".", games.size(), filename);
+            if (saved) {
+                log.i("KeepScore backed up %d games to \"%s\".", gamesBackup.getGameCount(), filename);
+                GamesBackupCatalog.put(gamesBackup);
+                
+                Editor editor = state.edit();
+                editor.putString(KEY_BASE_FILENAME, full ? filename : baseFilename);
+                editor.putLong(KEY_CHANGE_NUMBER, changeNumber);
+                editor.putInt(KEY_NUM_DIFFERENTIAL_BACKUPS, full ? 0 : numDifferentialBackups + 1);
+                editor.commit();
+                
+                pruneOldBackups();
+            } else {
+                log.w("KeepScore failed to back up games to \"%s\".", filename);
+            }
         } finally {
             if (dbHelper != null) {
-                dbHelper.close();
+                KeepScoreApplication.releaseDbHelper(this);
             }
         }
     }
 
-    
+    private void pruneOldBackups() {
+        List<String> filenames = SdcardHelper.list(Location.Backups);
+        List<GamesBackupSummary> summaries = GamesBackupCatalog.getSummaries(filenames, getContentResolver(), null);
+        for (int i = 0; i < filenames.size(); i++) {
+            // in case the file was renamed since it was written
+            summaries.get(i).setFilename(filenames.get(i));
+        }
+        List<GamesBackupSummary> toDelete = GamesBackupRetentionPolicy.fromResources(this)
+                .findBackupsToDelete(summaries);
+        
+        int numDeleted = 0;
+        for (GamesBackupSummary summary : toDelete) {
+            if (SdcardHelper.getFile(summary.getFilename(), Location.Backups).delete()) {
+                GamesBackupCatalog.remove(summary.getFilename());
+                numDeleted++;
+            } else {
+                log.w("Couldn't delete old backup \"%s\".", summary.getFilename());
+            }
+        }
+        log.i("Deleted %d of %d backups that are no longer needed.", numDeleted, summaries.size());
+    }
 }
@@ -0,0 +1,244 @@
+package com.nolanlawson.keepscore.data;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+
+import com.nolanlawson.keepscore.db.DeltaHistory;
+import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.PlayerScore;
+
+/**
+ * Everything the history tabs show about a game, worked out once up front so that each tab just has to read it
+ * off: each player's score after every round, the total for each round, and the scores over time.
+ *
+ * Round 0 is the score each player started with, so every player has one more round than they have deltas.
+ *
+ * @author nolan
+ *
+ */
+public class GameHistoryModel {
+
+    private static final long TIMELINE_ROUNDING_IN_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private int numPlayers;
+    private String[] playerNames;
+    private int[] chartColors;
+
+    private int numRounds;
+    private int[][] deltas;
+    private long[][] runningTotals;
+    private long[] roundSums;
+
+    private boolean hasTimestamps;
+    private int[] timelineSeconds;
+    private long[][] timelineScores;
+
+    private GameHistoryModel() {
+    }
+
+    /**
+     * Work out the history of the game.  Slow for long games, so don't call it on the UI thread.
+     *
+     * @param game
+     * @param context
+     * @return
+     */
+    public static GameHistoryModel create(Game game, Context context) {
+        GameHistoryModel model = new GameHistoryModel();
+
+        int numPlayers = game.getPlayerScores().size();
+        model.numPlayers = numPlayers;
+        model.playerNames = new String[numPlayers];
+        model.chartColors = new int[numPlayers];
+        model.deltas = new int[numPlayers][];
+        model.runningTotals = new long[numPlayers][];
+
+        for (int i = 0; i < numPlayers; i++) {
+            PlayerScore playerScore = game.getPlayerScores().get(i);
+            DeltaHistory history = playerScore.getHistory();
+
+            model.playerNames[i] = playerScore.toDisplayName(context).toString();
+            model.chartColors[i] = playerScore.getPlayerColor().toChartColor(context);
+
+            int[] deltas = new int[history.size() + 1];
+            long[] runningTotals = new long[history.size() + 1];
+
+            // figure out what the starting score was by just subtracting everything
+            long startingScore = playerScore.getScore() - history.sum();
+            runningTotals[0] = startingScore;
+            for (int j = 0, len = history.size(); j < len; j++) {
+                deltas[j + 1] = history.getValue(j);
+                runningTotals[j + 1] = history.getRunningTotal(startingScore, j);
+                if (history.getTimestamp(j) > 0L) {
+                    model.hasTimestamps = true;
+                }
+            }
+            model.deltas[i] = deltas;
+            model.runningTotals[i] = runningTotals;
+            model.numRounds = Math.max(model.numRounds, runningTotals.length);
+        }
+
+        model.roundSums = new long[model.numRounds];
+        for (int i = 0; i < numPlayers; i++) {
+            for (int round = 1; round < model.deltas[i].length; round++) {
+                model.roundSums[round] += model.deltas[i][round];
+            }
+        }
+
+        if (model.hasTimestamps) {
+            createTimeline(game, model);
+        }
+        return model;
+    }
+
+    /**
+     * Plot all players' deltas with their timestamps on the same timeline (x axis), rounded down to the nearest
+     * few seconds.  If a player has no delta at a given time, their previous score is carried over.
+     */
+    private static void createTimeline(Game game, GameHistoryModel model) {
+        long roundedStartTimeInMs = Math.round(Math.floor(
+                game.getDateStarted() * 1.0 / TIMELINE_ROUNDING_IN_MS)) * TIMELINE_ROUNDING_IN_MS;
+
+        // find the distinct times first; time 0 has everyone's starting score
+        int[][] secondsByDelta = new int[model.numPlayers][];
+        int numTimes = 1;
+        for (int i = 0; i < model.numPlayers; i++) {
+            DeltaHistory history = game.getPlayerScores().get(i).getHistory();
+            secondsByDelta[i] = new int[history.size()];
+            for (int j = 0, len = history.size(); j < len; j++) {
+                long timeSinceStartInMs = history.getTimestamp(j) - roundedStartTimeInMs;
+                int roundedTimeSinceStartInSecs = (int) TimeUnit.MILLISECONDS.toSeconds(Math.round(Math.floor(
+                        timeSinceStartInMs * 1.0 / TIMELINE_ROUNDING_IN_MS)) * TIMELINE_ROUNDING_IN_MS);
+
+                if (roundedTimeSinceStartInSecs == 0) {
+                    // just in case someone was actually fast enough to log the first score in <5 seconds, bump
+                    // it up to the first mark instead
+                    roundedTimeSinceStartInSecs = (int) TimeUnit.MILLISECONDS.toSeconds(TIMELINE_ROUNDING_IN_MS);
+                }
+                secondsByDelta[i][j] = roundedTimeSinceStartInSecs;
+            }
+            numTimes += history.size();
+        }
+
+        int[] times = new int[numTimes];
+        int offset = 1;
+        for (int[] seconds : secondsByDelta) {
+            System.arraycopy(seconds, 0, times, offset, seconds.length);
+            offset += seconds.length;
+        }
+        Arrays.sort(times);
+        int numDistinctTimes = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (i == 0 || times[i] != times[i - 1]) {
+                times[numDistinctTimes++] = times[i];
+            }
+        }
+        model.timelineSeconds = new int[numDistinctTimes];
+        System.arraycopy(times, 0, model.timelineSeconds, 0, numDistinctTimes);
+
+        // then each player's score at each of those times
+        model.timelineScores = new long[model.numPlayers][numDistinctTimes];
+        boolean[] changed = new boolean[numDistinctTimes];
+        for (int i = 0; i < model.numPlayers; i++) {
+            long[] scores = model.timelineScores[i];
+            Arrays.fill(changed, false);
+
+            int startIdx = Arrays.binarySearch(model.timelineSeconds, 0);
+            scores[startIdx] = model.runningTotals[i][0];
+            changed[startIdx] = true;
+            for (int j = 0; j < secondsByDelta[i].length; j++) {
+                // if the same player updated their score twice within the same rounded span, the later one wins
+                int idx = Arrays.binarySearch(model.timelineSeconds, secondsByDelta[i][j]);
+                scores[idx] = model.runningTotals[i][j + 1];
+                changed[idx] = true;
+            }
+
+            long lastScore = 0;
+            for (int idx = 0; idx < numDistinctTimes; idx++) {
+                if (changed[idx]) {
+                    lastScore = scores[idx];
+                } else {
+                    scores[idx] = lastScore;
+                }
+            }
+        }
+    }
+
+    public int getNumPlayers() {
+        return numPlayers;
+    }
+
+    public String getPlayerName(int player) {
+        return playerNames[player];
+    }
+
+    public int getChartColor(int player) {
+        return chartColors[player];
+    }
+
+    /**
+     * The most rounds any player has, including round 0.
+     */
+    public int getNumRounds() {
+        return numRounds;
+    }
+
+    /**
+     * The number of rounds the given player has, including round 0.
+     */
+    public int getNumRounds(int player) {
+        return runningTotals[player].length;
+    }
+
+    /**
+     * The change in the player's score in the given round, or 0 for round 0.
+     */
+    public int getDelta(int player, int round) {
+        return deltas[player][round];
+    }
+
+    /**
+     * The player's score after the given round.
+     */
+    public long getRunningTotal(int player, int round) {
+        return runningTotals[player][round];
+    }
+
+    /**
+     * The player's score after every round, not to be modified.
+     */
+    public long[] getRunningTotals(int player) {
+        return runningTotals[player];
+    }
+
+    /**
+     * The sum of all the players' deltas in the given round, i.e. 0 for round 0.
+     */
+    public long getRoundSum(int round) {
+        return roundSums[round];
+    }
+
+    /**
+     * False for games saved by older versions of KeepScore, which didn't record when each delta happened, in which
+     * case there's no timeline.
+     */
+    public boolean hasTimestamps() {
+        return hasTimestamps;
+    }
+
+    /**
+     * Seconds since the start of the game of each point on the timeline, in order.
+     */
+    public int[] getTimelineSeconds() {
+        return timelineSeconds;
+    }
+
+    /**
+     * The player's score at each point on the timeline, not to be modified.
+     */
+    public long[] getTimelineScores(int player) {
+        return timelineScores[player];
+    }
+}
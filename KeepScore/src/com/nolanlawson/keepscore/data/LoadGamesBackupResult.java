@@ -1,9 +1,5 @@
 package com.nolanlawson.keepscore.data;
 
-import java.util.List;
-
-import com.nolanlawson.keepscore.db.Game;
-
 /**
  * Representation of the result of loading a GamesBackup.
  * @author nolan
@@ -14,7 +10,7 @@ public class LoadGamesBackupResult {
 	private String filename;
 	private int numFound;
 	private int numDuplicates;
-	private List<Game> loadedGames;
+	private int numLoaded;
 	
 	public String getFilename() {
 		return filename;
@@ -28,11 +24,11 @@ public class LoadGamesBackupResult {
 	public void setNumFound(int numFound) {
 		this.numFound = numFound;
 	}
-	public List<Game> getLoadedGames() {
-		return loadedGames;
+	public int getNumLoaded() {
+		return numLoaded;
 	}
-	public void setLoadedGames(List<Game> loadedGames) {
-		this.loadedGames = loadedGames;
+	public void setNumLoaded(int numLoaded) {
+		this.numLoaded = numLoaded;
 	}
 	public int getNumDuplicates() {
 		return numDuplicates;
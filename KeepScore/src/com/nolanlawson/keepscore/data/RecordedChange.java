@@ -1,7 +1,5 @@
 package com.nolanlawson.keepscore.data;
 
-import com.nolanlawson.keepscore.db.Delta;
-
 /**
  * Simple POJO representing a change made to a PlayerScore's history
  * @author nolan
@@ -10,13 +8,15 @@ import com.nolanlawson.keepscore.db.Delta;
 public class RecordedChange {
 	
 	private Type type;
-	private Delta delta;
+	private long timestamp;
+	private int value;
 	private int playerNumber;
 	
-	public RecordedChange(int playerNumber, Type type, Delta delta) {
+	public RecordedChange(int playerNumber, Type type, long timestamp, int value) {
 	    this.playerNumber = playerNumber;
 		this.type = type;
-		this.delta = delta;
+		this.timestamp = timestamp;
+		this.value = value;
 	}
 	
 	public int getPlayerNumber() {
@@ -27,8 +27,12 @@ public class RecordedChange {
 		return type;
 	}
 
-	public Delta getDelta() {
-		return delta;
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getValue() {
+		return value;
 	}
 
 	public static enum Type {
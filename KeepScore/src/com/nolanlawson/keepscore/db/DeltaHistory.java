@@ -0,0 +1,288 @@
+package com.nolanlawson.keepscore.db;
+
+import java.util.List;
+
+import com.nolanlawson.keepscore.util.Pair;
+import com.nolanlawson.keepscore.util.StringUtil;
+
+/**
+ * The score history of a single player, i.e. the amounts by which the score changed and the times at which the
+ * changes were effected.  Stored in parallel primitive arrays rather than as a list of objects, so that recording
+ * a score doesn't allocate anything (besides the occasional growth of the arrays).
+ *
+ * Also keeps a running total of the values, so that the running score at any round can be looked up in constant
+ * time, and keeps track of which entries have been modified or removed since the history was last saved.
+ *
+ * @author nolan
+ *
+ */
+public class DeltaHistory {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] values;
+    private long[] timestamps;
+    private long[] runningTotals;
+    private int size;
+
+    // bookkeeping for incremental saves; a new history is assumed to be entirely unsaved
+    private int savedSize;
+    private int changedIndex;
+    // incremented whenever an entry is modified or removed, so that a save can tell whether that happened meanwhile
+    private int changeCount;
+
+    public DeltaHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DeltaHistory(int capacity) {
+        capacity = Math.max(capacity, 1);
+        values = new int[capacity];
+        timestamps = new long[capacity];
+        runningTotals = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public int getLastValue() {
+        return getValue(size - 1);
+    }
+
+    public long getLastTimestamp() {
+        return getTimestamp(size - 1);
+    }
+
+    public void add(long timestamp, int value) {
+        if (size == values.length) {
+            grow(size * 2);
+        }
+        values[size] = value;
+        timestamps[size] = timestamp;
+        runningTotals[size] = prefixSum(size) + value;
+        size++;
+    }
+
+    /**
+     * Replace the last entry in the history.
+     */
+    public void setLast(long timestamp, int value) {
+        int index = size - 1;
+        checkIndex(index);
+        values[index] = value;
+        timestamps[index] = timestamp;
+        runningTotals[index] = prefixSum(index) + value;
+        changedIndex = Math.min(changedIndex, index);
+        changeCount++;
+    }
+
+    public void setTimestamp(int index, long timestamp) {
+        checkIndex(index);
+        timestamps[index] = timestamp;
+        changedIndex = Math.min(changedIndex, index);
+        changeCount++;
+    }
+
+    /**
+     * Remove the last entry in the history.
+     *
+     * @return the value of the removed entry
+     */
+    public int removeLast() {
+        int index = size - 1;
+        checkIndex(index);
+        size--;
+        changedIndex = Math.min(changedIndex, index);
+        changeCount++;
+        return values[index];
+    }
+
+    /**
+     * Sum of the first <code>toIndex</code> values.
+     */
+    public long prefixSum(int toIndex) {
+        if (toIndex < 0 || toIndex > size) {
+            throw new IndexOutOfBoundsException("toIndex: " + toIndex + ", size: " + size);
+        }
+        return toIndex == 0 ? 0 : runningTotals[toIndex - 1];
+    }
+
+    /**
+     * Sum of all the values in the history.
+     */
+    public long sum() {
+        return prefixSum(size);
+    }
+
+    /**
+     * Return the running score after the entry at the given index, given the score the player started with.
+     */
+    public long getRunningTotal(long startingScore, int index) {
+        checkIndex(index);
+        return startingScore + runningTotals[index];
+    }
+
+    /**
+     * Return a copy of this history.  The copy is considered to be entirely unsaved.
+     */
+    public DeltaHistory copy() {
+        DeltaHistory copy = new DeltaHistory(size);
+        System.arraycopy(values, 0, copy.values, 0, size);
+        System.arraycopy(timestamps, 0, copy.timestamps, 0, size);
+        System.arraycopy(runningTotals, 0, copy.runningTotals, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Return a copy of the entries from <code>fromIndex</code> (inclusive) to <code>toIndex</code> (exclusive), e.g.
+     * to write them out while this history keeps changing.  The copy is considered to be entirely unsaved.
+     */
+    public DeltaHistory copy(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > size) {
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " 
+                    + size);
+        }
+        DeltaHistory copy = new DeltaHistory(toIndex - fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            copy.add(timestamps[i], values[i]);
+        }
+        return copy;
+    }
+
+    /**
+     * Mark that the database contains the first <code>savedSize</code> entries, as they were when the given change
+     * count was read.  Both are read before the entries are written, so that anything added, modified, or removed
+     * during the save will still be considered unsaved.
+     */
+    void markSaved(int savedSize, int changeCount) {
+        this.savedSize = savedSize;
+        if (this.changeCount == changeCount) {
+            changedIndex = Integer.MAX_VALUE;
+        }
+    }
+
+    int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Return the index of the first entry that needs to be (re)written to the database, or -1 if the database is
+     * already up-to-date.
+     */
+    int getUnsavedIndex() {
+        if (changedIndex == Integer.MAX_VALUE && savedSize == size) {
+            return -1;
+        }
+        return Math.min(Math.min(changedIndex, savedSize), size);
+    }
+
+    private void grow(int capacity) {
+        // Arrays.copyOf() isn't available until API 9
+        int[] newValues = new int[capacity];
+        long[] newTimestamps = new long[capacity];
+        long[] newRunningTotals = new long[capacity];
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(timestamps, 0, newTimestamps, 0, size);
+        System.arraycopy(runningTotals, 0, newRunningTotals, 0, size);
+        values = newValues;
+        timestamps = newTimestamps;
+        runningTotals = newRunningTotals;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    public static DeltaHistory fromJoinedStrings(String scoresStr, String timestampsStr) {
+        List<String> scores = StringUtil.split(scoresStr, ',');
+        List<String> timestamps = StringUtil.split(timestampsStr, ',');
+
+        DeltaHistory result = new DeltaHistory(scores.size());
+
+        for (int i = 0, len = scores.size(); i < len; i++) {
+            // the string could be empty, i.e. the scores were recorded before we started recording timestamps
+            long timestamp = i < timestamps.size() ? Long.parseLong(timestamps.get(i)) : 0L;
+            result.add(timestamp, Integer.parseInt(scores.get(i)));
+        }
+        return result;
+    }
+
+    public static DeltaHistory fromJoinedScores(String scoresStr) {
+        return fromJoinedStrings(scoresStr, null);
+    }
+
+    public static Pair<String, String> toJoinedStrings(DeltaHistory history) {
+
+        StringBuilder values = new StringBuilder();
+        StringBuilder timestamps = new StringBuilder();
+
+        for (int i = 0, len = history == null ? 0 : history.size; i < len; i++) {
+            if (i > 0) {
+                values.append(',');
+                timestamps.append(',');
+            }
+            values.append(history.values[i]);
+            timestamps.append(history.timestamps[i]);
+        }
+
+        return Pair.create(values.toString(), timestamps.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            result = 31 * result + (int) (timestamps[i] ^ (timestamps[i] >>> 32));
+            result = 31 * result + values[i];
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        DeltaHistory other = (DeltaHistory) obj;
+        if (size != other.size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (values[i] != other.values[i] || timestamps[i] != other.timestamps[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(values[i]).append('@').append(timestamps[i]);
+        }
+        return result.append(']').toString();
+    }
+}
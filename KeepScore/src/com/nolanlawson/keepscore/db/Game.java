@@ -3,6 +3,7 @@ package com.nolanlawson.keepscore.db;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -19,6 +20,11 @@ public class Game implements Parcelable, Cloneable {
 	private String name;
 	private List<PlayerScore> playerScores;
 	
+	// incremented whenever a column changes, so that saves can skip the game row if nothing changed.  Atomic
+	// because the UI thread and the background writer can both change the game
+	private final AtomicInteger version = new AtomicInteger(1);
+	private int savedVersion;
+	
 	public Game() {
 	}
 
@@ -43,6 +49,7 @@ public class Game implements Parcelable, Cloneable {
 	}
 	public void setName(String name) {
 		this.name = name;
+		version.incrementAndGet();
 	}
 	public int getId() {
 		return id;
@@ -55,12 +62,23 @@ public class Game implements Parcelable, Cloneable {
 	}
 	public void setDateStarted(long dateStarted) {
 		this.dateStarted = dateStarted;
+		version.incrementAndGet();
 	}
 	public long getDateSaved() {
 		return dateSaved;
 	}
 	public void setDateSaved(long dateSaved) {
 		this.dateSaved = dateSaved;
+		version.incrementAndGet();
+	}
+	int getVersion() {
+		return version.get();
+	}
+	boolean isSaved(int version) {
+		return savedVersion == version;
+	}
+	void markSaved(int version) {
+		this.savedVersion = version;
 	}
 	public List<PlayerScore> getPlayerScores() {
 		return playerScores;
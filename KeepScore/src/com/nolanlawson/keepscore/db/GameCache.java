@@ -0,0 +1,93 @@
+package com.nolanlawson.keepscore.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+import com.nolanlawson.keepscore.KeepScoreApplication;
+import com.nolanlawson.keepscore.util.UtilLogger;
+
+/**
+ * Small in-process cache of whole Games, keyed by id, so that screens showing the same game (e.g. the history
+ * activity and each of its tabs) can share one copy rather than each unparceling their own from an Intent.
+ *
+ * Games that aren't in the cache (e.g. because the process was killed in the meantime) are reloaded from the
+ * database.  The cached Games are shared, so they must not be modified.  Only saved games can be cached, since
+ * they're looked up by id.
+ *
+ * @author nolan
+ *
+ */
+public class GameCache {
+
+    private static final UtilLogger log = new UtilLogger(GameCache.class);
+
+    // only the games on the screens currently in the back stack are needed, so this can be small
+    private static final int MAX_SIZE = 4;
+
+    private static final Map<Integer, Game> games = new LinkedHashMap<Integer, Game>(MAX_SIZE + 1, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Game> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Add the game to the cache, replacing any older copy of it.
+     *
+     * @param game
+     *            already saved, and not to be modified after this point
+     */
+    public static synchronized void put(Game game) {
+        if (game.getId() == -1) {
+            throw new IllegalArgumentException("game must be saved before it's cached");
+        }
+        games.put(game.getId(), game);
+    }
+
+    /**
+     * Return the game with the given id, loading it from the database if it's not in the cache.  Since it might read
+     * the database, don't call it on the UI thread.
+     *
+     * @param context
+     * @param gameId
+     * @return the game, or null if it's not in the cache and was never saved or has since been deleted
+     */
+    public static Game get(Context context, int gameId) {
+        synchronized (GameCache.class) {
+            Game cachedGame = games.get(gameId);
+            if (cachedGame != null || gameId == -1) {
+                return cachedGame;
+            }
+        }
+
+        // read outside of the lock, so that put() never has to wait on the database
+        log.d("game %d not cached, loading from database", gameId);
+        Game game;
+        GameDBHelper dbHelper = null;
+        try {
+            dbHelper = KeepScoreApplication.acquireDbHelper(context);
+            game = dbHelper.findGameById(gameId);
+        } finally {
+            if (dbHelper != null) {
+                KeepScoreApplication.releaseDbHelper(context);
+            }
+        }
+        if (game == null) {
+            return null;
+        }
+        synchronized (GameCache.class) {
+            // a newer copy might have been put in the meantime
+            Game cachedGame = games.get(gameId);
+            if (cachedGame != null) {
+                return cachedGame;
+            }
+            games.put(gameId, game);
+            return game;
+        }
+    }
+}
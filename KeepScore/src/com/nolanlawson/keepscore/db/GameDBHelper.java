@@ -3,11 +3,16 @@ package com.nolanlawson.keepscore.db;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
@@ -15,7 +20,8 @@ import android.text.TextUtils;
 import android.util.SparseArray;
 
 import com.nolanlawson.keepscore.helper.PlayerColor;
-import com.nolanlawson.keepscore.util.Pair;
+import com.nolanlawson.keepscore.helper.VersionHelper;
+import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.util.StringUtil;
 import com.nolanlawson.keepscore.util.UtilLogger;
 
@@ -24,10 +30,13 @@ public class GameDBHelper extends SQLiteOpenHelper {
     private static UtilLogger log = new UtilLogger(GameDBHelper.class);
 
     private static final String DB_NAME = "games.db";
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 9;
 
     private static final String TABLE_GAMES = "Games";
     private static final String TABLE_PLAYER_SCORES = "PlayerScores";
+    private static final String TABLE_DELTAS = "Deltas";
+    private static final String TABLE_GAME_SUMMARIES = "GameSummaries";
+    private static final String TABLE_GAME_CHANGES = "GameChanges";
 
     private static final String COLUMN_ID = "_id";
     private static final String COLUMN_DATE_STARTED = "dateStarted";
@@ -37,17 +46,37 @@ public class GameDBHelper extends SQLiteOpenHelper {
     private static final String COLUMN_AUTOSAVED = "autosaved"; // legacy
     private static final String COLUMN_PLAYER_NUMBER = "playerNumber";
     private static final String COLUMN_GAME_ID = "gameId";
-    private static final String COLUMN_HISTORY = "history";
+    private static final String COLUMN_HISTORY = "history"; // legacy
     private static final String COLUMN_LAST_UPDATE = "lastUpdate";
-    private static final String COLUMN_HISTORY_TIMESTAMPS = "historyTimestamps";
+    private static final String COLUMN_HISTORY_TIMESTAMPS = "historyTimestamps"; // legacy
     private static final String COLUMN_COLOR = "color";
+    private static final String COLUMN_PLAYER_SCORE_ID = "playerScoreId";
+    private static final String COLUMN_SEQ = "seq";
+    private static final String COLUMN_VALUE = "value";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_HISTORY_BLOB = "historyBlob";
+    private static final String COLUMN_HISTORY_BLOB_SIZE = "historyBlobSize";
+    private static final String COLUMN_PLAYER_NAMES = "playerNames";
+    private static final String COLUMN_NUM_ROUNDS = "numRounds";
+    private static final String COLUMN_LEADER = "leader";
+    private static final String COLUMN_CHANGE_NUMBER = "changeNumber";
+    
+    // how many legacy histories to convert per transaction, so that we don't hold the lock for too long
+    private static final int LEGACY_CONVERSION_BATCH_SIZE = 50;
+    
+    // how many games to read per query when iterating over games, so that only a few of them are in memory at once
+    private static final int ITERATE_GAMES_BATCH_SIZE = 20;
+    
+    // how many games' final scores to read per query when exporting, so the lock isn't held while they're written out
+    private static final int FIND_GAME_SCORES_BATCH_SIZE = 100;
 
-    // my crazy system for using sqlite's group_concat, since it's not ambiguous to use regular old commas
-    private static final String GROUP_CONCAT_SEPARATOR = "^__%^%__";
-    private static final String GROUP_CONCAT_INNER_SEPARATOR = "$__%$%__";
+    // my crazy system for joining player names, since it's not ambiguous to use regular old commas
+    private static final String PLAYER_NAMES_SEPARATOR = "^__%^%__";
     
     private static final String JOINED_TABLES = TABLE_GAMES + " g join " + TABLE_PLAYER_SCORES + " ps ON " + "g."
             + COLUMN_ID + "=ps." + COLUMN_GAME_ID;
+    private static final String[] GAME_SUMMARY_COLUMNS = { COLUMN_GAME_ID, COLUMN_NAME, COLUMN_DATE_STARTED, 
+            COLUMN_DATE_SAVED, COLUMN_PLAYER_NAMES, COLUMN_NUM_ROUNDS, COLUMN_LEADER };
     private static final String[] JOINED_COLUMNS = new String[] { 
         "g." + COLUMN_ID, 
         "g." + COLUMN_DATE_STARTED,
@@ -57,12 +86,68 @@ public class GameDBHelper extends SQLiteOpenHelper {
         "ps." + COLUMN_NAME, 
         "ps." + COLUMN_SCORE,
         "ps." + COLUMN_PLAYER_NUMBER, 
+        "ps." + COLUMN_LAST_UPDATE,
+        "ps." + COLUMN_COLOR,
         "ps." + COLUMN_HISTORY, 
         "ps." + COLUMN_HISTORY_TIMESTAMPS,
-        "ps." + COLUMN_LAST_UPDATE,
-        "ps." + COLUMN_COLOR
+        "ps." + COLUMN_HISTORY_BLOB
         };
 
+    private ThreadLocal<SQLiteStatement> insertGame = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            // the legacy "autosaved" column must be specified
+            String sql = "insert into " + TABLE_GAMES + " (" + COLUMN_DATE_STARTED + "," + COLUMN_DATE_SAVED + ","
+                    + COLUMN_NAME + "," + COLUMN_AUTOSAVED + ") values (?,?,?,1)";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> insertPlayerScore = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            String sql = "insert into " + TABLE_PLAYER_SCORES + " (" + COLUMN_GAME_ID + "," + COLUMN_NAME + ","
+                    + COLUMN_SCORE + "," + COLUMN_PLAYER_NUMBER + "," + COLUMN_LAST_UPDATE + "," + COLUMN_COLOR + ","
+                    + COLUMN_HISTORY_BLOB + "," + COLUMN_HISTORY_BLOB_SIZE + ") values (?,?,?,?,?,?,?,?)";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> saveGameSummary = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            return compileSaveGameSummary(db);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> recordGameChange = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            // only the latest change to each game is kept
+            String sql = "insert or replace into " + TABLE_GAME_CHANGES + " (" + COLUMN_GAME_ID + "," 
+                    + COLUMN_CHANGE_NUMBER + ") values (?,(select coalesce(max(" + COLUMN_CHANGE_NUMBER + "),0)+1 from " 
+                    + TABLE_GAME_CHANGES + "))";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> recordGameDeletion = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            // like recordGameChange, but also keeps the start date, which has to be read before the game is deleted
+            String sql = "insert or replace into " + TABLE_GAME_CHANGES + " (" + COLUMN_GAME_ID + "," 
+                    + COLUMN_CHANGE_NUMBER + "," + COLUMN_DATE_STARTED + ") values (?,(select coalesce(max(" 
+                    + COLUMN_CHANGE_NUMBER + "),0)+1 from " + TABLE_GAME_CHANGES + "),(select " + COLUMN_DATE_STARTED
+                    + " from " + TABLE_GAMES + " where " + COLUMN_ID + "=?))";
+            return db.compileStatement(sql);
+        }
+    };
+
     private ThreadLocal<SQLiteStatement> updateGame = new ThreadLocal<SQLiteStatement>() {
 
         @Override
@@ -78,7 +163,7 @@ public class GameDBHelper extends SQLiteOpenHelper {
         @Override
         protected SQLiteStatement initialValue() {
             String sql = "update " + TABLE_PLAYER_SCORES + " set " + COLUMN_NAME + "=?," + COLUMN_SCORE + "=?,"
-                    + COLUMN_PLAYER_NUMBER + "=?," + COLUMN_HISTORY + "=?," + COLUMN_HISTORY_TIMESTAMPS + "=?,"
+                    + COLUMN_PLAYER_NUMBER + "=?,"
                     + COLUMN_LAST_UPDATE + "=?," 
                     + COLUMN_COLOR + "=? "
                     + "where "
@@ -86,12 +171,78 @@ public class GameDBHelper extends SQLiteOpenHelper {
             return db.compileStatement(sql);
         }
     };
+
+    private ThreadLocal<SQLiteStatement> updatePlayerScoreTotal = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            String sql = "update " + TABLE_PLAYER_SCORES + " set " + COLUMN_SCORE + "=?,"
+                    + COLUMN_LAST_UPDATE + "=? "
+                    + "where "
+                    + COLUMN_ID + "=?";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> updateHistoryBlob = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            String sql = "update " + TABLE_PLAYER_SCORES + " set " + COLUMN_HISTORY_BLOB + "=?,"
+                    + COLUMN_HISTORY_BLOB_SIZE + "=?," + COLUMN_HISTORY + "=null," 
+                    + COLUMN_HISTORY_TIMESTAMPS + "=null "
+                    + "where "
+                    + COLUMN_ID + "=?";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> insertDelta = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            String sql = "insert or replace into " + TABLE_DELTAS + " (" + COLUMN_PLAYER_SCORE_ID + "," 
+                    + COLUMN_SEQ + "," + COLUMN_VALUE + "," + COLUMN_TIMESTAMP + ") values (?,?,?,?)";
+            return db.compileStatement(sql);
+        }
+    };
+
+    private ThreadLocal<SQLiteStatement> deleteDeltasFrom = new ThreadLocal<SQLiteStatement>() {
+
+        @Override
+        protected SQLiteStatement initialValue() {
+            String sql = "delete from " + TABLE_DELTAS + " where " + COLUMN_PLAYER_SCORE_ID + "=? and "
+                    + COLUMN_SEQ + ">=?";
+            return db.compileStatement(sql);
+        }
+    };
+    
+    private static final int NUM_GAME_LOCKS = 16;
+    
+    /*
+     * Writes to the same game are serialized by striping on the game id, so that saving one game never waits on a
+     * write to another.  With write-ahead logging, readers see a snapshot and don't have to wait for the writer at
+     * all; without it (pre-Honeycomb), readers and writers have to be kept apart with the database lock.
+     */
+    private static final ReentrantLock[] gameLocks = new ReentrantLock[NUM_GAME_LOCKS];
+    private static final ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+    
+    static {
+        for (int i = 0; i < NUM_GAME_LOCKS; i++) {
+            gameLocks[i] = new ReentrantLock();
+        }
+    }
     
     private SQLiteDatabase db;
+    private boolean writeAheadLogging;
 
     public GameDBHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
         db = getWritableDatabase();
+        if (VersionHelper.getVersionSdkIntCompat() >= VersionHelper.VERSION_HONEYCOMB) {
+            writeAheadLogging = db.enableWriteAheadLogging();
+        }
+        log.d("write-ahead logging enabled: %s", writeAheadLogging);
     }
 
     @Override
@@ -108,6 +259,8 @@ public class GameDBHelper extends SQLiteOpenHelper {
                 + COLUMN_LAST_UPDATE + " int not null default 0, "
                 + COLUMN_HISTORY_TIMESTAMPS + " text, "
                 + COLUMN_COLOR + " string, "
+                + COLUMN_HISTORY_BLOB + " blob, "
+                + COLUMN_HISTORY_BLOB_SIZE + " int, "
                 + COLUMN_GAME_ID + " int not null);";
 
         db.execSQL(createSql2);
@@ -117,6 +270,128 @@ public class GameDBHelper extends SQLiteOpenHelper {
 
         db.execSQL(indexSql1);
 
+        createDeltasTable(db);
+        createGameSummariesTable(db);
+        createGameChangesTable(db);
+    }
+
+    private static void createDeltasTable(SQLiteDatabase db) {
+        // one row per history entry, so that saving a game only needs to write the entries that changed
+        String createSql = "create table if not exists " + TABLE_DELTAS + " (" + COLUMN_PLAYER_SCORE_ID
+                + " int not null, " + COLUMN_SEQ + " int not null, " + COLUMN_VALUE + " int not null, "
+                + COLUMN_TIMESTAMP + " int not null default 0, "
+                + "primary key (" + COLUMN_PLAYER_SCORE_ID + ", " + COLUMN_SEQ + "));";
+
+        db.execSQL(createSql);
+    }
+
+    private static void createGameSummariesTable(SQLiteDatabase db) {
+        // one row per game with everything the saved games list needs, kept up-to-date whenever a game is saved, 
+        // so that the list doesn't have to be computed from the PlayerScores
+        String createSql = "create table if not exists " + TABLE_GAME_SUMMARIES + " (" + COLUMN_GAME_ID
+                + " integer not null primary key, " + COLUMN_NAME + " text, " + COLUMN_DATE_STARTED + " int not null, "
+                + COLUMN_DATE_SAVED + " int not null, " + COLUMN_PLAYER_NAMES + " text not null, " 
+                + COLUMN_NUM_ROUNDS + " int not null, " + COLUMN_LEADER + " text);";
+
+        db.execSQL(createSql);
+
+        String indexSql = "create index if not exists index_summaries_date_saved on " + TABLE_GAME_SUMMARIES + " (" 
+                + COLUMN_DATE_SAVED + ");";
+
+        db.execSQL(indexSql);
+    }
+
+    private static void createGameChangesTable(SQLiteDatabase db) {
+        // the number of the last change to each game that was saved, renamed, or deleted, so that the saved 
+        // games list can find out what changed since it was loaded.  Deleted games also keep their start date, 
+        // so that differential backups can tell which games no longer exist
+        String createSql = "create table if not exists " + TABLE_GAME_CHANGES + " (" + COLUMN_GAME_ID
+                + " integer not null primary key, " + COLUMN_CHANGE_NUMBER + " int not null, " + COLUMN_DATE_STARTED
+                + " int);";
+
+        db.execSQL(createSql);
+
+        String indexSql = "create index if not exists index_changes_change_number on " + TABLE_GAME_CHANGES + " (" 
+                + COLUMN_CHANGE_NUMBER + ");";
+
+        db.execSQL(indexSql);
+    }
+
+    /**
+     * Fill in the GameSummaries table for games saved before it existed.
+     */
+    private static void populateGameSummaries(SQLiteDatabase db) {
+        String[] columns = {
+                "g." + COLUMN_ID, 
+                "g." + COLUMN_NAME, 
+                "g." + COLUMN_DATE_STARTED, 
+                "g." + COLUMN_DATE_SAVED, 
+                "ps." + COLUMN_NAME, 
+                "ps." + COLUMN_SCORE, 
+                // num rounds, from either the Deltas table, the history blob, or the legacy history string
+                "coalesce((select max(d." + COLUMN_SEQ + ") + 1 from " + TABLE_DELTAS + " d where d." 
+                        + COLUMN_PLAYER_SCORE_ID + " = ps." + COLUMN_ID + "), "
+                        + "ps." + COLUMN_HISTORY_BLOB_SIZE + ", "
+                        + "length(ps.history) - length(replace(ps.history, ',', '')) + 1)"
+                };
+        String orderBy = "g." + COLUMN_ID + ", ps." + COLUMN_PLAYER_NUMBER;
+
+        SQLiteStatement statement = compileSaveGameSummary(db);
+        Cursor cursor = null;
+        try {
+            cursor = db.query(JOINED_TABLES, columns, null, null, null, null, orderBy);
+
+            GameSummary gameSummary = null;
+            long leaderScore = 0;
+            while (cursor.moveToNext()) {
+                if (gameSummary == null || gameSummary.getId() != cursor.getInt(0)) {
+                    if (gameSummary != null) {
+                        bindGameSummary(statement, gameSummary);
+                        statement.execute();
+                    }
+                    gameSummary = new GameSummary();
+                    gameSummary.setId(cursor.getInt(0));
+                    gameSummary.setName(cursor.getString(1));
+                    gameSummary.setDateStarted(cursor.getLong(2));
+                    gameSummary.setDateSaved(cursor.getLong(3));
+                    gameSummary.setPlayerNames(new ArrayList<String>());
+                }
+                String playerName = cursor.getString(4);
+                long score = cursor.getLong(5);
+                if (gameSummary.getPlayerNames().isEmpty() || score > leaderScore) {
+                    gameSummary.setLeader(playerName);
+                    leaderScore = score;
+                }
+                gameSummary.getPlayerNames().add(playerName);
+                gameSummary.setNumRounds(Math.max(gameSummary.getNumRounds(), cursor.getInt(6)));
+            }
+            if (gameSummary != null) {
+                bindGameSummary(statement, gameSummary);
+                statement.execute();
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            statement.close();
+        }
+    }
+
+    private static SQLiteStatement compileSaveGameSummary(SQLiteDatabase db) {
+        String sql = "insert or replace into " + TABLE_GAME_SUMMARIES + " (" + COLUMN_GAME_ID + "," + COLUMN_NAME 
+                + "," + COLUMN_DATE_STARTED + "," + COLUMN_DATE_SAVED + "," + COLUMN_PLAYER_NAMES + "," 
+                + COLUMN_NUM_ROUNDS + "," + COLUMN_LEADER + ") values (?,?,?,?,?,?,?)";
+        return db.compileStatement(sql);
+    }
+
+    private static void bindGameSummary(SQLiteStatement statement, GameSummary gameSummary) {
+        statement.bindLong(1, gameSummary.getId());
+        bindStringOrNull(statement, 2, gameSummary.getName());
+        statement.bindLong(3, gameSummary.getDateStarted());
+        statement.bindLong(4, gameSummary.getDateSaved());
+        statement.bindString(5, TextUtils.join(PLAYER_NAMES_SEPARATOR, gameSummary.getPlayerNames()));
+        statement.bindLong(6, gameSummary.getNumRounds());
+        bindStringOrNull(statement, 7, gameSummary.getLeader());
     }
 
     @Override
@@ -150,6 +425,87 @@ public class GameDBHelper extends SQLiteOpenHelper {
             db.execSQL("update " + TABLE_PLAYER_SCORES + " set " + COLUMN_COLOR + "=" + COLUMN_PLAYER_NUMBER + ";");
         }
         
+        if (oldVersion <= 4) {
+            // new history entries are appended to their own table
+            createDeltasTable(db);
+        }
+        
+        if (oldVersion <= 5) {
+            // add the compact binary history. The legacy comma-separated history strings are still read, 
+            // and get converted in the background by convertLegacyHistories()
+            db.execSQL("alter table " + TABLE_PLAYER_SCORES + " add column " + COLUMN_HISTORY_BLOB
+                    + " blob;");
+            db.execSQL("alter table " + TABLE_PLAYER_SCORES + " add column " + COLUMN_HISTORY_BLOB_SIZE
+                    + " int;");
+        }
+        
+        if (oldVersion <= 6) {
+            // precomputed summaries for the saved games list
+            createGameSummariesTable(db);
+            populateGameSummaries(db);
+        }
+        
+        if (oldVersion <= 7) {
+            // change feed for the saved games list
+            createGameChangesTable(db);
+        } else if (oldVersion <= 8) {
+            // start dates of deleted games, for differential backups
+            db.execSQL("alter table " + TABLE_GAME_CHANGES + " add column " + COLUMN_DATE_STARTED + " int;");
+        }
+    }
+
+    /**
+     * Convert any histories still stored as legacy comma-separated strings into the compact binary format.
+     * Designed to be run once in the background; does nothing if everything has already been converted.
+     * 
+     * @return the number of histories converted
+     */
+    public int convertLegacyHistories() {
+        int numConverted = 0;
+        while (true) {
+            int numConvertedInBatch;
+            lockDatabase();
+            try {
+                db.beginTransaction();
+                try {
+                    numConvertedInBatch = convertLegacyHistoriesBatch();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                unlockDatabase();
+            }
+            if (numConvertedInBatch == 0) {
+                break;
+            }
+            numConverted += numConvertedInBatch;
+        }
+        log.d("converted %s legacy histories", numConverted);
+        return numConverted;
+    }
+
+    private int convertLegacyHistoriesBatch() {
+        int numConverted = 0;
+        Cursor cursor = null;
+        try {
+            String[] columns = { COLUMN_ID, COLUMN_HISTORY, COLUMN_HISTORY_TIMESTAMPS };
+            String where = COLUMN_HISTORY + " is not null";
+            cursor = db.query(TABLE_PLAYER_SCORES, columns, where, null, null, null, null, 
+                    Integer.toString(LEGACY_CONVERSION_BATCH_SIZE));
+            while (cursor.moveToNext()) {
+                DeltaHistory history = DeltaHistory.fromJoinedStrings(
+                        cursor.getString(1),
+                        StringUtil.nullToEmpty(cursor.getString(2)));
+                updateHistoryBlob(cursor.getInt(0), HistoryCodec.encode(history), history.size());
+                numConverted++;
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return numConverted;
     }
 
     /**
@@ -159,7 +515,8 @@ public class GameDBHelper extends SQLiteOpenHelper {
      * @return
      */
     public boolean existsByDateStarted(long dateStarted) {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             Cursor cursor = null;
             try {
                 cursor = db.query(TABLE_GAMES, new String[] { COLUMN_ID }, "dateStarted=" + dateStarted, null, null,
@@ -170,12 +527,44 @@ public class GameDBHelper extends SQLiteOpenHelper {
                     cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
+        }
+    }
 
+    /**
+     * Return the dateStarted values of all the saved games, sorted so that they can be binary-searched.  Meant for
+     * checking a lot of games for duplicates at once (e.g. when restoring a backup), which is much faster than
+     * calling {@link #existsByDateStarted(long)} for each one.
+     * 
+     * @return
+     */
+    public long[] findAllDatesStarted() {
+        lockForRead();
+        try {
+            Cursor cursor = null;
+            try {
+                // read straight off the index
+                cursor = db.query(TABLE_GAMES, new String[] { COLUMN_DATE_STARTED }, null, null, null, null,
+                        COLUMN_DATE_STARTED);
+                long[] result = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    result[i] = cursor.getLong(0);
+                }
+                return result;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
         }
     }
 
     public Game findGameById(int gameId) {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             Cursor cursor = null;
             try {
                 String where = "g." + COLUMN_ID + "=" + gameId;
@@ -188,11 +577,34 @@ public class GameDBHelper extends SQLiteOpenHelper {
                     cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    public Game findGameByDateStarted(long dateStarted) {
+        lockForRead();
+        try {
+            Cursor cursor = null;
+            try {
+                String where = "g." + COLUMN_DATE_STARTED + "=" + dateStarted;
+                cursor = db.query(JOINED_TABLES, JOINED_COLUMNS, where, null, null, null, null);
+                List<Game> result = convertToGames(cursor);
+
+                return result.isEmpty() ? null : result.get(0);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
         }
     }
 
     public int findGameCount() {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             String[] columns = { "count(" + COLUMN_ID + ")" };
             Cursor cursor = null;
             try {
@@ -206,11 +618,14 @@ public class GameDBHelper extends SQLiteOpenHelper {
                 }
             }
             return 0;
+        } finally {
+            unlockForRead();
         }
     }
 
     public int findMostRecentGameId() {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             Cursor cursor = null;
             try {
                 String orderBy = COLUMN_DATE_SAVED + " desc";
@@ -224,12 +639,15 @@ public class GameDBHelper extends SQLiteOpenHelper {
                     cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
         }
         return -1;
     }
 
     public Game findMostRecentGame() {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             Cursor cursor = null;
             try {
 
@@ -246,6 +664,8 @@ public class GameDBHelper extends SQLiteOpenHelper {
                     cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
         }
     }
 
@@ -266,7 +686,10 @@ public class GameDBHelper extends SQLiteOpenHelper {
      * @return
      */
     public void saveGame(Game game, boolean updateDateSaved) {
-        synchronized (GameDBHelper.class) {
+        // a new game has no id yet, so all new games share a lock
+        int gameId = game.getId();
+        lockGame(gameId);
+        try {
             db.beginTransaction();
             try {
                 saveGameWithinTransaction(game, updateDateSaved);
@@ -274,235 +697,570 @@ public class GameDBHelper extends SQLiteOpenHelper {
             } finally {
                 db.endTransaction();
             }
+        } finally {
+            unlockGame(gameId);
+        }
+    }
+
+    /**
+     * Save several games in a single transaction, which is much faster than saving them one by one, e.g. when
+     * restoring from a backup.
+     * 
+     * @param games
+     * @param updateDateSaved
+     */
+    public void saveGames(List<Game> games, boolean updateDateSaved) {
+        List<Integer> gameIds = new ArrayList<Integer>(games.size());
+        for (Game game : games) {
+            gameIds.add(game.getId());
+        }
+        lockGames(gameIds);
+        try {
+            db.beginTransaction();
+            try {
+                for (Game game : games) {
+                    saveGameWithinTransaction(game, updateDateSaved);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            unlockGames(gameIds);
         }
     }
 
     private void saveGameWithinTransaction(Game game, boolean updateDateSaved) {
 
-        long dateSaved = updateDateSaved ? System.currentTimeMillis() : game.getDateSaved();
-        game.setDateSaved(dateSaved);
+        if (updateDateSaved) {
+            game.setDateSaved(System.currentTimeMillis());
+        }
+        long dateSaved = game.getDateSaved();
+        int version = game.getVersion();
 
         if (game.getId() != -1) {
-            // game was already saved, so try to overwrite
+            // game was already saved, so try to overwrite, unless nothing changed
 
-            updateGame(game.getId(), game.getDateStarted(), game.getDateSaved(), game.getName());
+            if (!game.isSaved(version)) {
+                updateGame(game.getId(), game.getDateStarted(), game.getDateSaved(), game.getName());
+            }
         } else {
-            // else create a new row in the table
-
-            int newGameId = getMaxGameId() + 1;
-
-            ContentValues contentValues = new ContentValues();
-
-            contentValues.put(COLUMN_DATE_STARTED, game.getDateStarted());
-            contentValues.put(COLUMN_DATE_SAVED, dateSaved);
-            contentValues.put(COLUMN_NAME, game.getName());
-            contentValues.put(COLUMN_ID, newGameId);
-            contentValues.put(COLUMN_AUTOSAVED, 1); // legacy "autosaved" column
-                                                    // that must be specified
+            // else create a new row in the table, letting sqlite pick the id
 
-            db.insert(TABLE_GAMES, null, contentValues);
+            int newGameId = insertGame(game.getDateStarted(), dateSaved, game.getName());
 
             game.setId(newGameId);
             log.d("new game id is %s", newGameId);
         }
+        game.markSaved(version);
 
         savePlayerScores(game.getId(), game.getPlayerScores());
 
+        SQLiteStatement statement = saveGameSummary.get();
+        bindGameSummary(statement, GameSummary.fromGame(game));
+        statement.execute();
+
+        recordGameChange(game.getId());
     }
 
-    private int getMaxPlayerScoreId() {
-        Cursor cursor = null;
-        try {
-            cursor = db.query(TABLE_PLAYER_SCORES, new String[] { "max(" + COLUMN_ID + ")" }, null, null, null, null,
-                    null);
-            if (cursor.moveToNext()) {
-                return cursor.getInt(0);
+    private void savePlayerScores(int gameId, List<PlayerScore> playerScores) {
+        for (PlayerScore playerScore : playerScores) {
+
+            // the UI changes the score while synchronized on the PlayerScore, so read it all in one go, and read the
+            // versions first, so that changes made during the save aren't considered saved
+            int scoreVersion;
+            int detailsVersion;
+            long score;
+            long lastUpdate;
+            synchronized (playerScore) {
+                scoreVersion = playerScore.getScoreVersion();
+                detailsVersion = playerScore.getDetailsVersion();
+                score = playerScore.getScore();
+                lastUpdate = playerScore.getLastUpdate();
             }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+
+            if (playerScore.getId() != -1) {
+                // already exists; update only what changed
+
+                if (!playerScore.isDetailsSaved(detailsVersion)) {
+                    updatePlayerScore(playerScore.getId(), playerScore.getName(), score,
+                            playerScore.getPlayerNumber(), lastUpdate, 
+                            PlayerColor.serialize(playerScore.getPlayerColor()));
+                } else if (!playerScore.isScoreSaved(scoreVersion)) {
+                    updatePlayerScoreTotal(playerScore.getId(), score, lastUpdate);
+                }
+                
+                saveHistory(playerScore);
+
+            } else {
+                // else insert a new row in the table, re-using the same compiled statement for every player
+
+                DeltaHistory history;
+                int historySize;
+                int historyChangeCount;
+                byte[] historyBlob;
+                synchronized (playerScore) {
+                    history = playerScore.getHistory();
+                    historySize = history.size();
+                    historyChangeCount = history.getChangeCount();
+                    historyBlob = HistoryCodec.encode(history, historySize);
+                }
+                int newId = insertPlayerScore(gameId, playerScore.getName(), score, 
+                        playerScore.getPlayerNumber(), lastUpdate, 
+                        PlayerColor.serialize(playerScore.getPlayerColor()), historyBlob, historySize);
+
+                // set the new id on the PlayerScore
+                playerScore.setId(newId);
+                synchronized (playerScore) {
+                    playerScore.markHistorySaved(history, historySize, historySize, historyChangeCount);
+                }
+
+                log.d("new playerScore id is %s", newId);
             }
+            playerScore.markSaved(scoreVersion, detailsVersion);
         }
-        return 0;
     }
 
-    private int getMaxGameId() {
-        Cursor cursor = null;
-        try {
-            cursor = db.query(TABLE_GAMES, new String[] { "max(" + COLUMN_ID + ")" }, null, null, null, null, null);
-            if (cursor.moveToNext()) {
-                return cursor.getInt(0);
+    /**
+     * Write only the history entries that were added, modified, or removed since the last save, so that the cost
+     * of a save depends on the size of the change rather than the length of the game.
+     * 
+     * The first part of the history is kept in the compact history blob, and anything appended after that goes
+     * into the Deltas table.
+     * 
+     * @param playerScore
+     */
+    private void saveHistory(PlayerScore playerScore) {
+        int fromIndex;
+        DeltaHistory history;
+        int compactedHistorySize = playerScore.getCompactedHistorySize();
+        int historySize;
+        int historyChangeCount;
+        byte[] historyBlob = null;
+        DeltaHistory deltas;
+        
+        // the UI changes the history while synchronized on the PlayerScore, so take a copy of whatever's about to be
+        // written, along with its size and change count, so that whatever changes during the save is still
+        // considered unsaved afterwards
+        synchronized (playerScore) {
+            fromIndex = playerScore.getUnsavedHistoryIndex();
+            if (fromIndex == -1) {
+                return; // nothing changed
             }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+            
+            history = playerScore.getHistory();
+            historySize = history.size();
+            historyChangeCount = history.getChangeCount();
+            
+            if (fromIndex == 0) {
+                // rewriting everything anyway, so write it compactly
+                compactedHistorySize = historySize;
+                historyBlob = HistoryCodec.encode(history, historySize);
+            } else if (fromIndex < compactedHistorySize) {
+                // change reaches into the compacted part (e.g. an undo), so shrink it
+                compactedHistorySize = fromIndex;
+                historyBlob = HistoryCodec.encode(history, fromIndex);
             }
+            
+            // entries before fromIndex are already in the database, either compacted or in the Deltas table
+            deltas = history.copy(Math.max(fromIndex, compactedHistorySize), historySize);
+        }
+        
+        if (historyBlob != null) {
+            updateHistoryBlob(playerScore.getId(), historyBlob, compactedHistorySize);
+        }
+        
+        SQLiteStatement deleteStatement = deleteDeltasFrom.get();
+        deleteStatement.bindLong(1, playerScore.getId());
+        deleteStatement.bindLong(2, fromIndex);
+        deleteStatement.execute();
+        
+        SQLiteStatement insertStatement = insertDelta.get();
+        int seq = historySize - deltas.size();
+        for (int i = 0, len = deltas.size(); i < len; i++) {
+            insertDelta(insertStatement, playerScore.getId(), seq + i, deltas.getValue(i), deltas.getTimestamp(i));
+        }
+        
+        synchronized (playerScore) {
+            playerScore.markHistorySaved(history, compactedHistorySize, historySize, historyChangeCount);
         }
-        return 0;
     }
+    
+    public List<Game> findAllGames() {
+        lockForRead();
+        try {
+            String orderBy = COLUMN_DATE_SAVED;
 
-    private void savePlayerScores(int gameId, List<PlayerScore> playerScores) {
-        synchronized (GameDBHelper.class) {
-
-            int newId = -1;
-
-            for (PlayerScore playerScore : playerScores) {
+            Cursor cursor = null;
 
-                Pair<String, String> historyAsStrings = Delta.toJoinedStrings(playerScore.getHistory());
+            try {
 
-                if (playerScore.getId() != -1) {
-                    // already exists; update
+                cursor = db.query(JOINED_TABLES, JOINED_COLUMNS, null, null, null, null, orderBy);
 
-                    updatePlayerScore(playerScore.getId(), playerScore.getName(), playerScore.getScore(),
-                            playerScore.getPlayerNumber(), historyAsStrings.getFirst(), 
-                            historyAsStrings.getSecond(), playerScore.getLastUpdate(), 
-                            PlayerColor.serialize(playerScore.getPlayerColor()));
+                return convertToGames(cursor);
 
-                } else {
-                    // else insert new rows in the table
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }    
 
-                    if (newId == -1) {
-                        newId = getMaxPlayerScoreId() + 1;
-                    } else {
-                        newId++;
-                    }
+    /**
+     * Return an iterator that loads the given games from the database in order, a batch at a time as they're
+     * needed, so that only a few full Games have to be in memory at once.  Each batch is read from a single ordered
+     * cursor over the joined tables, plus one query for the rest of the histories.  Games that have been deleted in
+     * the meantime are skipped.
+     * 
+     * The lock is only held while each batch is being read, so saves can still go through between batches.
+     * 
+     * @param gameIds
+     * @return
+     */
+    public Iterator<Game> iterateGames(final List<Integer> gameIds) {
+        return new Iterator<Game>() {
+
+            private int index;
+            private Iterator<Game> batch = Collections.<Game>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!batch.hasNext() && index < gameIds.size()) {
+                    List<Integer> batchIds = gameIds.subList(index, 
+                            Math.min(index + ITERATE_GAMES_BATCH_SIZE, gameIds.size()));
+                    index += batchIds.size();
+                    batch = findGamesByIds(batchIds).iterator();
+                }
+                return batch.hasNext();
+            }
 
-                    ContentValues values = new ContentValues();
-                    values.put(COLUMN_ID, newId);
-                    values.put(COLUMN_GAME_ID, gameId);
-                    values.put(COLUMN_HISTORY, historyAsStrings.getFirst());
-                    values.put(COLUMN_HISTORY_TIMESTAMPS, historyAsStrings.getSecond());
-                    values.put(COLUMN_NAME, playerScore.getName());
-                    values.put(COLUMN_PLAYER_NUMBER, playerScore.getPlayerNumber());
-                    values.put(COLUMN_SCORE, playerScore.getScore());
-                    values.put(COLUMN_COLOR, PlayerColor.serialize(playerScore.getPlayerColor()));
-                    values.put(COLUMN_LAST_UPDATE, playerScore.getLastUpdate());
-                    db.insert(TABLE_PLAYER_SCORES, null, values);
+            @Override
+            public Game next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
 
-                    // set the new id on the PlayerScore
-                    playerScore.setId(newId);
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
 
-                    log.d("new playerScore id is %s", newId);
+    /**
+     * Return the given games, in the same order as their ids.  Games that don't exist are skipped.
+     * 
+     * @param gameIds
+     * @return
+     */
+    private List<Game> findGamesByIds(List<Integer> gameIds) {
+        List<Game> games;
+        lockForRead();
+        try {
+            Cursor cursor = null;
+            try {
+                String where = "g." + COLUMN_ID + " in (" + TextUtils.join(",", gameIds) + ")";
+                String orderBy = "g." + COLUMN_ID;
+                cursor = db.query(JOINED_TABLES, JOINED_COLUMNS, where, null, null, null, orderBy);
+                games = convertToGames(cursor);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
+        }
+        
+        SparseArray<Game> gamesById = new SparseArray<Game>(games.size());
+        for (Game game : games) {
+            gamesById.put(game.getId(), game);
+        }
+        List<Game> result = new ArrayList<Game>(games.size());
+        for (Integer gameId : gameIds) {
+            Game game = gamesById.get(gameId);
+            if (game != null) {
+                result.add(game);
+            }
         }
+        return result;
     }
-    
-    public List<Game> findAllGames() {
-        synchronized (GameDBHelper.class) {
-            String orderBy = COLUMN_DATE_SAVED;
 
-            Cursor cursor = null;
+    /**
+     * Return summaries of all the saved games, most recently saved first.
+     * 
+     * @return
+     */
+    public List<GameSummary> findAllGameSummaries() {
+        return findGameSummaries(null, -1);
+    }
 
+    /**
+     * Return one page of game summaries, most recently saved first.  Pages are found by their position relative to
+     * the last game of the previous page rather than by offset, so that each page is a cheap index lookup no matter
+     * how far down the list it is.
+     * 
+     * @param after
+     *            the last game of the previous page, or null for the first page
+     * @param limit
+     *            the maximum number of games to return, or -1 for no limit
+     * @return
+     */
+    public List<GameSummary> findGameSummaries(GameSummary after, int limit) {
+        lockForRead();
+        try {
+            
+            // ties are broken by id, so that the order is stable from page to page
+            String orderBy = COLUMN_DATE_SAVED + " desc, " + COLUMN_GAME_ID + " desc";
+            String where = null;
+            if (after != null) {
+                where = COLUMN_DATE_SAVED + "<" + after.getDateSaved() + " or (" + COLUMN_DATE_SAVED + "=" 
+                        + after.getDateSaved() + " and " + COLUMN_GAME_ID + "<" + after.getId() + ")";
+            }
+            
+            Cursor cursor = null;
+            
             try {
 
-                cursor = db.query(JOINED_TABLES, JOINED_COLUMNS, null, null, null, null, orderBy);
+                cursor = db.query(TABLE_GAME_SUMMARIES, GAME_SUMMARY_COLUMNS, where, null, null, null, orderBy, 
+                        limit == -1 ? null : Integer.toString(limit));
+                
+                return convertToGameSummaries(cursor);
 
-                return convertToGames(cursor);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }
 
+    /**
+     * Return the number of games last saved within the given time range.
+     * 
+     * @param fromDateSaved
+     *            inclusive
+     * @param toDateSaved
+     *            exclusive
+     * @return
+     */
+    public int findGameCountByDateSaved(long fromDateSaved, long toDateSaved) {
+        lockForRead();
+        try {
+            String[] columns = { "count(" + COLUMN_GAME_ID + ")" };
+            String where = COLUMN_DATE_SAVED + ">=" + fromDateSaved + " and " + COLUMN_DATE_SAVED + "<" + toDateSaved;
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAME_SUMMARIES, columns, where, null, null, null, null);
+                if (cursor.moveToNext()) {
+                    return cursor.getInt(0);
+                }
             } finally {
                 if (cursor != null) {
                     cursor.close();
                 }
             }
+            return 0;
+        } finally {
+            unlockForRead();
         }
-    }    
+    }
 
-    public List<GameSummary> findAllGameSummaries() {
-        synchronized (GameDBHelper.class) {
-            
-            String[] columns = {
-                    "g." + COLUMN_ID, 
-                    "g." + COLUMN_NAME, 
-                    "g." + COLUMN_DATE_SAVED, 
-                    // player names; the "separator" is a trick to ensure that we can cleanly separate the response,
-                    // and put it into the proper order, since group_concat is always unordered in sqlite
-                    "group_concat((ps.name || '" + GROUP_CONCAT_INNER_SEPARATOR +"' || ps.playerNumber), '" + GROUP_CONCAT_SEPARATOR + "')",
-                    "max(length(ps.history) - length(replace(ps.history, ',', '')) + 1)" // num rounds
-                    };
-            
-            String table = TABLE_GAMES + " g join " + TABLE_PLAYER_SCORES + " ps " + 
-                    " on g." + COLUMN_ID + " = ps." + COLUMN_GAME_ID;
-            String groupBy = "g." + COLUMN_ID;
-            
+    /**
+     * Return the ids of all the saved games, most recently saved first.
+     * 
+     * @return
+     */
+    public List<Integer> findAllGameIds() {
+        lockForRead();
+        try {
+            String orderBy = COLUMN_DATE_SAVED + " desc, " + COLUMN_GAME_ID + " desc";
             Cursor cursor = null;
-            
             try {
+                cursor = db.query(TABLE_GAME_SUMMARIES, new String[] { COLUMN_GAME_ID }, null, null, null, null, 
+                        orderBy);
+                List<Integer> result = new ArrayList<Integer>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getInt(0));
+                }
+                return result;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }
 
-                cursor = db.query(table, columns, null, null, groupBy, null, null);
-                
-                List<GameSummary> result = new ArrayList<GameSummary>();
-                
-                // re-use sparse array for performance
-                SparseArray<String> playerNumbersToNames = new SparseArray<String>();
-                
+    /**
+     * Return summaries of the given games, in no particular order.  Games that don't exist are skipped.
+     * 
+     * @param gameIds
+     * @return
+     */
+    public List<GameSummary> findGameSummariesByIds(Collection<Integer> gameIds) {
+        if (gameIds.isEmpty()) {
+            return new ArrayList<GameSummary>();
+        }
+        lockForRead();
+        try {
+            String where = COLUMN_GAME_ID + " in (" + TextUtils.join(",", gameIds) + ")";
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAME_SUMMARIES, GAME_SUMMARY_COLUMNS, where, null, null, null, null);
+                return convertToGameSummaries(cursor);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    /**
+     * Return the number of the latest change to any game.  Pass it to {@link #findGameIdsChangedSince(long)} later
+     * on to find out which games were saved, renamed, or deleted in the meantime.
+     * 
+     * @return
+     */
+    public long findLatestChangeNumber() {
+        lockForRead();
+        try {
+            String[] columns = { "max(" + COLUMN_CHANGE_NUMBER + ")" };
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAME_CHANGES, columns, null, null, null, null, null);
+                if (cursor.moveToNext()) {
+                    return cursor.getLong(0);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            return 0;
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    /**
+     * Return the ids of the games that were saved, renamed, or deleted after the given change.
+     * 
+     * @param changeNumber
+     * @return
+     */
+    public List<Integer> findGameIdsChangedSince(long changeNumber) {
+        lockForRead();
+        try {
+            String where = COLUMN_CHANGE_NUMBER + ">" + changeNumber;
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAME_CHANGES, new String[] { COLUMN_GAME_ID }, where, null, null, null, null);
+                List<Integer> result = new ArrayList<Integer>(cursor.getCount());
                 while (cursor.moveToNext()) {
-                    GameSummary gameSummary = new GameSummary();
-                    
-                    gameSummary.setId(cursor.getInt(0));
-                    gameSummary.setName(cursor.getString(1));
-                    gameSummary.setDateSaved(cursor.getLong(2));
-                    
-                    String playerNumbersAndNames = cursor.getString(3);
-                    // sort by player number, get player names in order (no way to do this in sqlite, unfortunately)
-                    
-                    playerNumbersToNames.clear();
-                    for (String playerNumberAndName : StringUtil.split(playerNumbersAndNames, GROUP_CONCAT_SEPARATOR)) {
-                        int idx = playerNumberAndName.indexOf(GROUP_CONCAT_INNER_SEPARATOR);
-                        String playerName = playerNumberAndName.substring(0, idx);
-                        int playerNumber = Integer.parseInt(playerNumberAndName.substring(
-                                idx + GROUP_CONCAT_INNER_SEPARATOR.length()));
-                        playerNumbersToNames.put(playerNumber, playerName);
-                    }
-                    List<String> playerNames = new ArrayList<String>(playerNumbersToNames.size());
-                    for (int i = 0, len = playerNumbersToNames.size(); i < len; i++) {
-                        int playerNumber = playerNumbersToNames.keyAt(i);
-                        playerNames.add(playerNumbersToNames.get(playerNumber));
-                    }
-                    gameSummary.setPlayerNames(playerNames);
-                    
-                    gameSummary.setNumRounds(cursor.getInt(4));
-                    
-                    result.add(gameSummary);
+                    result.add(cursor.getInt(0));
                 }
-                
                 return result;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }
 
+    /**
+     * Return the start dates of the games that were deleted after the given change, leaving out any that have been
+     * restored since.
+     * 
+     * @param changeNumber
+     * @return
+     */
+    public List<Long> findDatesStartedDeletedSince(long changeNumber) {
+        lockForRead();
+        try {
+            String where = COLUMN_CHANGE_NUMBER + ">" + changeNumber + " and " + COLUMN_DATE_STARTED 
+                    + " not in (select " + COLUMN_DATE_STARTED + " from " + TABLE_GAMES + ")";
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAME_CHANGES, new String[] { COLUMN_DATE_STARTED }, where, null, null, null, 
+                        null);
+                List<Long> result = new ArrayList<Long>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getLong(0));
+                }
+                return result;
             } finally {
                 if (cursor != null) {
                     cursor.close();
                 }
             }
+        } finally {
+            unlockForRead();
         }
     }
 
     public void deleteGame(Game game) {
-        synchronized (GameDBHelper.class) {
+        int id = game.getId();
+        lockGame(id);
+        try {
             try {
                 db.beginTransaction();
 
-                int id = game.getId();
+                recordGameDeletion(id);
+
+                db.delete(TABLE_DELTAS, COLUMN_PLAYER_SCORE_ID + " in (select " + COLUMN_ID + " from " 
+                        + TABLE_PLAYER_SCORES + " where " + COLUMN_GAME_ID + "=" + id + ")", null);
                 db.delete(TABLE_GAMES, COLUMN_ID + "=" + id, null);
                 db.delete(TABLE_PLAYER_SCORES, COLUMN_GAME_ID + "=" + id, null);
+                db.delete(TABLE_GAME_SUMMARIES, COLUMN_GAME_ID + "=" + id, null);
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
+        } finally {
+            unlockGame(id);
         }
     }
 
     public void updateGameName(int gameId, String newName) {
-        synchronized (GameDBHelper.class) {
+        lockGame(gameId);
+        try {
             ContentValues values = new ContentValues();
             values.put(COLUMN_NAME, newName);
 
-            db.update(TABLE_GAMES, values, COLUMN_ID + "=" + gameId, null);
+            db.beginTransaction();
+            try {
+                db.update(TABLE_GAMES, values, COLUMN_ID + "=" + gameId, null);
+                db.update(TABLE_GAME_SUMMARIES, values, COLUMN_GAME_ID + "=" + gameId, null);
+                recordGameChange(gameId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            unlockGame(gameId);
         }
     }
 
     public List<String> findDistinctPlayerNames() {
-        synchronized (GameDBHelper.class) {
+        lockForRead();
+        try {
             List<String> result = new ArrayList<String>();
             String[] columns = { "distinct " + COLUMN_NAME };
             Cursor cursor = null;
@@ -517,27 +1275,211 @@ public class GameDBHelper extends SQLiteOpenHelper {
                 }
             }
             return result;
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    /**
+     * Return the distinct players in the given games, as PlayerScores with just the name and player number filled in.
+     * The player number is only filled in for players without a name, since that's all they can be told apart by.
+     * 
+     * @param gameIds
+     * @return
+     */
+    public List<PlayerScore> findDistinctPlayers(Collection<Integer> gameIds) {
+        if (gameIds.isEmpty()) {
+            return new ArrayList<PlayerScore>();
+        }
+        lockForRead();
+        try {
+            String[] columns = { "distinct " + COLUMN_NAME, 
+                    "case when " + COLUMN_NAME + " is null or " + COLUMN_NAME + "='' then " + COLUMN_PLAYER_NUMBER 
+                            + " else 0 end" };
+            String where = COLUMN_GAME_ID + " in (" + TextUtils.join(",", gameIds) + ")";
+            List<PlayerScore> result = new ArrayList<PlayerScore>();
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_PLAYER_SCORES, columns, where, null, null, null, null);
+                while (cursor.moveToNext()) {
+                    PlayerScore playerScore = new PlayerScore();
+                    playerScore.setName(cursor.getString(0));
+                    playerScore.setPlayerNumber(cursor.getInt(1));
+                    result.add(playerScore);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            return result;
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    /**
+     * Pass the final scores of the given games to the callback, most recently started first.  The games are read in
+     * batches, each from a single cursor and without their histories, so any number of games can be exported without
+     * loading them all into memory.  The GameScores objects are refilled for each batch, so the callback shouldn't
+     * hold on to them.
+     * 
+     * @param gameIds
+     * @param onGame
+     *            called on the calling thread, between reads, so saves can still go through while it runs
+     */
+    public void findGameScores(Collection<Integer> gameIds, Callback<GameScores> onGame) {
+        if (gameIds.isEmpty()) {
+            return;
+        }
+        List<Integer> orderedGameIds = findGameIdsByDateStarted(gameIds);
+        
+        // refilled for every batch
+        List<GameScores> batch = new ArrayList<GameScores>();
+        
+        for (int i = 0; i < orderedGameIds.size(); i += FIND_GAME_SCORES_BATCH_SIZE) {
+            List<Integer> batchIds = orderedGameIds.subList(i, 
+                    Math.min(i + FIND_GAME_SCORES_BATCH_SIZE, orderedGameIds.size()));
+            int numGames = readGameScores(batchIds, batch);
+            for (int j = 0; j < numGames; j++) {
+                onGame.onCallback(batch.get(j));
+            }
+        }
+    }
+
+    /**
+     * Return the ids of the given games that still exist, most recently started first.
+     * 
+     * @param gameIds
+     * @return
+     */
+    private List<Integer> findGameIdsByDateStarted(Collection<Integer> gameIds) {
+        lockForRead();
+        try {
+            String where = COLUMN_ID + " in (" + TextUtils.join(",", gameIds) + ")";
+            String orderBy = COLUMN_DATE_STARTED + " desc, " + COLUMN_ID;
+            Cursor cursor = null;
+            try {
+                cursor = db.query(TABLE_GAMES, new String[] { COLUMN_ID }, where, null, null, null, orderBy);
+                List<Integer> result = new ArrayList<Integer>(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getInt(0));
+                }
+                return result;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        } finally {
+            unlockForRead();
+        }
+    }
+
+    /**
+     * Read the final scores of the given games into the list, most recently started first, reusing the GameScores
+     * objects that are already in it.
+     * 
+     * @param gameIds
+     * @param result
+     * @return the number of games read, which may be fewer than the number of ids if some were deleted
+     */
+    private int readGameScores(Collection<Integer> gameIds, List<GameScores> result) {
+        lockForRead();
+        try {
+            String tables = JOINED_TABLES + " left join " + TABLE_GAME_SUMMARIES + " gs ON gs." + COLUMN_GAME_ID 
+                    + "=g." + COLUMN_ID;
+            String[] columns = { 
+                    "g." + COLUMN_ID, 
+                    "g." + COLUMN_NAME, 
+                    "g." + COLUMN_DATE_STARTED, 
+                    "g." + COLUMN_DATE_SAVED, 
+                    "coalesce(gs." + COLUMN_NUM_ROUNDS + ",0)",
+                    "ps." + COLUMN_NAME, 
+                    "ps." + COLUMN_PLAYER_NUMBER, 
+                    "ps." + COLUMN_SCORE };
+            String where = "g." + COLUMN_ID + " in (" + TextUtils.join(",", gameIds) + ")";
+            String orderBy = "g." + COLUMN_DATE_STARTED + " desc, g." + COLUMN_ID + ", ps." + COLUMN_PLAYER_NUMBER;
+            
+            int numGames = 0;
+            GameScores gameScores = null;
+            Cursor cursor = null;
+            try {
+                cursor = db.query(tables, columns, where, null, null, null, orderBy);
+                while (cursor.moveToNext()) {
+                    int gameId = cursor.getInt(0);
+                    if (gameScores == null || gameScores.getId() != gameId) {
+                        if (numGames == result.size()) {
+                            result.add(new GameScores());
+                        }
+                        gameScores = result.get(numGames++);
+                        gameScores.setId(gameId);
+                        gameScores.setName(cursor.getString(1));
+                        gameScores.setDateStarted(cursor.getLong(2));
+                        gameScores.setDateSaved(cursor.getLong(3));
+                        gameScores.setNumRounds(cursor.getInt(4));
+                        gameScores.clearPlayers();
+                    }
+                    gameScores.addPlayer(cursor.getString(5), cursor.getInt(6), cursor.getLong(7));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            return numGames;
+        } finally {
+            unlockForRead();
         }
     }
 
     public void deleteGames(Collection<Integer> gameIds) {
-        synchronized (GameDBHelper.class) {
+        lockGames(gameIds);
+        try {
             try {
                 db.beginTransaction();
+                for (Integer gameId : gameIds) {
+                    recordGameDeletion(gameId);
+                }
                 String where = " in ("
                         + TextUtils.join(",", gameIds) + ")";
+                db.delete(TABLE_DELTAS, COLUMN_PLAYER_SCORE_ID + " in (select " + COLUMN_ID + " from " 
+                        + TABLE_PLAYER_SCORES + " where " + COLUMN_GAME_ID + where + ")", null);
                 db.delete(TABLE_GAMES, COLUMN_ID + where, null);
                 db.delete(TABLE_PLAYER_SCORES, COLUMN_GAME_ID + where, null);
+                db.delete(TABLE_GAME_SUMMARIES, COLUMN_GAME_ID + where, null);
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
+        } finally {
+            unlockGames(gameIds);
+        }
+    }
+
+    private List<GameSummary> convertToGameSummaries(Cursor cursor) {
+        List<GameSummary> result = new ArrayList<GameSummary>(cursor.getCount());
+        
+        while (cursor.moveToNext()) {
+            GameSummary gameSummary = new GameSummary();
+            
+            gameSummary.setId(cursor.getInt(0));
+            gameSummary.setName(cursor.getString(1));
+            gameSummary.setDateStarted(cursor.getLong(2));
+            gameSummary.setDateSaved(cursor.getLong(3));
+            gameSummary.setPlayerNames(StringUtil.split(cursor.getString(4), PLAYER_NAMES_SEPARATOR));
+            gameSummary.setNumRounds(cursor.getInt(5));
+            gameSummary.setLeader(cursor.getString(6));
+            
+            result.add(gameSummary);
         }
+        return result;
     }
 
     private List<Game> convertToGames(Cursor cursor) {
         List<Game> result = new ArrayList<Game>();
+        SparseArray<PlayerScore> playerScoresById = new SparseArray<PlayerScore>();
 
         Game currentGame = null;
 
@@ -553,6 +1495,7 @@ public class GameDBHelper extends SQLiteOpenHelper {
                 currentGame.setDateStarted(cursor.getLong(1));
                 currentGame.setDateSaved(cursor.getLong(2));
                 currentGame.setName(cursor.getString(3));
+                currentGame.markSaved(currentGame.getVersion());
                 result.add(currentGame);
             }
 
@@ -572,12 +1515,14 @@ public class GameDBHelper extends SQLiteOpenHelper {
                 playerScore.setName(cursor.getString(5));
                 playerScore.setScore(cursor.getLong(6));
                 playerScore.setPlayerNumber(cursor.getInt(7));
-                playerScore.setHistory(Delta.fromJoinedStrings(
-                        StringUtil.nullToEmpty(cursor.getString(8)),
-                        StringUtil.nullToEmpty(cursor.getString(9))));
-                playerScore.setLastUpdate(cursor.getLong(10));
-                playerScore.setPlayerColor(PlayerColor.deserialize(cursor.getString(11)));
+                DeltaHistory history = readCompactedHistory(cursor);
+                playerScore.setHistory(history);
+                playerScore.markHistorySaved(history, history.size(), history.size(), history.getChangeCount());
+                playerScore.setLastUpdate(cursor.getLong(8));
+                playerScore.setPlayerColor(PlayerColor.deserialize(cursor.getString(9)));
+                playerScore.markSaved(playerScore.getScoreVersion(), playerScore.getDetailsVersion());
                 playerScores.add(playerScore);
+                playerScoresById.put(playerScore.getId(), playerScore);
 
             } while (cursor.moveToNext());
 
@@ -585,10 +1530,141 @@ public class GameDBHelper extends SQLiteOpenHelper {
 
             currentGame.setPlayerScores(playerScores);
         }
+        
+        loadHistories(playerScoresById);
 
         return result;
     }
 
+    /**
+     * Read the first part of the history, stored either as a compact blob or as a legacy history string.
+     * 
+     * @param cursor
+     * @return
+     */
+    private DeltaHistory readCompactedHistory(Cursor cursor) {
+        byte[] historyBlob = cursor.getBlob(12);
+        if (historyBlob != null) {
+            DeltaHistory history = new DeltaHistory();
+            HistoryCodec.decode(historyBlob, history);
+            return history;
+        }
+        String legacyHistory = cursor.getString(10);
+        if (legacyHistory != null) {
+            return DeltaHistory.fromJoinedStrings(legacyHistory, StringUtil.nullToEmpty(cursor.getString(11)));
+        }
+        return new DeltaHistory();
+    }
+
+    /**
+     * Append the rest of the histories of the given PlayerScores from the ordered rows in the Deltas table.
+     * 
+     * @param playerScoresById
+     */
+    private void loadHistories(SparseArray<PlayerScore> playerScoresById) {
+        
+        if (playerScoresById.size() == 0) {
+            return;
+        }
+        
+        StringBuilder where = new StringBuilder(COLUMN_PLAYER_SCORE_ID).append(" in (");
+        for (int i = 0, len = playerScoresById.size(); i < len; i++) {
+            if (i > 0) {
+                where.append(',');
+            }
+            where.append(playerScoresById.keyAt(i));
+        }
+        where.append(')');
+        
+        String[] columns = { COLUMN_PLAYER_SCORE_ID, COLUMN_VALUE, COLUMN_TIMESTAMP };
+        String orderBy = COLUMN_PLAYER_SCORE_ID + "," + COLUMN_SEQ;
+        
+        Cursor cursor = null;
+        try {
+            cursor = db.query(TABLE_DELTAS, columns, where.toString(), null, null, null, orderBy);
+            
+            PlayerScore playerScore = null;
+            while (cursor.moveToNext()) {
+                int playerScoreId = cursor.getInt(0);
+                if (playerScore == null || playerScore.getId() != playerScoreId) {
+                    playerScore = playerScoresById.get(playerScoreId);
+                }
+                playerScore.getHistory().add(cursor.getLong(2), cursor.getInt(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        
+        for (int i = 0, len = playerScoresById.size(); i < len; i++) {
+            PlayerScore playerScore = playerScoresById.valueAt(i);
+            DeltaHistory history = playerScore.getHistory();
+            playerScore.markHistorySaved(history, playerScore.getCompactedHistorySize(), history.size(), 
+                    history.getChangeCount());
+        }
+    }
+
+    /**
+     * Insert a new game row, returning the id that sqlite assigned to it.
+     */
+    private int insertGame(long dateStarted, long dateSaved, String name) {
+        SQLiteStatement statement = insertGame.get();
+
+        statement.bindLong(1, dateStarted);
+        statement.bindLong(2, dateSaved);
+        bindStringOrNull(statement, 3, name);
+
+        return executeInsert(statement);
+    }
+
+    /**
+     * Insert a new player score row, returning the id that sqlite assigned to it.
+     */
+    private int insertPlayerScore(int gameId, String name, long score, int playerNumber, long lastUpdate, 
+            String color, byte[] historyBlob, int historyBlobSize) {
+        SQLiteStatement statement = insertPlayerScore.get();
+
+        statement.bindLong(1, gameId);
+        bindStringOrNull(statement, 2, name);
+        statement.bindLong(3, score);
+        statement.bindLong(4, playerNumber);
+        statement.bindLong(5, lastUpdate);
+        statement.bindString(6, color);
+        statement.bindBlob(7, historyBlob);
+        statement.bindLong(8, historyBlobSize);
+
+        return executeInsert(statement);
+    }
+
+    /**
+     * Run the insert and return the id that sqlite assigned to the new row.
+     */
+    private int executeInsert(SQLiteStatement statement) {
+        long rowId = statement.executeInsert();
+        if (rowId == -1) {
+            throw new SQLException("insert failed");
+        }
+        return (int) rowId;
+    }
+
+    private void recordGameChange(int gameId) {
+        SQLiteStatement statement = recordGameChange.get();
+
+        statement.bindLong(1, gameId);
+
+        statement.execute();
+    }
+
+    private void recordGameDeletion(int gameId) {
+        SQLiteStatement statement = recordGameDeletion.get();
+
+        statement.bindLong(1, gameId);
+        statement.bindLong(2, gameId);
+
+        statement.execute();
+    }
+
     /**
      * convenience method for updating games, using prepared statements for
      * performance boosts.
@@ -610,23 +1686,122 @@ public class GameDBHelper extends SQLiteOpenHelper {
         statement.execute();
     }
 
-    private void updatePlayerScore(int id, String name, long score, int playerNumber, String history, 
-            String historyTimestamps, long lastUpdate, String color) {
+    private void updatePlayerScore(int id, String name, long score, int playerNumber, long lastUpdate, 
+            String color) {
         SQLiteStatement statement = updatePlayerScore.get();
 
         bindStringOrNull(statement, 1, name);
         statement.bindLong(2, score);
         statement.bindLong(3, playerNumber);
-        bindStringOrNull(statement, 4, history);
-        bindStringOrNull(statement, 5, historyTimestamps);
-        statement.bindLong(6, lastUpdate);
-        statement.bindString(7, color);
-        statement.bindLong(8, id);
+        statement.bindLong(4, lastUpdate);
+        statement.bindString(5, color);
+        statement.bindLong(6, id);
 
         statement.execute();
     }
 
-    private void bindStringOrNull(SQLiteStatement statement, int index, String str) {
+    private void updatePlayerScoreTotal(int id, long score, long lastUpdate) {
+        SQLiteStatement statement = updatePlayerScoreTotal.get();
+
+        statement.bindLong(1, score);
+        statement.bindLong(2, lastUpdate);
+        statement.bindLong(3, id);
+
+        statement.execute();
+    }
+
+    private void updateHistoryBlob(int id, byte[] historyBlob, int historyBlobSize) {
+        SQLiteStatement statement = updateHistoryBlob.get();
+
+        statement.bindBlob(1, historyBlob);
+        statement.bindLong(2, historyBlobSize);
+        statement.bindLong(3, id);
+
+        statement.execute();
+    }
+
+    private void insertDelta(SQLiteStatement statement, int playerScoreId, int seq, int value, long timestamp) {
+        statement.bindLong(1, playerScoreId);
+        statement.bindLong(2, seq);
+        statement.bindLong(3, value);
+        statement.bindLong(4, timestamp);
+
+        statement.executeInsert();
+    }
+
+    private void lockForRead() {
+        if (!writeAheadLogging) {
+            databaseLock.readLock().lock();
+        }
+    }
+
+    private void unlockForRead() {
+        if (!writeAheadLogging) {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lock for a write that isn't specific to any one game.
+     */
+    private void lockDatabase() {
+        if (!writeAheadLogging) {
+            databaseLock.writeLock().lock();
+        }
+    }
+
+    private void unlockDatabase() {
+        if (!writeAheadLogging) {
+            databaseLock.writeLock().unlock();
+        }
+    }
+
+    private void lockGame(int gameId) {
+        gameLocks[getGameLockIndex(gameId)].lock();
+        lockDatabase();
+    }
+
+    private void unlockGame(int gameId) {
+        unlockDatabase();
+        gameLocks[getGameLockIndex(gameId)].unlock();
+    }
+
+    /**
+     * Lock several games at once, always in the same order to avoid deadlocks.
+     */
+    private void lockGames(Collection<Integer> gameIds) {
+        boolean[] lockIndexes = getGameLockIndexes(gameIds);
+        for (int i = 0; i < NUM_GAME_LOCKS; i++) {
+            if (lockIndexes[i]) {
+                gameLocks[i].lock();
+            }
+        }
+        lockDatabase();
+    }
+
+    private void unlockGames(Collection<Integer> gameIds) {
+        unlockDatabase();
+        boolean[] lockIndexes = getGameLockIndexes(gameIds);
+        for (int i = NUM_GAME_LOCKS - 1; i >= 0; i--) {
+            if (lockIndexes[i]) {
+                gameLocks[i].unlock();
+            }
+        }
+    }
+
+    private static boolean[] getGameLockIndexes(Collection<Integer> gameIds) {
+        boolean[] result = new boolean[NUM_GAME_LOCKS];
+        for (Integer gameId : gameIds) {
+            result[getGameLockIndex(gameId)] = true;
+        }
+        return result;
+    }
+
+    private static int getGameLockIndex(int gameId) {
+        return (gameId & Integer.MAX_VALUE) % NUM_GAME_LOCKS;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String str) {
         if (str == null) {
             statement.bindNull(index);
         } else {
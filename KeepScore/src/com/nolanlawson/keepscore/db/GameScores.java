@@ -0,0 +1,90 @@
+package com.nolanlawson.keepscore.db;
+
+/**
+ * Even smaller POJO than {@link GameSummary}, with just the final scores of a game.  Designed for exporting lots of
+ * games at once, so the same objects are refilled for each batch of games rather than creating new ones every time.
+ * @author nolan
+ *
+ */
+public class GameScores {
+
+    private int id = -1;
+    private String name;
+    private int numRounds;
+    private long dateStarted;
+    private long dateSaved;
+
+    private int numPlayers;
+    private String[] playerNames = new String[8];
+    private int[] playerNumbers = new int[8];
+    private long[] scores = new long[8];
+
+    public int getId() {
+        return id;
+    }
+    public void setId(int id) {
+        this.id = id;
+    }
+    public String getName() {
+        return name;
+    }
+    public void setName(String name) {
+        this.name = name;
+    }
+    public int getNumRounds() {
+        return numRounds;
+    }
+    public void setNumRounds(int numRounds) {
+        this.numRounds = numRounds;
+    }
+    public long getDateStarted() {
+        return dateStarted;
+    }
+    public void setDateStarted(long dateStarted) {
+        this.dateStarted = dateStarted;
+    }
+    public long getDateSaved() {
+        return dateSaved;
+    }
+    public void setDateSaved(long dateSaved) {
+        this.dateSaved = dateSaved;
+    }
+    public int getNumPlayers() {
+        return numPlayers;
+    }
+    public String getPlayerName(int index) {
+        return playerNames[index];
+    }
+    public int getPlayerNumber(int index) {
+        return playerNumbers[index];
+    }
+    public long getScore(int index) {
+        return scores[index];
+    }
+
+    public void clearPlayers() {
+        numPlayers = 0;
+    }
+
+    public void addPlayer(String playerName, int playerNumber, long score) {
+        if (numPlayers == scores.length) {
+            int newLength = numPlayers * 2;
+
+            String[] newPlayerNames = new String[newLength];
+            System.arraycopy(playerNames, 0, newPlayerNames, 0, numPlayers);
+            playerNames = newPlayerNames;
+
+            int[] newPlayerNumbers = new int[newLength];
+            System.arraycopy(playerNumbers, 0, newPlayerNumbers, 0, numPlayers);
+            playerNumbers = newPlayerNumbers;
+
+            long[] newScores = new long[newLength];
+            System.arraycopy(scores, 0, newScores, 0, numPlayers);
+            scores = newScores;
+        }
+        playerNames[numPlayers] = playerName;
+        playerNumbers[numPlayers] = playerNumber;
+        scores[numPlayers] = score;
+        numPlayers++;
+    }
+}
@@ -20,7 +20,9 @@ public class GameSummary {
     private String name;
     private List<String> playerNames;
     private int numRounds;
+    private long dateStarted;
     private long dateSaved;
+    private String leader;
     
     public int getId() {
         return id;
@@ -47,12 +49,27 @@ public class GameSummary {
     public void setNumRounds(int numRounds) {
         this.numRounds = numRounds;
     }
+    public long getDateStarted() {
+        return dateStarted;
+    }
+    public void setDateStarted(long dateStarted) {
+        this.dateStarted = dateStarted;
+    }
     public long getDateSaved() {
         return dateSaved;
     }
     public void setDateSaved(long dateSaved) {
         this.dateSaved = dateSaved;
     }
+    /**
+     * Name of the player with the highest score, or null if there are no players.
+     */
+    public String getLeader() {
+        return leader;
+    }
+    public void setLeader(String leader) {
+        this.leader = leader;
+    }
     
     @Override
     public int hashCode() {
@@ -89,6 +106,7 @@ public class GameSummary {
         GameSummary result = new GameSummary();
         result.setId(game.getId());
         result.setName(game.getName());
+        result.setDateStarted(game.getDateStarted());
         result.setDateSaved(game.getDateSaved());
         result.setPlayerNames(CollectionUtil.transform(game.getPlayerScores(), new Function<PlayerScore, String>(){
             @Override
@@ -97,6 +115,14 @@ public class GameSummary {
             }
         }));
         result.setNumRounds(CollectionUtil.max(game.getPlayerScores(), Functions.PLAYER_SCORE_TO_HISTORY_SIZE));
+        
+        PlayerScore leader = null;
+        for (PlayerScore playerScore : game.getPlayerScores()) {
+            if (leader == null || playerScore.getScore() > leader.getScore()) {
+                leader = playerScore;
+            }
+        }
+        result.setLeader(leader == null ? null : leader.getName());
         return result;
     }
     
@@ -0,0 +1,181 @@
+package com.nolanlawson.keepscore.db;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nolanlawson.keepscore.KeepScoreApplication;
+import com.nolanlawson.keepscore.util.Callback;
+import com.nolanlawson.keepscore.util.StopWatch;
+import com.nolanlawson.keepscore.util.UtilLogger;
+
+/**
+ * Single background thread that all game saves go through, so that saves never pile up behind each other on the
+ * database lock and the UI thread never has to wait for one.
+ *
+ * A save that's requested while an earlier save of the same game is still waiting to run is merged into it, since
+ * the Game is saved with whatever state it has when the write actually happens.
+ *
+ * @author nolan
+ *
+ */
+public class GameWriter {
+
+    private static final UtilLogger log = new UtilLogger(GameWriter.class);
+
+    private static GameWriter instance;
+
+    private Context context;
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Handler handler = new Handler(Looper.getMainLooper());
+    // keyed by identity, because a Game's hashCode() depends on its id, which changes when it's first saved
+    private Map<Game, PendingSave> pendingSaves = new IdentityHashMap<Game, PendingSave>();
+
+    private GameWriter(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized GameWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new GameWriter(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Save the game in the background, updating its 'dateSaved' value.
+     *
+     * @param game
+     * @param onSaved
+     *            called on the main thread once the game is saved, or null
+     */
+    public void save(Game game, Callback<Game> onSaved) {
+        save(game, true, onSaved);
+    }
+
+    /**
+     * Save the game in the background, optionally updating its 'dateSaved' value.
+     *
+     * @param game
+     * @param updateDateSaved
+     * @param onSaved
+     *            called on the main thread once the game is saved, or null
+     */
+    public void save(Game game, boolean updateDateSaved, Callback<Game> onSaved) {
+        PendingSave pendingSave;
+        synchronized (pendingSaves) {
+            pendingSave = pendingSaves.get(game);
+            if (pendingSave != null) {
+                // hasn't been written yet, so it'll pick up the latest state anyway
+                log.d("coalescing save of %s", game);
+                pendingSave.updateDateSaved |= updateDateSaved;
+                if (onSaved != null) {
+                    pendingSave.callbacks.add(onSaved);
+                }
+                return;
+            }
+            pendingSave = new PendingSave(game, updateDateSaved, onSaved);
+            pendingSaves.put(game, pendingSave);
+        }
+        executor.execute(pendingSave);
+    }
+
+    /**
+     * Delete the game in the background, after any saves that were already requested.
+     *
+     * @param game
+     */
+    public void delete(final Game game) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                GameDBHelper dbHelper = KeepScoreApplication.acquireDbHelper(context);
+                try {
+                    dbHelper.deleteGame(game);
+                } finally {
+                    KeepScoreApplication.releaseDbHelper(context);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the callback on the main thread once every save and delete requested so far has been written.
+     *
+     * @param onWritten
+     */
+    public void runAfterPendingWrites(final Runnable onWritten) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                // everything before this has run by now
+                handler.post(onWritten);
+            }
+        });
+    }
+
+    private class PendingSave implements Runnable {
+
+        private final Game game;
+        private boolean updateDateSaved;
+        private List<Callback<Game>> callbacks = new ArrayList<Callback<Game>>(1);
+
+        public PendingSave(Game game, boolean updateDateSaved, Callback<Game> onSaved) {
+            this.game = game;
+            this.updateDateSaved = updateDateSaved;
+            if (onSaved != null) {
+                callbacks.add(onSaved);
+            }
+        }
+
+        @Override
+        public void run() {
+            final Game gameToSave;
+            final boolean updateDateSavedOfGame;
+            final List<Callback<Game>> callbacksToRun;
+            synchronized (pendingSaves) {
+                // any requests after this point need a new write
+                pendingSaves.remove(game);
+                gameToSave = game;
+                updateDateSavedOfGame = updateDateSaved;
+                callbacksToRun = callbacks;
+            }
+
+            StopWatch stopWatch = new StopWatch("saveGame()");
+
+            ScoreJournal journal = ScoreJournal.getInstance(context);
+            GameDBHelper dbHelper = KeepScoreApplication.acquireDbHelper(context);
+            try {
+                // marked before the save, so the records of anything that changes during it are kept
+                int journalMark = journal.mark();
+                dbHelper.saveGame(gameToSave, updateDateSavedOfGame);
+                journal.truncate(gameToSave, journalMark);
+                log.d("saved game: %s", gameToSave);
+            } finally {
+                KeepScoreApplication.releaseDbHelper(context);
+                stopWatch.log(log);
+
+                if (!callbacksToRun.isEmpty()) {
+                    handler.post(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            for (Callback<Game> callback : callbacksToRun) {
+                                callback.onCallback(gameToSave);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.nolanlawson.keepscore.db;
+
+/**
+ * Compact binary encoding of a PlayerScore's history, for storing in a BLOB column.  Values are written as
+ * zig-zag varints, and timestamps as zig-zag varints of the change in the interval between consecutive
+ * timestamps (delta-of-delta), which is usually tiny since rounds tend to be scored at a steady pace.
+ *
+ * Decoding reads straight from the bytes, so unlike the old comma-joined strings, no Strings are created.
+ *
+ * @author nolan
+ *
+ */
+public class HistoryCodec {
+
+    private static final int VERSION = 1;
+
+    /**
+     * Encode the first <code>toIndex</code> entries of the history.
+     *
+     * @param history
+     * @param toIndex
+     * @return
+     */
+    public static byte[] encode(DeltaHistory history, int toIndex) {
+
+        // worst case is 5 bytes per value and 10 bytes per timestamp
+        Output output = new Output(16 + toIndex * 3);
+
+        output.writeVarLong(VERSION);
+        output.writeVarLong(toIndex);
+
+        for (int i = 0; i < toIndex; i++) {
+            output.writeVarLong(zigZag(history.getValue(i)));
+        }
+
+        long lastTimestamp = 0;
+        long lastInterval = 0;
+        for (int i = 0; i < toIndex; i++) {
+            long timestamp = history.getTimestamp(i);
+            long interval = timestamp - lastTimestamp;
+            output.writeVarLong(zigZag(interval - lastInterval));
+            lastTimestamp = timestamp;
+            // the first timestamp is absolute, so it isn't a useful interval
+            lastInterval = (i == 0) ? 0 : interval;
+        }
+
+        return output.toByteArray();
+    }
+
+    public static byte[] encode(DeltaHistory history) {
+        return encode(history, history.size());
+    }
+
+    /**
+     * Decode the history and append it to the given history.
+     *
+     * @param data
+     * @param history
+     * @return the number of entries decoded
+     */
+    public static int decode(byte[] data, DeltaHistory history) {
+
+        Input input = new Input(data);
+
+        int version = (int) input.readVarLong();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unknown history version: " + version);
+        }
+        int size = (int) input.readVarLong();
+
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (int) unZigZag(input.readVarLong());
+        }
+
+        long lastTimestamp = 0;
+        long lastInterval = 0;
+        for (int i = 0; i < size; i++) {
+            long interval = unZigZag(input.readVarLong()) + lastInterval;
+            long timestamp = lastTimestamp + interval;
+            history.add(timestamp, values[i]);
+            lastTimestamp = timestamp;
+            lastInterval = (i == 0) ? 0 : interval;
+        }
+
+        return size;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output {
+
+        private byte[] bytes;
+        private int length;
+
+        public Output(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        public void writeVarLong(long value) {
+            if (length + 10 > bytes.length) {
+                byte[] newBytes = new byte[Math.max(bytes.length * 2, length + 10)];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        public byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, 0, result, 0, length);
+            return result;
+        }
+    }
+
+    private static class Input {
+
+        private byte[] bytes;
+        private int position;
+
+        public Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IllegalArgumentException("truncated history");
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint in history");
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.nolanlawson.keepscore.db;
 
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.os.Parcel;
@@ -18,6 +17,9 @@ import com.nolanlawson.keepscore.util.Pair;
  * Main representation for a player in a particular game and his/her score and
  * score history.
  * 
+ * The score and history may be changed on any thread, but only while synchronized on the PlayerScore, since the
+ * background writer reads them while synchronized on it too.
+ * 
  * @author nolan
  * 
  */
@@ -27,10 +29,20 @@ public class PlayerScore implements Parcelable, Cloneable {
     private String name;
     private long score;
     private int playerNumber;
-    private List<Delta> history;
+    private DeltaHistory history = new DeltaHistory();
     private long lastUpdate;
     private PlayerColor color;
 
+    // number of history entries stored in the compact history blob rather than the Deltas table
+    private int compactedHistorySize;
+
+    // incremented whenever the score/lastUpdate or the other columns change, so that saves can skip unchanged
+    // rows and columns.  Atomic because the UI thread and the background writer can both change the score
+    private final AtomicInteger scoreVersion = new AtomicInteger(1);
+    private final AtomicInteger detailsVersion = new AtomicInteger(1);
+    private int savedScoreVersion;
+    private int savedDetailsVersion;
+
     public PlayerScore() {
     }
 
@@ -39,7 +51,7 @@ public class PlayerScore implements Parcelable, Cloneable {
         name = in.readString();
         score = in.readLong();
         playerNumber = in.readInt();
-        history = Delta.fromJoinedStrings(in.readString(), in.readString());
+        history = DeltaHistory.fromJoinedStrings(in.readString(), in.readString());
         lastUpdate = in.readLong();
         color = PlayerColor.deserialize(in.readString());
 
@@ -51,6 +63,7 @@ public class PlayerScore implements Parcelable, Cloneable {
     
     public void setPlayerColor(PlayerColor color) {
         this.color = color;
+        detailsVersion.incrementAndGet();
     }
     
     public int getId() {
@@ -67,6 +80,7 @@ public class PlayerScore implements Parcelable, Cloneable {
 
     public void setName(String name) {
         this.name = name;
+        detailsVersion.incrementAndGet();
     }
 
     public long getScore() {
@@ -75,6 +89,7 @@ public class PlayerScore implements Parcelable, Cloneable {
 
     public void setScore(long score) {
         this.score = score;
+        scoreVersion.incrementAndGet();
     }
 
     public int getPlayerNumber() {
@@ -83,22 +98,77 @@ public class PlayerScore implements Parcelable, Cloneable {
 
     public void setPlayerNumber(int playerNumber) {
         this.playerNumber = playerNumber;
+        detailsVersion.incrementAndGet();
     }
 
-    public List<Delta> getHistory() {
+    public DeltaHistory getHistory() {
         return history;
     }
 
-    public void setHistory(List<Delta> history) {
+    public void setHistory(DeltaHistory history) {
         this.history = history;
     }
 
+    /**
+     * Mark that the database contains the first <code>savedHistorySize</code> entries of the given history, as they
+     * were when the given change count was read, with the first <code>compactedHistorySize</code> entries stored in
+     * the compact history blob and the rest in the Deltas table.  Like the versions in
+     * {@link #markSaved(int, int)}, the size and change count are read before the history is written.
+     * 
+     * If the history has been replaced since then, the new one is left entirely unsaved.
+     */
+    void markHistorySaved(DeltaHistory savedHistory, int compactedHistorySize, int savedHistorySize, 
+            int historyChangeCount) {
+        if (history == savedHistory) {
+            history.markSaved(savedHistorySize, historyChangeCount);
+        }
+        this.compactedHistorySize = compactedHistorySize;
+    }
+
+    int getScoreVersion() {
+        return scoreVersion.get();
+    }
+
+    int getDetailsVersion() {
+        return detailsVersion.get();
+    }
+
+    boolean isScoreSaved(int scoreVersion) {
+        return savedScoreVersion == scoreVersion;
+    }
+
+    boolean isDetailsSaved(int detailsVersion) {
+        return savedDetailsVersion == detailsVersion;
+    }
+
+    /**
+     * Mark that the database contains the given versions of the score and the other columns.  Versions are read
+     * before the values are written, so that any change made during the save will still be considered unsaved.
+     */
+    void markSaved(int scoreVersion, int detailsVersion) {
+        this.savedScoreVersion = scoreVersion;
+        this.savedDetailsVersion = detailsVersion;
+    }
+
+    int getCompactedHistorySize() {
+        return compactedHistorySize;
+    }
+
+    /**
+     * Return the index of the first history entry that needs to be (re)written to the database, or -1 if the
+     * database is already up-to-date.
+     */
+    int getUnsavedHistoryIndex() {
+        return history.getUnsavedIndex();
+    }
+
     public long getLastUpdate() {
         return lastUpdate;
     }
 
     public void setLastUpdate(long lastUpdate) {
         this.lastUpdate = lastUpdate;
+        scoreVersion.incrementAndGet();
     }
 
     @Override
@@ -128,7 +198,7 @@ public class PlayerScore implements Parcelable, Cloneable {
     }
 
     public boolean isAtDefault(Context context) {
-        return (history == null || history.isEmpty())
+        return history.isEmpty()
                 && score == PreferenceHelper.getIntPreference(R.string.CONSTANT_pref_initial_score,
                         R.string.CONSTANT_pref_initial_score_default, context);
     }
@@ -151,7 +221,7 @@ public class PlayerScore implements Parcelable, Cloneable {
     @Override
     public Object clone() {
         PlayerScore playerScore = new PlayerScore();
-        playerScore.setHistory(new ArrayList<Delta>(history));
+        playerScore.setHistory(history.copy());
         playerScore.setId(id);
         playerScore.setName(name);
         playerScore.setPlayerNumber(playerNumber);
@@ -172,7 +242,7 @@ public class PlayerScore implements Parcelable, Cloneable {
         dest.writeString(name);
         dest.writeLong(score);
         dest.writeInt(playerNumber);
-        Pair<String, String> historyAsStrings = Delta.toJoinedStrings(history);
+        Pair<String, String> historyAsStrings = DeltaHistory.toJoinedStrings(history);
         dest.writeString(historyAsStrings.getFirst());
         dest.writeString(historyAsStrings.getSecond());
         dest.writeLong(lastUpdate);
@@ -0,0 +1,352 @@
+package com.nolanlawson.keepscore.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import com.nolanlawson.keepscore.KeepScoreApplication;
+import com.nolanlawson.keepscore.util.UtilLogger;
+
+/**
+ * Append-only journal of score changes made since the game was last saved, so that a crash or a process kill
+ * between saves doesn't lose any scoring.  One fixed-size record is appended per change, and the journal is
+ * truncated whenever the game is saved successfully.
+ *
+ * Each record holds the state of the changed player after the change (the score, the history size, and the last
+ * history entry) rather than the change itself.  That makes replaying idempotent, so it doesn't matter whether a
+ * journaled change also made it into the database before the crash.
+ *
+ * Records are written straight to the file descriptor without fsync, which is enough to survive the process
+ * dying, and cheap enough to do on every tap.
+ *
+ * @author nolan
+ *
+ */
+public class ScoreJournal {
+
+    private static final UtilLogger log = new UtilLogger(ScoreJournal.class);
+
+    private static final String FILENAME = "score_journal.bin";
+
+    private static final int MAGIC = 0x4b534a31; // "KSJ1"
+
+    // magic, dateStarted
+    private static final int HEADER_SIZE = 4 + 8;
+    // playerNumber, historySize, lastValue, lastTimestamp, score
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    private static ScoreJournal instance;
+
+    private Context context;
+    private File file;
+    private FileOutputStream outputStream;
+    private long dateStarted = -1;
+    private int numRecords;
+    private byte[] buffer = new byte[Math.max(HEADER_SIZE, RECORD_SIZE)];
+
+    private ScoreJournal(Context context) {
+        this.context = context;
+        file = new File(context.getFilesDir(), FILENAME);
+    }
+
+    /**
+     * There's only one journal file, so there must only be one instance writing to it.
+     */
+    public static synchronized ScoreJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new ScoreJournal(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Apply any changes left in the journal from a previous process.  If they belong to the given game, they're
+     * applied to it directly; otherwise they're applied to the matching game in the database, if there is one, in
+     * the background.
+     *
+     * @param game
+     * @return true if the given game was modified
+     */
+    public synchronized boolean recover(Game game) {
+
+        if (outputStream != null || !file.exists() || file.length() <= HEADER_SIZE) {
+            // nothing to recover, or this process is already journaling, in which case the changes were saved
+            // when the previous activity paused
+            return false;
+        }
+
+        try {
+            byte[] data = readFile();
+            if (readInt(data, 0) != MAGIC) {
+                log.w("unrecognized journal, ignoring");
+                return false;
+            }
+            long journaledDateStarted = readLong(data, 4);
+
+            if (journaledDateStarted == game.getDateStarted()) {
+                log.i("replaying journal into current game");
+                return replay(data, game);
+            }
+
+            recoverInBackground(data, journaledDateStarted);
+        } catch (IOException e) {
+            log.e(e, "couldn't read journal");
+        }
+        return false;
+    }
+
+    /**
+     * Replay the journal into the saved game it belongs to, then save it through the {@link GameWriter}, so that the
+     * UI thread never waits on the database.  The journal has already been read, so it's fine for it to be
+     * restarted on another game in the meantime.
+     */
+    private void recoverInBackground(final byte[] data, final long journaledDateStarted) {
+        new AsyncTask<Void, Void, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... params) {
+                Game journaledGame;
+                GameDBHelper dbHelper = null;
+                try {
+                    dbHelper = KeepScoreApplication.acquireDbHelper(context);
+                    journaledGame = dbHelper.findGameByDateStarted(journaledDateStarted);
+                } finally {
+                    if (dbHelper != null) {
+                        KeepScoreApplication.releaseDbHelper(context);
+                    }
+                }
+
+                if (journaledGame == null) {
+                    log.w("game for journal was never saved, ignoring");
+                } else if (replay(data, journaledGame)) {
+                    log.i("replaying journal into saved game %s", journaledGame.getId());
+                    GameWriter.getInstance(context).save(journaledGame, false, null);
+                }
+                return null;
+            }
+        }.execute((Void) null);
+    }
+
+    /**
+     * Start journaling changes to the given game.  Anything already in the journal is kept if it's for the same
+     * game (e.g. because it was just recovered and hasn't been saved yet), and discarded otherwise.
+     *
+     * @param game
+     */
+    public synchronized void start(Game game) {
+        if (outputStream != null && dateStarted == game.getDateStarted()) {
+            return; // already journaling this game
+        }
+        try {
+            byte[] data = file.exists() ? readFile() : null;
+            dateStarted = game.getDateStarted();
+            if (data != null && data.length >= HEADER_SIZE && readInt(data, 0) == MAGIC
+                    && readLong(data, 4) == dateStarted) {
+                // drop any partially-written record at the end
+                rewrite(data, HEADER_SIZE, (data.length - HEADER_SIZE) / RECORD_SIZE);
+            } else {
+                rewrite(null, 0, 0);
+            }
+        } catch (IOException e) {
+            log.e(e, "couldn't start journal");
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Append the current state of the given PlayerScore.  Should be called after every change.
+     *
+     * @param playerScore
+     */
+    public synchronized void append(PlayerScore playerScore) {
+        if (outputStream == null) {
+            return;
+        }
+
+        DeltaHistory history = playerScore.getHistory();
+        int historySize = history.size();
+
+        writeInt(buffer, 0, playerScore.getPlayerNumber());
+        writeInt(buffer, 4, historySize);
+        writeInt(buffer, 8, historySize == 0 ? 0 : history.getLastValue());
+        writeLong(buffer, 12, historySize == 0 ? 0 : history.getLastTimestamp());
+        writeLong(buffer, 20, playerScore.getScore());
+
+        try {
+            outputStream.write(buffer, 0, RECORD_SIZE);
+            numRecords++;
+        } catch (IOException e) {
+            log.e(e, "couldn't append to journal");
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Call before saving a game, and pass the result to {@link #truncate(Game, int)} once the save succeeds.
+     *
+     * @return
+     */
+    public synchronized int mark() {
+        return numRecords;
+    }
+
+    /**
+     * Drop the records that were written before the given mark, since the game has been saved.  Does nothing if
+     * the journal has since moved on to a different game.
+     *
+     * @param game
+     * @param mark
+     */
+    public synchronized void truncate(Game game, int mark) {
+        if (outputStream == null || game.getDateStarted() != dateStarted || mark == 0) {
+            return;
+        }
+
+        try {
+            if (mark == numRecords) {
+                rewrite(null, 0, 0);
+            } else {
+                // some changes came in during the save, so keep those
+                outputStream.flush();
+                byte[] data = readFile();
+                rewrite(data, HEADER_SIZE + mark * RECORD_SIZE, numRecords - mark);
+            }
+        } catch (IOException e) {
+            log.e(e, "couldn't truncate journal");
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Replace the journal with the current header plus <code>count</code> records from the given data.
+     */
+    private void rewrite(byte[] data, int offset, int count) throws IOException {
+        closeQuietly();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream tempOutputStream = new FileOutputStream(tempFile);
+        try {
+            writeInt(buffer, 0, MAGIC);
+            writeLong(buffer, 4, dateStarted);
+            tempOutputStream.write(buffer, 0, HEADER_SIZE);
+            if (count > 0) {
+                tempOutputStream.write(data, offset, count * RECORD_SIZE);
+            }
+        } finally {
+            tempOutputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("couldn't rename " + tempFile);
+        }
+
+        outputStream = new FileOutputStream(file, true);
+        numRecords = count;
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int length = 0;
+            while (length < data.length) {
+                int read = inputStream.read(data, length, data.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return data;
+    }
+
+    private void closeQuietly() {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                log.e(e, "couldn't close journal");
+            }
+            outputStream = null;
+        }
+        numRecords = 0;
+    }
+
+    /**
+     * Apply the journaled player states to the game, in order.
+     *
+     * @return true if anything was applied
+     */
+    private static boolean replay(byte[] data, Game game) {
+        boolean applied = false;
+
+        // a partially-written record at the end is ignored
+        for (int offset = HEADER_SIZE; offset + RECORD_SIZE <= data.length; offset += RECORD_SIZE) {
+            int playerNumber = readInt(data, offset);
+            int historySize = readInt(data, offset + 4);
+            int lastValue = readInt(data, offset + 8);
+            long lastTimestamp = readLong(data, offset + 12);
+            long score = readLong(data, offset + 20);
+
+            PlayerScore playerScore = findByPlayerNumber(game, playerNumber);
+            if (playerScore == null) {
+                log.w("no player %s in journaled game", playerNumber);
+                continue;
+            }
+
+            DeltaHistory history = playerScore.getHistory();
+            if (history.size() < historySize - 1) {
+                log.w("gap in journaled history for player %s", playerNumber);
+                continue;
+            }
+            while (history.size() > historySize) {
+                history.removeLast();
+            }
+            if (history.size() < historySize) {
+                history.add(lastTimestamp, lastValue);
+            } else if (historySize > 0
+                    && (history.getLastValue() != lastValue || history.getLastTimestamp() != lastTimestamp)) {
+                history.setLast(lastTimestamp, lastValue);
+            }
+            playerScore.setScore(score);
+            applied = true;
+        }
+        return applied;
+    }
+
+    private static PlayerScore findByPlayerNumber(Game game, int playerNumber) {
+        for (PlayerScore playerScore : game.getPlayerScores()) {
+            if (playerScore.getPlayerNumber() == playerNumber) {
+                return playerScore;
+            }
+        }
+        return null;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        writeInt(bytes, offset, (int) (value >>> 32));
+        writeInt(bytes, offset + 4, (int) value);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+}
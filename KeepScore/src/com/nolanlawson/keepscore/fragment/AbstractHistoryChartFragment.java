@@ -1,10 +1,10 @@
 package com.nolanlawson.keepscore.fragment;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import android.app.Activity;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
@@ -16,32 +16,28 @@ import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.db.Game;
-import com.nolanlawson.keepscore.db.PlayerScore;
-import com.nolanlawson.keepscore.util.CollectionUtil;
-import com.nolanlawson.keepscore.util.CollectionUtil.Function;
+import com.nolanlawson.keepscore.data.GameHistoryModel;
 import com.nolanlawson.keepscore.widget.chart.LineChartView;
 
 public abstract class AbstractHistoryChartFragment extends SherlockFragment {
     
-    // valid scale values for the history item width when zooming in and out
+    // valid scale values for the history item width when zooming in and out.  The smallest ones are for
+    // fitting long games on screen, where the chart downsamples each line rather than drawing every point
     private static final List<Float> ZOOM_VALUES = Arrays.asList(
-        0.1F, 0.2F, 0.3F, 0.4F, 0.5F, 0.75F, 1.0F, 1.5F, 2.0F, 2.5F, 3.0F);
+        0.01F, 0.02F, 0.05F, 0.1F, 0.2F, 0.3F, 0.4F, 0.5F, 0.75F, 1.0F, 1.5F, 2.0F, 2.5F, 3.0F);
     
     private AtomicInteger currentZoomIdx = new AtomicInteger(ZOOM_VALUES.indexOf(1.0F));
     
     protected abstract LineChartView getChart();
     protected abstract View getContainer();
     
-    protected List<Integer> createLineColors(Game game, final Activity activity) {
+    protected List<Integer> createLineColors(GameHistoryModel historyModel) {
         
-        return CollectionUtil.transform(game.getPlayerScores(), new Function<PlayerScore, Integer>(){
-
-            @Override
-            public Integer apply(PlayerScore obj) {
-                return obj.getPlayerColor().toChartColor(activity);
-            }
-        });
+        List<Integer> result = new ArrayList<Integer>(historyModel.getNumPlayers());
+        for (int player = 0; player < historyModel.getNumPlayers(); player++) {
+            result.add(historyModel.getChartColor(player));
+        }
+        return result;
     }
     
 
@@ -14,7 +14,7 @@ import android.widget.TextView;
 
 import com.actionbarsherlock.app.SherlockFragment;
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.data.HistoryItem;
+import com.nolanlawson.keepscore.data.GameHistoryModel;
 import com.nolanlawson.keepscore.helper.ColorScheme;
 import com.nolanlawson.keepscore.helper.PreferenceHelper;
 import com.nolanlawson.keepscore.util.IntegerUtil;
@@ -52,36 +52,73 @@ public abstract class AbstractHistoryTableFragment extends SherlockFragment {
         return view;
     }
 
-    protected View createHistoryItemView(ViewGroup parent, HistoryItem historyItem, int layoutResId, int rowId,
-            boolean weightIsOne, Activity activity) {
+    /**
+     * Create a view showing the player's delta and score for the given round, or an empty view if the player didn't
+     * play that round.  Round 0 just shows the starting score.
+     */
+    protected View createHistoryItemView(ViewGroup parent, GameHistoryModel historyModel, int player, int round, 
+            int layoutResId, int rowId, boolean weightIsOne, Activity activity) {
 
         View view = getInflater().inflate(layoutResId, parent, false);
+        bindHistoryItemView(view, historyModel, player, round, rowId, activity);
+        return weightIsOne ? setLayoutWeightToOne(view) : view;
+    }
 
-        // alternating colors for the background, from gray to white
-        view.setBackgroundColor(getResources().getColor(
-                rowId % 2 == 0 ? android.R.color.background_light : R.color.light_gray));
+    /**
+     * Create a view with both text views left empty.
+     */
+    protected View createEmptyHistoryItemView(ViewGroup parent, int layoutResId, int rowId, boolean weightIsOne) {
+        View view = getInflater().inflate(layoutResId, parent, false);
+        bindEmptyHistoryItemView(view, rowId);
+        return weightIsOne ? setLayoutWeightToOne(view) : view;
+    }
 
-        TextView textView1 = (TextView) view.findViewById(android.R.id.text1);
-        TextView textView2 = (TextView) view.findViewById(android.R.id.text2);
+    protected View createHistoryItemView(ViewGroup parent, int delta, long runningTotal, boolean hideDelta, 
+            int layoutResId, int rowId, boolean weightIsOne, Activity activity) {
 
-        if (historyItem == null) {
-            // null indicates to leave the text views empty
-            setDummyTextView(textView1);
-            setDummyTextView(textView2);
-            return weightIsOne ? setLayoutWeightToOne(view) : view;
+        View view = getInflater().inflate(layoutResId, parent, false);
+        bindHistoryItemView(view, delta, runningTotal, hideDelta, rowId, activity);
+        return weightIsOne ? setLayoutWeightToOne(view) : view;
+    }
+
+    /**
+     * Fill in a view inflated from one of the history item layouts, which may be a recycled one that was showing
+     * a different round.
+     */
+    protected void bindHistoryItemView(View view, GameHistoryModel historyModel, int player, int round, int rowId,
+            Activity activity) {
+        if (round >= historyModel.getNumRounds(player)) {
+            bindEmptyHistoryItemView(view, rowId);
+        } else {
+            bindHistoryItemView(view, historyModel.getDelta(player, round), 
+                    historyModel.getRunningTotal(player, round), round == 0, rowId, activity);
         }
+    }
+
+    protected void bindEmptyHistoryItemView(View view, int rowId) {
+        setRowBackground(view, rowId);
+
+        setDummyTextView((TextView) view.findViewById(android.R.id.text1));
+        setDummyTextView((TextView) view.findViewById(android.R.id.text2));
+    }
+
+    protected void bindHistoryItemView(View view, int delta, long runningTotal, boolean hideDelta, int rowId,
+            Activity activity) {
+
+        setRowBackground(view, rowId);
+
+        TextView textView1 = (TextView) view.findViewById(android.R.id.text1);
+        TextView textView2 = (TextView) view.findViewById(android.R.id.text2);
 
         textView2.setVisibility(View.VISIBLE);
 
-        if (historyItem.isHideDelta()) {
+        if (hideDelta) {
             setDummyTextView(textView1);
             textView1.setVisibility(View.GONE); // set as gone to ensure that
             // the first line isn't too tall
             // when we use
             // history_item_tall.xml
         } else {
-            int delta = historyItem.getDelta();
-
             SpannableString deltaSpannable = new SpannableString(IntegerUtil.toCharSequenceWithSign(delta));
 
             int colorResId = delta >= 0 
@@ -96,9 +133,13 @@ public abstract class AbstractHistoryTableFragment extends SherlockFragment {
             textView1.setText(deltaSpannable);
         }
 
-        textView2.setText(Long.toString(historyItem.getRunningTotal()));
+        textView2.setText(Long.toString(runningTotal));
+    }
 
-        return weightIsOne ? setLayoutWeightToOne(view) : view;
+    protected void setRowBackground(View view, int rowId) {
+        // alternating colors for the background, from gray to white
+        view.setBackgroundColor(getResources().getColor(
+                rowId % 2 == 0 ? android.R.color.background_light : R.color.light_gray));
     }
 
     /**
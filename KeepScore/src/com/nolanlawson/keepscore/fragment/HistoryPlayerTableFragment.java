@@ -1,9 +1,5 @@
 package com.nolanlawson.keepscore.fragment;
 
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -12,15 +8,12 @@ import android.view.ViewGroup;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 
-import com.nolanlawson.keepscore.GameActivity;
+import com.nolanlawson.keepscore.HistoryActivity;
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.data.HistoryItem;
-import com.nolanlawson.keepscore.db.Game;
-import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.data.GameHistoryModel;
+import com.nolanlawson.keepscore.util.Callback;
 
 public class HistoryPlayerTableFragment extends AbstractHistoryTableFragment {
-    private Game game;
-    
     private TableLayout byPlayerTableLayout;
     
     private LayoutInflater inflater;
@@ -41,41 +34,47 @@ public class HistoryPlayerTableFragment extends AbstractHistoryTableFragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         
-        game = getArguments().getParcelable(GameActivity.EXTRA_GAME);
-        createByPlayerTableLayout(getActivity());
+        ((HistoryActivity) getActivity()).getHistoryModel(new Callback<GameHistoryModel>() {
+
+            @Override
+            public void onCallback(GameHistoryModel historyModel) {
+                if (getView() != null) { // not yet destroyed
+                    createByPlayerTableLayout(historyModel, getActivity());
+                }
+            }
+        });
     }
 
-    private void createByPlayerTableLayout(Activity activity) {
+    private void createByPlayerTableLayout(GameHistoryModel historyModel, Activity activity) {
 
         // 'by player' table is a simple 2-column table with a vertical divider
         int counter = 0;
-        List<PlayerScore> playerScores = game.getPlayerScores();
-        for (int i = 0; i < playerScores.size(); i += 2) {
-            PlayerScore leftPlayer = playerScores.get(i);
-            PlayerScore rightPlayer = i + 1 < playerScores.size() ? playerScores.get(i + 1) : null;
+        int numPlayers = historyModel.getNumPlayers();
+        for (int left = 0; left < numPlayers; left += 2) {
+            int right = left + 1;
+            boolean hasRight = right < numPlayers;
 
             // create the header
             TableRow headerRow = new TableRow(activity);
-            headerRow.addView(createListHeader(headerRow, leftPlayer.toDisplayName(activity), true, false));
+            headerRow.addView(createListHeader(headerRow, historyModel.getPlayerName(left), true, false));
             headerRow.addView(createDividerView(headerRow));
-            headerRow.addView(createListHeader(headerRow, rightPlayer == null ? " " : rightPlayer.toDisplayName(activity),
+            headerRow.addView(createListHeader(headerRow, hasRight ? historyModel.getPlayerName(right) : " ",
                     true, false));
 
             byPlayerTableLayout.addView(headerRow);
 
             // create the body
-            Iterator<HistoryItem> leftHistoryItems = HistoryItem.createFromPlayerScore(leftPlayer, activity).iterator();
-            Iterator<HistoryItem> rightHistoryItems = rightPlayer == null ? Collections.<HistoryItem> emptyList()
-                    .iterator() : HistoryItem.createFromPlayerScore(rightPlayer, activity).iterator();
-
-            while (leftHistoryItems.hasNext() || rightHistoryItems.hasNext()) {
-                HistoryItem leftItem = leftHistoryItems.hasNext() ? leftHistoryItems.next() : null;
-                HistoryItem rightItem = rightHistoryItems.hasNext() ? rightHistoryItems.next() : null;
-
+            int numRounds = Math.max(historyModel.getNumRounds(left), 
+                    hasRight ? historyModel.getNumRounds(right) : 0);
+            for (int round = 0; round < numRounds; round++) {
                 TableRow tableRow = new TableRow(activity);
-                tableRow.addView(createHistoryItemView(tableRow, leftItem, R.layout.history_item_wide, counter, true, activity));
+                tableRow.addView(createHistoryItemView(tableRow, historyModel, left, round, 
+                        R.layout.history_item_wide, counter, true, activity));
                 tableRow.addView(createDividerView(tableRow));
-                tableRow.addView(createHistoryItemView(tableRow, rightItem, R.layout.history_item_wide, counter, true, activity));
+                tableRow.addView(hasRight
+                        ? createHistoryItemView(tableRow, historyModel, right, round, R.layout.history_item_wide, 
+                                counter, true, activity)
+                        : createEmptyHistoryItemView(tableRow, R.layout.history_item_wide, counter, true));
                 byPlayerTableLayout.addView(tableRow);
                 counter++;
             }
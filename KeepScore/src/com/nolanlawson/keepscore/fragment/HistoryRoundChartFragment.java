@@ -3,23 +3,19 @@ package com.nolanlawson.keepscore.fragment;
 import java.util.ArrayList;
 import java.util.List;
 
-import android.app.Activity;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.nolanlawson.keepscore.GameActivity;
+import com.nolanlawson.keepscore.HistoryActivity;
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.db.Delta;
-import com.nolanlawson.keepscore.db.Game;
-import com.nolanlawson.keepscore.db.PlayerScore;
-import com.nolanlawson.keepscore.util.CollectionUtil;
+import com.nolanlawson.keepscore.data.GameHistoryModel;
+import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.widget.chart.LineChartLine;
 import com.nolanlawson.keepscore.widget.chart.LineChartView;
 
 public class HistoryRoundChartFragment extends AbstractHistoryChartFragment {
-    private Game game;
     private LineChartView byRoundLineChartView;
     private View container;
     
@@ -39,35 +35,37 @@ public class HistoryRoundChartFragment extends AbstractHistoryChartFragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         
-        game = getArguments().getParcelable(GameActivity.EXTRA_GAME);
-        createByChartLayout(getActivity());
+        ((HistoryActivity) getActivity()).getHistoryModel(new Callback<GameHistoryModel>() {
+
+            @Override
+            public void onCallback(GameHistoryModel historyModel) {
+                if (getView() != null) { // not yet destroyed
+                    createByChartLayout(historyModel);
+                }
+            }
+        });
     }
     
-    private void createByChartLayout(Activity activity) {
+    private void createByChartLayout(GameHistoryModel historyModel) {
 
         List<LineChartLine> data = new ArrayList<LineChartLine>();
 
-        for (PlayerScore playerScore : game.getPlayerScores()) {
-            List<Integer> dataPoints = new ArrayList<Integer>();
-
-            // have to include the starting score as well
-            long runningTally = playerScore.getScore() - CollectionUtil.sum(CollectionUtil.transform(
-                    playerScore.getHistory(), Delta.GET_VALUE));
-            dataPoints.add((int) runningTally);
-
-            for (Delta delta : playerScore.getHistory()) {
-                runningTally += delta.getValue();
-                dataPoints.add((int) runningTally);
+        for (int player = 0; player < historyModel.getNumPlayers(); player++) {
+            // includes the starting score as well
+            long[] runningTotals = historyModel.getRunningTotals(player);
+            List<Integer> dataPoints = new ArrayList<Integer>(runningTotals.length);
+            for (long runningTotal : runningTotals) {
+                dataPoints.add((int) runningTotal);
             }
 
             LineChartLine line = new LineChartLine();
             line.setDataPoints(dataPoints);
-            line.setLabel(playerScore.toDisplayName(activity).toString());
+            line.setLabel(historyModel.getPlayerName(player));
 
             data.add(line);
         }
 
-        byRoundLineChartView.setLineColors(createLineColors(game, activity));
+        byRoundLineChartView.setLineColors(createLineColors(historyModel));
         byRoundLineChartView.loadData(data);
     }
     
@@ -1,62 +1,69 @@
 package com.nolanlawson.keepscore.fragment;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
 import android.app.Activity;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TableLayout;
-import android.widget.TableRow;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
-import com.nolanlawson.keepscore.GameActivity;
+import com.nolanlawson.keepscore.HistoryActivity;
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.data.HistoryItem;
-import com.nolanlawson.keepscore.db.Game;
-import com.nolanlawson.keepscore.db.PlayerScore;
-
+import com.nolanlawson.keepscore.data.GameHistoryModel;
+import com.nolanlawson.keepscore.util.Callback;
+
+/**
+ * Table of every player's score round by round.  The rounds are shown in a ListView so that only the rows on screen
+ * are ever inflated, however long the game was, while the row of player names stays put above them.
+ *
+ * @author nolan
+ *
+ */
 public class HistoryRoundTableFragment extends AbstractHistoryTableFragment {
-    private Game game;
-
     private LayoutInflater inflater;
-    
-    private TableLayout byRoundTableLayout;
-    
+
+    private LinearLayout headerLayout;
+    private ListView byRoundListView;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
         this.inflater = inflater;
-        
-        game = getArguments().getParcelable(GameActivity.EXTRA_GAME);
+
         View rootView = inflater.inflate(R.layout.fragment_round_table, container, false);
-        
-        byRoundTableLayout = (TableLayout) rootView.findViewById(R.id.by_round_table);
-        
+
+        headerLayout = (LinearLayout) rootView.findViewById(R.id.by_round_header);
+        byRoundListView = (ListView) rootView.findViewById(R.id.by_round_list);
+
         return rootView;
     }
-    
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        createByRoundTableLayout(getActivity());
+
+        ((HistoryActivity) getActivity()).getHistoryModel(new Callback<GameHistoryModel>() {
+
+            @Override
+            public void onCallback(GameHistoryModel historyModel) {
+                if (getView() != null) { // not yet destroyed
+                    createByRoundTable(historyModel, getActivity());
+                }
+            }
+        });
     }
-    
 
-    private void createByRoundTableLayout(Activity activity) {
 
-        // make all the columns that contain history information stretchable and
-        // shrinkable,
-        // i.e. not the "divider" or "row header" columns
-        for (int i = 0; i < game.getPlayerScores().size(); i++) {
-            byRoundTableLayout.setColumnShrinkable((i * 2) + 2, true);
-            byRoundTableLayout.setColumnStretchable((i * 2) + 2, true);
-        }
+    private void createByRoundTable(GameHistoryModel historyModel, Activity activity) {
 
-        // the 'by round' adapter simply needs each player name as a first
+        int numPlayers = historyModel.getNumPlayers();
+
+        // the 'by round' table simply needs each player name as a first
         // header row, and then after that you just go round-by-round
         // summing up the values and displaying the diff, e.g.:
         // p1, p2, p3, p4
@@ -65,131 +72,202 @@ public class HistoryRoundTableFragment extends AbstractHistoryTableFragment {
         // 5, 3, 2, 10
         // etc.
 
-        List<PlayerScore> playerScores = game.getPlayerScores();
-        int historyItemLayoutId = playerScores.size() <= MAX_COLUMNS_FOR_WIDE_LIST_LAYOUT ? R.layout.history_item_wide
-                : playerScores.size() <= MAX_COLUMNS_FOR_REGULAR_TALL_LIST_LAYOUT ? R.layout.history_item_tall
+        int historyItemLayoutId = numPlayers <= MAX_COLUMNS_FOR_WIDE_LIST_LAYOUT ? R.layout.history_item_wide
+                : numPlayers <= MAX_COLUMNS_FOR_REGULAR_TALL_LIST_LAYOUT ? R.layout.history_item_tall
                         : R.layout.history_item_extra_tall;
 
-        // create the first row
-        TableRow headerRow = new TableRow(activity);
-        headerRow.addView(createListHeader(headerRow, " ", false, false));
-
-        // add in all the section headers first, so they can be laid out across
-        // as the first row
-
-        for (PlayerScore playerScore : playerScores) {
-            headerRow.addView(createDividerView(headerRow));
-            headerRow.addView(createListHeader(headerRow, playerScore.toDisplayName(activity), true, false));
+        // the header and the rows are laid out separately, so the round number and sum columns need fixed widths
+        // to keep them lined up.  The player columns just split whatever's left between them.
+        View rowHeaderColumnHeader = createListHeader(headerLayout, " ", false, false);
+        View sumColumnHeader = createListHeader(headerLayout, getString(R.string.CONSTANT_text_epsilon), false, true);
+
+        int rowHeaderWidth = Math.max(
+                measureWidth(rowHeaderColumnHeader, (TextView) rowHeaderColumnHeader, " "),
+                measureRowHeaderWidth(Integer.toString(historyModel.getNumRounds() - 1)));
+        int sumWidth = Math.max(
+                measureWidth(sumColumnHeader, (TextView) sumColumnHeader,
+                        getString(R.string.CONSTANT_text_epsilon)),
+                measureSumWidth(findWidestSum(historyModel), historyItemLayoutId));
+
+        // create the header row
+        rowHeaderColumnHeader.setLayoutParams(new LinearLayout.LayoutParams(rowHeaderWidth, LayoutParams.MATCH_PARENT));
+        headerLayout.addView(rowHeaderColumnHeader);
+
+        for (int player = 0; player < numPlayers; player++) {
+            headerLayout.addView(createDividerView(headerLayout));
+            headerLayout.addView(createListHeader(headerLayout, historyModel.getPlayerName(player), true, false));
         }
 
         // add a column to the right with an epsilon sign (for the round total
         // sum)
-        headerRow.addView(createDividerView(headerRow));
-        headerRow.addView(createListHeader(headerRow, getString(R.string.CONSTANT_text_epsilon), false, true));
-
-        byRoundTableLayout.addView(headerRow);
-
-        List<HistoryItem> collatedHistoryItems = getCollatedHistoryItems(activity);
-
-        for (int i = 0; i < collatedHistoryItems.size(); i += playerScores.size()) {
+        headerLayout.addView(createDividerView(headerLayout));
+        sumColumnHeader.setLayoutParams(new LinearLayout.LayoutParams(sumWidth, LayoutParams.MATCH_PARENT));
+        headerLayout.addView(sumColumnHeader);
 
-            int rowId = (i / playerScores.size());
-
-            TableRow tableRow = new TableRow(activity);
+        byRoundListView.setAdapter(new RoundAdapter(historyModel, historyItemLayoutId, rowHeaderWidth, sumWidth,
+                activity));
+    }
 
-            // add a column for the round number
-            String roundName = (i == 0) ? "" : Integer.toString(rowId); // first
-            // row is  just
-            // the starting score
-            tableRow.addView(createRowHeader(tableRow, roundName));
-
-            // add in all the history items from this round
-            int sum = 0;
-            for (int j = i; j < i + playerScores.size(); j++) {
-                HistoryItem historyItem = collatedHistoryItems.get(j);
-                View historyItemAsView = createHistoryItemView(tableRow, historyItem, historyItemLayoutId, rowId, 
-                        true, activity);
-                tableRow.addView(createDividerView(tableRow));
-                tableRow.addView(historyItemAsView);
-
-                sum += historyItem == null ? 0 : historyItem.getDelta();
+    private String findWidestSum(GameHistoryModel historyModel) {
+        // the history items are monospace, so the longest is the widest
+        String widestSum = "";
+        for (int round = 0; round < historyModel.getNumRounds(); round++) {
+            String sum = Long.toString(historyModel.getRoundSum(round));
+            if (sum.length() > widestSum.length()) {
+                widestSum = sum;
             }
+        }
+        return widestSum;
+    }
 
-            // add in the round total (sum)
-            tableRow.addView(createDividerView(tableRow));
-            if (i == 0) { // first row is just the starting score
-                HistoryItem bogusHistoryItem = new HistoryItem(0, sum, true);
-                tableRow.addView(createHistoryItemView(tableRow, bogusHistoryItem, historyItemLayoutId, rowId, 
-                        false, activity));
-            } else {
-                tableRow.addView(createSumView(tableRow, historyItemLayoutId, rowId, sum));
-            }
+    private int measureRowHeaderWidth(String text) {
+        View view = createRowHeader(headerLayout, text);
+        return measureWidth(view, (TextView) view.findViewById(android.R.id.text1), text);
+    }
 
-            byRoundTableLayout.addView(tableRow);
-        }
+    private int measureSumWidth(String text, int historyItemLayoutId) {
+        // the sum is shown in the first text view, except for the starting score which is in the second
+        View view = inflater.inflate(historyItemLayoutId, headerLayout, false);
+        return Math.max(
+                measureWidth(view, (TextView) view.findViewById(android.R.id.text1), text),
+                measureWidth(view, (TextView) view.findViewById(android.R.id.text2), text));
     }
-    
-    private View createSumView(ViewGroup parent, int historyItemLayoutId, int rowId, int sum) {
-        // create a view that looks like a regular history item view, but is
-        // actually just
-        // the sum.
 
-        // create a bogus history item
-        View view = inflater.inflate(historyItemLayoutId, parent, false);
+    private static int measureWidth(View view, TextView textView, String text) {
+        int width = (int) Math.ceil(textView.getPaint().measureText(text))
+                + textView.getPaddingLeft() + textView.getPaddingRight();
+        if (view != textView) {
+            width += view.getPaddingLeft() + view.getPaddingRight();
+        }
+        return width;
+    }
 
-        // alternating colors for the background, from gray to white
-        view.setBackgroundColor(getResources().getColor(
-                rowId % 2 == 0 ? android.R.color.background_light : R.color.light_gray));
+    private void bindSumView(View view, int rowId, long sum) {
+        // a view that looks like a regular history item view, but is
+        // actually just the sum.
+        setRowBackground(view, rowId);
 
         TextView textView1 = (TextView) view.findViewById(android.R.id.text1);
         TextView textView2 = (TextView) view.findViewById(android.R.id.text2);
 
+        textView1.setVisibility(View.VISIBLE);
         textView1.setTextColor(getResources().getColor(android.R.color.primary_text_light_nodisable));
-        textView1.setText(Integer.toString(sum));
+        textView1.setText(Long.toString(sum));
 
         setDummyTextView(textView2);
+    }
 
-        return view;
+    @Override
+    protected LayoutInflater getInflater() {
+        return inflater;
     }
-    
-    private List<HistoryItem> getCollatedHistoryItems(Activity activity) {
-
-        // get all the iterators for the history items
-        List<Iterator<HistoryItem>> playerHistoryItems = new ArrayList<Iterator<HistoryItem>>();
-        for (PlayerScore playerScore : game.getPlayerScores()) {
-            List<HistoryItem> historyItems = HistoryItem.createFromPlayerScore(playerScore, activity);
-            playerHistoryItems.add(historyItems.iterator());
+
+    private class RoundAdapter extends BaseAdapter {
+
+        private GameHistoryModel historyModel;
+        private int historyItemLayoutId;
+        private int rowHeaderWidth;
+        private int sumWidth;
+        private Activity activity;
+
+        public RoundAdapter(GameHistoryModel historyModel, int historyItemLayoutId, int rowHeaderWidth,
+                int sumWidth, Activity activity) {
+            this.historyModel = historyModel;
+            this.historyItemLayoutId = historyItemLayoutId;
+            this.rowHeaderWidth = rowHeaderWidth;
+            this.sumWidth = sumWidth;
+            this.activity = activity;
         }
 
-        List<HistoryItem> collatedItems = new ArrayList<HistoryItem>();
+        @Override
+        public int getCount() {
+            return historyModel.getNumRounds();
+        }
 
-        // collate
-        while (!allIteratorsAreEmpty(playerHistoryItems)) {
-            for (Iterator<HistoryItem> iterator : playerHistoryItems) {
-                if (iterator.hasNext()) {
-                    collatedItems.add(iterator.next());
-                } else {
-                    // add an empty item
-                    collatedItems.add(null);
-                }
+        @Override
+        public Object getItem(int position) {
+            return position;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int round, View view, ViewGroup parent) {
+
+            ViewWrapper viewWrapper;
+            if (view == null) {
+                viewWrapper = createRow();
+                view = viewWrapper.row;
+                view.setTag(viewWrapper);
+            } else {
+                viewWrapper = (ViewWrapper) view.getTag();
             }
+
+            // first row is just the starting score
+            viewWrapper.rowHeaderTextView.setText(round == 0 ? "" : Integer.toString(round));
+
+            for (int player = 0; player < viewWrapper.historyItemViews.length; player++) {
+                bindHistoryItemView(viewWrapper.historyItemViews[player], historyModel, player, round, round,
+                        activity);
+            }
+
+            long sum = historyModel.getRoundSum(round);
+            if (round == 0) {
+                bindHistoryItemView(viewWrapper.sumView, 0, sum, true, round, activity);
+            } else {
+                bindSumView(viewWrapper.sumView, round, sum);
+            }
+
+            return view;
         }
-        return collatedItems;
-    }
-    
 
+        private ViewWrapper createRow() {
+            LinearLayout row = new LinearLayout(activity);
+            row.setOrientation(LinearLayout.HORIZONTAL);
+            row.setLayoutParams(new AbsListView.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
 
-    private boolean allIteratorsAreEmpty(List<Iterator<HistoryItem>> iterators) {
-        for (Iterator<HistoryItem> iterator : iterators) {
-            if (iterator.hasNext()) {
-                return false;
+            // add a column for the round number
+            View rowHeader = createRowHeader(row, "");
+            rowHeader.setLayoutParams(new LinearLayout.LayoutParams(rowHeaderWidth, LayoutParams.MATCH_PARENT));
+            row.addView(rowHeader);
+
+            // add in a column for each player
+            View[] historyItemViews = new View[historyModel.getNumPlayers()];
+            for (int player = 0; player < historyItemViews.length; player++) {
+                historyItemViews[player] = setLayoutWeightToOne(inflater.inflate(historyItemLayoutId, row, false));
+                row.addView(createDividerView(row));
+                row.addView(historyItemViews[player]);
             }
+
+            // add in the round total (sum)
+            View sumView = inflater.inflate(historyItemLayoutId, row, false);
+            sumView.setLayoutParams(new LinearLayout.LayoutParams(sumWidth, LayoutParams.MATCH_PARENT));
+            row.addView(createDividerView(row));
+            row.addView(sumView);
+
+            return new ViewWrapper(row, (TextView) rowHeader.findViewById(android.R.id.text1), historyItemViews,
+                    sumView);
         }
-        return true;
     }
-    
-    @Override
-    protected LayoutInflater getInflater() {
-        return inflater;
+
+    /**
+     * Holds on to the views in a recycled row, so they don't have to be looked up again.
+     */
+    private static class ViewWrapper {
+
+        private View row;
+        private TextView rowHeaderTextView;
+        private View[] historyItemViews;
+        private View sumView;
+
+        public ViewWrapper(View row, TextView rowHeaderTextView, View[] historyItemViews, View sumView) {
+            this.row = row;
+            this.rowHeaderTextView = rowHeaderTextView;
+            this.historyItemViews = historyItemViews;
+            this.sumView = sumView;
+        }
     }
 }
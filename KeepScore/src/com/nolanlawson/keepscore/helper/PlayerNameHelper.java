@@ -6,6 +6,7 @@ import java.util.List;
 
 import android.content.Context;
 
+import com.nolanlawson.keepscore.KeepScoreApplication;
 import com.nolanlawson.keepscore.db.GameDBHelper;
 import com.nolanlawson.keepscore.util.StringUtil;
 
@@ -16,7 +17,7 @@ public class PlayerNameHelper {
 		// names from the database
 		GameDBHelper dbHelper = null;
 		try {
-			dbHelper = new GameDBHelper(context);
+			dbHelper = KeepScoreApplication.acquireDbHelper(context);
 			List<String> suggestions = dbHelper.findDistinctPlayerNames();
 			
 			List<String> filteredSuggestions = new ArrayList<String>();
@@ -35,7 +36,7 @@ public class PlayerNameHelper {
 			return filteredSuggestions;
 		} finally {
 			if (dbHelper != null) {
-				dbHelper.close();
+				KeepScoreApplication.releaseDbHelper(context);
 			}
 		}
 	}
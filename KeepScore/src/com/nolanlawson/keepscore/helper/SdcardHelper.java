@@ -1,50 +1,43 @@
 package com.nolanlawson.keepscore.helper;
 
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Environment;
-import android.text.TextUtils;
 
 import com.nolanlawson.keepscore.R;
-import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.GameScores;
 import com.nolanlawson.keepscore.db.PlayerScore;
-import com.nolanlawson.keepscore.util.CSVUtil;
-import com.nolanlawson.keepscore.util.CollectionUtil;
-import com.nolanlawson.keepscore.util.CollectionUtil.Function;
-import com.nolanlawson.keepscore.util.Functions;
+import com.nolanlawson.keepscore.util.CSVWriter;
+import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.util.UtilLogger;
 
 public class SdcardHelper {
@@ -63,11 +56,39 @@ public class SdcardHelper {
      * Gzip is used to save space.
      * 
      * XML is used because Gmail doesn't let you open zipped files from within the app.
+     * 
+     * Binary is smaller and much faster to read and write than either, so it's used for the backups that stay on
+     * the device.
      * @author nolan
      *
      */
     public static enum Format {
-        XML, GZIP;
+        XML(".xml"), 
+        GZIP(".xml.gz"),
+        BINARY(".ksb")
+        ;
+        
+        private String extension;
+        
+        private Format(String extension) {
+            this.extension = extension;
+        }
+        
+        public String getExtension() {
+            return extension;
+        }
+        
+        /**
+         * Guess the format from the filename, defaulting to XML.
+         */
+        public static Format forFilename(String filename) {
+            for (Format format : values()) {
+                if (filename.endsWith(format.extension)) {
+                    return format;
+                }
+            }
+            return XML;
+        }
     }
     
     /**
@@ -119,145 +140,182 @@ public class SdcardHelper {
         return file.exists();
     }
 
+    /**
+     * List the files in the location, leaving out hidden files (e.g. the backup catalog).
+     */
     public static List<String> list(Location location) {
         File file = getDirectory(location);
         if (file != null) {
             String[] filesAsArray = file.list();
             if (filesAsArray != null) {
-                return Arrays.asList(filesAsArray);
+                List<String> result = new ArrayList<String>(filesAsArray.length);
+                for (String filename : filesAsArray) {
+                    if (!filename.startsWith(".")) {
+                        result.add(filename);
+                    }
+                }
+                return result;
             }
         }
         return Collections.<String>emptyList();
     }
 
-    public static String open(Uri uri, Format format, ContentResolver contentResolver) {
-        StringBuilder stringBuilder = new StringBuilder();
-        BufferedReader bufferedReader = null;
-
+    /**
+     * Return the size of the file in bytes, or -1 if it can't be determined (e.g. for some content URIs).
+     * 
+     * @param uri
+     * @param contentResolver
+     * @return
+     */
+    public static long getLength(Uri uri, ContentResolver contentResolver) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return new File(uri.getPath()).length();
+        }
+        AssetFileDescriptor fileDescriptor = null;
         try {
-            InputStream fileInputStream = contentResolver.openInputStream(uri);
-            if (format == Format.GZIP) { // new, gzipped format
-                fileInputStream = new GZIPInputStream(fileInputStream);
-            }
-            InputStreamReader inputStreamReader = new InputStreamReader(fileInputStream, "UTF-8");
-            bufferedReader = new BufferedReader(inputStreamReader, BUFFER);
-
-            while (bufferedReader.ready()) {
-                stringBuilder.append(bufferedReader.readLine());
-            }
-        } catch (IOException ex) {
-            log.e(ex, "couldn't read file");
+            fileDescriptor = contentResolver.openAssetFileDescriptor(uri, "r");
+            return fileDescriptor.getLength(); // may be UNKNOWN_LENGTH, i.e. -1
+        } catch (FileNotFoundException ex) {
+            log.e(ex, "couldn't open file");
+            return -1;
         } finally {
-            if (bufferedReader != null) {
+            if (fileDescriptor != null) {
                 try {
-                    bufferedReader.close();
+                    fileDescriptor.close();
                 } catch (IOException e) {
-                    log.e(e, "couldn't close buffered reader");
+                    log.e(e, "couldn't close file descriptor");
                 }
             }
         }
-        return stringBuilder.toString();
     }
 
     /**
      * Write  CSV file with games on the X axis and players (and basic game data) on the Y axis.
      * 
+     * The games are streamed from the database to the file a batch at a time, so the memory used doesn't
+     * depend on how many games there are.
+     * 
      * @param filename
-     * @param games
-     * @return
+     * @param gameIds
+     * @param dbHelper
+     * @param context
+     * @param onProgress
+     *            called after each game, or null
      */
-    public static void saveSpreadsheet(String filename, List<Game> games, final Context context) {
+    public static void saveSpreadsheet(String filename, List<Integer> gameIds, GameDBHelper dbHelper, 
+            final Context context, final Runnable onProgress) {
 
         // get all the unique player names so we can put them on the X axis
         SortedSet<String> playerNames = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
         
         // special value for players whose names weren't specified
-        for (Game game : games) {
-            for (PlayerScore playerScore : game.getPlayerScores()) {
-                playerNames.add(playerScore.toDisplayName(context).toString());
-            }
+        for (PlayerScore player : dbHelper.findDistinctPlayers(gameIds)) {
+            playerNames.add(player.toDisplayName(context).toString());
         }
         
-        // sort by start date descending
-        List<Game> sortedGames = new ArrayList<Game>(games);
-        Collections.sort(sortedGames, new Comparator<Game>() {
-
-            @Override
-            public int compare(Game lhs, Game rhs) {
-                return Long.valueOf(rhs.getDateStarted()).compareTo(lhs.getDateStarted());
-            }
-        });
+        // look up each player's column by name
+        final Map<String, Integer> playerColumns = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+        for (String playerName : playerNames) {
+            playerColumns.put(playerName, playerColumns.size());
+        }
         
         File file = new File(getDirectory(Location.Spreadsheets), filename);
         
-        BufferedWriter writer = null;
+        CSVWriter csvWriter = null;
         try {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), 
-                    "UTF-8"));
+            csvWriter = new CSVWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), 
+                    "UTF-8"), BUFFER));
+            final CSVWriter writer = csvWriter;
             
             // write the column names
-            List<String> columnNames = new ArrayList<String>(Arrays.asList(context.getResources().getStringArray(
-                    R.array.share_spreadsheet_column_names)));
-
-            columnNames.addAll(playerNames);
-            writer.write(CSVUtil.convertToLine(columnNames));
+            for (String columnName : context.getResources().getStringArray(R.array.share_spreadsheet_column_names)) {
+                writer.write(columnName);
+            }
+            for (String playerName : playerNames) {
+                writer.write(playerName);
+            }
+            writer.endLine();
             
-            // write each game as a line in the CSV
-            for (Game game : sortedGames) {
-                List<String> entries = new ArrayList<String>();
-                
-                // date started
-                entries.add(CSV_DATE_FORMAT.format(new Date(game.getDateStarted())));
-                // date saved
-                entries.add(CSV_DATE_FORMAT.format(new Date(game.getDateSaved())));
-                // play time, using duration format HH:MM:SS
-                long duration = (game.getDateSaved() - game.getDateStarted()) / 1000;
-                entries.add(String.format("%02d:%02d:%02d", duration / 3600, (duration % 3600) / 60, duration % 60));
-                // num players
-                entries.add(Integer.toString(game.getPlayerScores().size()));
-                // num rounds
-                entries.add(Integer.toString(
-                        CollectionUtil.max(game.getPlayerScores(), Functions.PLAYER_SCORE_TO_HISTORY_SIZE)));
-                // game name
-                entries.add(game.getName());
-                
-                Function<PlayerScore,String> playerScoreToName = new Function<PlayerScore, String>(){
+            // reused for every game
+            final Date date = new Date();
+            final StringBuffer buffer = new StringBuffer();
+            final FieldPosition fieldPosition = new FieldPosition(0);
+            final long[] scores = new long[playerNames.size()];
+            final boolean[] hasScores = new boolean[playerNames.size()];
+            
+            // write each game as a line in the CSV, sorted by start date descending
+            dbHelper.findGameScores(gameIds, new Callback<GameScores>() {
 
-                    @Override
-                    public String apply(PlayerScore obj) {
-                        return obj.toDisplayName(context).toString();
+                @Override
+                public void onCallback(GameScores game) {
+                    try {
+                        // date started
+                        date.setTime(game.getDateStarted());
+                        buffer.setLength(0);
+                        writer.write(CSV_DATE_FORMAT.format(date, buffer, fieldPosition));
+                        // date saved
+                        date.setTime(game.getDateSaved());
+                        buffer.setLength(0);
+                        writer.write(CSV_DATE_FORMAT.format(date, buffer, fieldPosition));
+                        // play time, using duration format HH:MM:SS
+                        long duration = (game.getDateSaved() - game.getDateStarted()) / 1000;
+                        buffer.setLength(0);
+                        appendTwoDigits(buffer, duration / 3600).append(':');
+                        appendTwoDigits(buffer, (duration % 3600) / 60).append(':');
+                        appendTwoDigits(buffer, duration % 60);
+                        writer.write(buffer);
+                        // num players
+                        writer.write(game.getNumPlayers());
+                        // num rounds
+                        writer.write(game.getNumRounds());
+                        // game name
+                        writer.write(game.getName());
+                        
+                        long maxScore = Long.MIN_VALUE;
+                        long minScore = Long.MAX_VALUE;
+                        for (int i = 0; i < game.getNumPlayers(); i++) {
+                            maxScore = Math.max(maxScore, game.getScore(i));
+                            minScore = Math.min(minScore, game.getScore(i));
+                        }
+                        // player(s) with max
+                        writer.write(joinPlayersWithScore(game, maxScore, buffer, context));
+                        // player(s) with min
+                        writer.write(joinPlayersWithScore(game, minScore, buffer, context));
+                        
+                        // rest of columns are just all the player names, so add blank for irrelevant players
+                        // or the score for the actual players
+                        Arrays.fill(hasScores, false);
+                        for (int i = 0; i < game.getNumPlayers(); i++) {
+                            Integer column = playerColumns.get(PlayerScore.toDisplayName(
+                                    game.getPlayerName(i), game.getPlayerNumber(i), context).toString());
+                            scores[column] = game.getScore(i);
+                            hasScores[column] = true;
+                        }
+                        for (int column = 0; column < scores.length; column++) {
+                            if (hasScores[column]) {
+                                writer.write(scores[column]);
+                            } else {
+                                writer.write(null);
+                            }
+                        }
+                        writer.endLine();
+                    } catch (IOException e) {
+                        log.e(e, "unexpected error");
+                        throw new RuntimeException(e);
+                    }
+                    
+                    if (onProgress != null) {
+                        onProgress.run();
                     }
-                };
-                
-                // player(s) with max
-                entries.add(TextUtils.join(", ", CollectionUtil.transform(
-                        CollectionUtil.maxWithTies(game.getPlayerScores(), Functions.PLAYER_SCORE_TO_SCORE),
-                        playerScoreToName)));
-                // player(s) with min
-                entries.add(TextUtils.join(", ", CollectionUtil.transform(
-                        CollectionUtil.minWithTies(game.getPlayerScores(), Functions.PLAYER_SCORE_TO_SCORE),
-                        playerScoreToName)));
-                
-                // rest of columns are just all the player names, so add blank for irrelevant players
-                // or the score for the actual players
-                Map<String, Long> playerScoreLookup = new HashMap<String, Long>();
-                for (PlayerScore playerScore : game.getPlayerScores()) {
-                    playerScoreLookup.put(playerScore.toDisplayName(context).toString(), playerScore.getScore());
-                }
-
-                for (String playerName : playerNames) {
-                    Long score = playerScoreLookup.get(playerName);
-                    entries.add(score != null ? Long.toString(score) : null);
                 }
-                writer.write(CSVUtil.convertToLine(entries));
-            }
+            });
         } catch (IOException e) {
             log.e(e, "unexpected error");
             throw new RuntimeException(e);
         } finally {
-            if (writer != null) {
+            if (csvWriter != null) {
                 try {
-                    writer.close();
+                    csvWriter.close();
                 } catch (IOException e) {
                     log.e(e, "unexpected error");
                     throw new RuntimeException(e);
@@ -266,58 +324,80 @@ public class SdcardHelper {
         }
     }
     
+    private static StringBuffer appendTwoDigits(StringBuffer buffer, long value) {
+        if (value < 10) {
+            buffer.append('0');
+        }
+        return buffer.append(value);
+    }
+    
+    /**
+     * Join the names of the players with the given score (e.g. the winners) with commas.
+     */
+    private static StringBuffer joinPlayersWithScore(GameScores game, long score, StringBuffer buffer, 
+            Context context) {
+        buffer.setLength(0);
+        for (int i = 0; i < game.getNumPlayers(); i++) {
+            if (game.getScore(i) == score) {
+                if (buffer.length() > 0) {
+                    buffer.append(", ");
+                }
+                buffer.append(PlayerScore.toDisplayName(game.getPlayerName(i), game.getPlayerNumber(i), context));
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     * Something that writes its data to a stream, so that it never needs to be held in memory all at once.
+     */
+    public static interface StreamWriter {
+        
+        public void writeTo(OutputStream outputStream) throws IOException;
+    }
+    
     /**
-     * Save the xml in zipped format.
+     * Save the data, zipped if the format is GZIP.  If anything goes wrong, the partially-written file is deleted.
      * 
      * @param filename
-     * @param xmlData
+     * @param format
+     * @param location
+     * @param data
      * @return
      */
-    public static boolean save(String filename, Format format, Location location, String xmlData) {
+    public static boolean save(String filename, Format format, Location location, StreamWriter data) {
         File newFile = new File(getDirectory(location), filename);
-        try {
-            if (!newFile.exists()) {
-                newFile.createNewFile();
-            }
-        } catch (IOException ex) {
-            log.e(ex, "couldn't create new file");
-            return false;
-        }
 
         OutputStream out = null;
-        Writer writer = null;
+        boolean success = false;
         try {
 
             // specifying BUFFER gets rid of an annoying warning message in the logs
-            out = new BufferedOutputStream(new FileOutputStream(newFile, true), BUFFER);
+            out = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER);
             if (format == Format.GZIP) {
                 out = new GZIPOutputStream(out);
             }
-            writer = new OutputStreamWriter(out, "UTF-8");
-            writer.write(xmlData);
+            data.writeTo(out);
+            out.close();
+            out = null;
+            success = true;
         } catch (FileNotFoundException ex) {
             log.e(ex, "unexpected exception");
-            return false;
-        } catch (UnsupportedEncodingException ex) {
-            log.e(ex, "unexpected exception");
-            return false;
         } catch (IOException ex) {
             log.e(ex, "unexpected exception");
-            return false;
         } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-                if (out != null) {
+            if (out != null) {
+                try {
                     out.close();
+                } catch (IOException ex) {
+                    log.e(ex, "unexpected exception");
                 }
-            } catch (IOException ex) {
-                log.e(ex, "unexpected exception");
-                return false;                
+            }
+            if (!success && newFile.exists() && !newFile.delete()) {
+                log.w("couldn't delete partial file %s", newFile);
             }
         }
-        return true;
+        return success;
     }
     
     public static String createSpreadsheetFilename() {
@@ -325,7 +405,7 @@ public class SdcardHelper {
     }
     
     public static String createBackupFilename(Format format) {
-        return createFilename("games-", (format == Format.GZIP ? ".xml.gz" : ".xml"));
+        return createFilename("games-", format.getExtension());
     }
     
     /**
@@ -0,0 +1,339 @@
+package com.nolanlawson.keepscore.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.nolanlawson.keepscore.db.DeltaHistory;
+import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.HistoryCodec;
+import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.helper.PlayerColor;
+import com.nolanlawson.keepscore.util.Callback;
+
+/**
+ * Compact binary counterpart of the XML backup format ({@link GamesBackupSerializer#VERSION_SIX}).
+ *
+ * The file starts with a magic number and the version, followed by a header record with the same fields as the
+ * XML header, so that a summary can be read without looking at the rest of the file.  Fields that were added later
+ * (e.g. the base of a differential backup and the games deleted since) come at the end of the header record, and
+ * are only read if present.  After that comes one record per game.  Each record is prefixed with its length, and
+ * numbers are written as varints, with the histories in the same encoding used by the database (see
+ * {@link HistoryCodec}).
+ *
+ * @author nolan
+ *
+ */
+public class BinaryGamesBackupSerializer {
+
+    private static final int MAGIC = 0x4b53424b; // "KSBK"
+
+    /**
+     * Write the backup straight to the given stream, pulling the games from the iterator one at a time.  Only the
+     * header fields of the GamesBackup are written; its list of games and its version are ignored.  Afterwards its
+     * game count is set to the number of games that were actually written.
+     *
+     * @param gamesBackup
+     * @param games
+     * @param outputStream
+     *            not closed by this method
+     * @throws IOException
+     */
+    public static void serialize(GamesBackup gamesBackup, Iterator<Game> games, OutputStream outputStream)
+            throws IOException {
+
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            outputStream.write(MAGIC >>> shift);
+        }
+        writeVarLong(outputStream, GamesBackupSerializer.VERSION_SIX);
+
+        // reused for every record
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+        writeVarLong(record, gamesBackup.getGameCount());
+        writeBoolean(record, gamesBackup.isAutomatic());
+        writeVarLong(record, gamesBackup.getDateSaved());
+        writeString(record, gamesBackup.getFilename());
+        writeString(record, gamesBackup.getBaseFilename());
+        writeVarLong(record, gamesBackup.getDeletedDatesStarted().size());
+        for (long dateStarted : gamesBackup.getDeletedDatesStarted()) {
+            writeVarLong(record, zigZag(dateStarted));
+        }
+        writeRecord(outputStream, record);
+
+        int gameCount = 0;
+        while (games.hasNext()) {
+            Game game = games.next();
+            gameCount++;
+
+            writeVarLong(record, game.getDateSaved());
+            writeVarLong(record, game.getDateStarted());
+            writeString(record, game.getName());
+            writeVarLong(record, game.getPlayerScores().size());
+
+            for (PlayerScore playerScore : game.getPlayerScores()) {
+                writeString(record, playerScore.getName());
+                writeVarLong(record, zigZag(playerScore.getScore()));
+                writeVarLong(record, playerScore.getPlayerNumber());
+                writeVarLong(record, zigZag(playerScore.getLastUpdate()));
+                writeString(record, PlayerColor.serialize(playerScore.getPlayerColor()));
+                writeBytes(record, HistoryCodec.encode(playerScore.getHistory()));
+            }
+            writeRecord(outputStream, record);
+        }
+        outputStream.flush();
+        gamesBackup.setGameCount(gameCount);
+    }
+
+    /**
+     * Read just the header.
+     *
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    public static GamesBackupSummary readGamesBackupSummary(InputStream inputStream) throws IOException {
+        GamesBackup gamesBackup = readHeader(inputStream);
+
+        GamesBackupSummary result = new GamesBackupSummary();
+        result.setVersion(gamesBackup.getVersion());
+        result.setGameCount(gamesBackup.getGameCount());
+        result.setAutomatic(gamesBackup.isAutomatic());
+        result.setDateSaved(gamesBackup.getDateSaved());
+        result.setFilename(gamesBackup.getFilename());
+        result.setBaseFilename(gamesBackup.getBaseFilename());
+        return result;
+    }
+
+    /**
+     * Read the backup from the stream, handing each Game to the callback as soon as it's been read.
+     *
+     * @param inputStream
+     *            not closed by this method
+     * @param onGame
+     *            called once for each game, on the calling thread
+     * @return the rest of the backup (version, filename, etc.), without any games
+     * @throws IOException
+     */
+    public static GamesBackup deserialize(InputStream inputStream, Callback<Game> onGame) throws IOException {
+        GamesBackup gamesBackup = readHeader(inputStream);
+
+        byte[] data;
+        while ((data = readRecord(inputStream)) != null) {
+            Input input = new Input(data);
+
+            Game game = new Game();
+            game.setDateSaved(input.readVarLong());
+            game.setDateStarted(input.readVarLong());
+            game.setName(input.readString());
+
+            int numPlayers = (int) input.readVarLong();
+            List<PlayerScore> playerScores = new ArrayList<PlayerScore>(numPlayers);
+            for (int i = 0; i < numPlayers; i++) {
+                PlayerScore playerScore = new PlayerScore();
+                playerScore.setName(input.readString());
+                playerScore.setScore(unZigZag(input.readVarLong()));
+                playerScore.setPlayerNumber((int) input.readVarLong());
+                playerScore.setLastUpdate(unZigZag(input.readVarLong()));
+                playerScore.setPlayerColor(PlayerColor.deserialize(input.readString()));
+
+                DeltaHistory history = new DeltaHistory();
+                HistoryCodec.decode(input.readBytes(), history);
+                playerScore.setHistory(history);
+
+                playerScores.add(playerScore);
+            }
+            game.setPlayerScores(playerScores);
+
+            onGame.onCallback(game);
+        }
+        return gamesBackup;
+    }
+
+    private static GamesBackup readHeader(InputStream inputStream) throws IOException {
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = (magic << 8) | readByte(inputStream);
+        }
+        if (magic != MAGIC) {
+            throw new IOException("not a binary backup");
+        }
+        int version = (int) readVarLong(inputStream);
+        if (version != GamesBackupSerializer.VERSION_SIX) {
+            throw new IOException("unknown backup version: " + version);
+        }
+
+        byte[] data = readRecord(inputStream);
+        if (data == null) {
+            throw new EOFException("missing header");
+        }
+        Input input = new Input(data);
+
+        GamesBackup gamesBackup = new GamesBackup();
+        gamesBackup.setVersion(version);
+        gamesBackup.setGameCount((int) input.readVarLong());
+        gamesBackup.setAutomatic(input.readVarLong() != 0);
+        gamesBackup.setDateSaved(input.readVarLong());
+        gamesBackup.setFilename(input.readString());
+        if (input.hasRemaining()) {
+            gamesBackup.setBaseFilename(input.readString());
+        }
+        if (input.hasRemaining()) {
+            int numDeleted = (int) input.readVarLong();
+            List<Long> deletedDatesStarted = new ArrayList<Long>(numDeleted);
+            for (int i = 0; i < numDeleted; i++) {
+                deletedDatesStarted.add(unZigZag(input.readVarLong()));
+            }
+            gamesBackup.setDeletedDatesStarted(deletedDatesStarted);
+        }
+        return gamesBackup;
+    }
+
+    private static void writeRecord(OutputStream outputStream, ByteArrayOutputStream record) throws IOException {
+        writeVarLong(outputStream, record.size());
+        record.writeTo(outputStream);
+        record.reset();
+    }
+
+    /**
+     * Read the next length-prefixed record, or return null at the end of the file.
+     */
+    private static byte[] readRecord(InputStream inputStream) throws IOException {
+        int first = inputStream.read();
+        if (first == -1) {
+            return null;
+        }
+        long length = first & 0x7F;
+        if ((first & 0x80) != 0) {
+            length |= readVarLong(inputStream) << 7;
+        }
+        byte[] data = new byte[(int) length];
+        int offset = 0;
+        while (offset < data.length) {
+            int read = inputStream.read(data, offset, data.length - offset);
+            if (read == -1) {
+                throw new EOFException("truncated record");
+            }
+            offset += read;
+        }
+        return data;
+    }
+
+    private static void writeVarLong(OutputStream outputStream, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private static void writeBoolean(OutputStream outputStream, boolean value) throws IOException {
+        writeVarLong(outputStream, value ? 1 : 0);
+    }
+
+    private static void writeBytes(OutputStream outputStream, byte[] bytes) throws IOException {
+        writeVarLong(outputStream, bytes.length);
+        outputStream.write(bytes);
+    }
+
+    /**
+     * Strings are written as their length plus one, so that zero can stand for null.
+     */
+    private static void writeString(OutputStream outputStream, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(outputStream, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(outputStream, bytes.length + 1);
+        outputStream.write(bytes);
+    }
+
+    private static long readVarLong(InputStream inputStream) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(inputStream);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int readByte(InputStream inputStream) throws IOException {
+        int b = inputStream.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Input {
+
+        private byte[] bytes;
+        private int position;
+
+        public Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new EOFException("truncated record");
+                }
+                byte b = bytes[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        public boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        public byte[] readBytes() throws IOException {
+            int length = readLength((int) readVarLong());
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, position, result, 0, length);
+            position += length;
+            return result;
+        }
+
+        public String readString() throws IOException {
+            int lengthPlusOne = (int) readVarLong();
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+            int length = readLength(lengthPlusOne - 1);
+            String result = new String(bytes, position, length, "UTF-8");
+            position += length;
+            return result;
+        }
+
+        private int readLength(int length) throws IOException {
+            if (length < 0 || position + length > bytes.length) {
+                throw new EOFException("truncated record");
+            }
+            return length;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.nolanlawson.keepscore.serialization;
 
+import java.util.Collections;
 import java.util.List;
 
 import com.nolanlawson.keepscore.db.Game;
@@ -17,6 +18,8 @@ public class GamesBackup {
     private long dateSaved;
     private boolean automatic;
     private String filename;
+    private String baseFilename;
+    private List<Long> deletedDatesStarted = Collections.emptyList();
     private List<Game> games;
 
     
@@ -26,6 +29,26 @@ public class GamesBackup {
     public void setFilename(String filename) {
         this.filename = filename;
     }
+    /**
+     * For a differential backup, the full backup it's based on; otherwise null.
+     */
+    public String getBaseFilename() {
+        return baseFilename;
+    }
+    public void setBaseFilename(String baseFilename) {
+        this.baseFilename = baseFilename;
+    }
+    /**
+     * For a differential backup, the start dates of the games that were deleted since the previous backup in the
+     * chain, so that they aren't restored from the older ones; otherwise empty.  Differential backups are always
+     * binary, so this isn't written to XML.
+     */
+    public List<Long> getDeletedDatesStarted() {
+        return deletedDatesStarted;
+    }
+    public void setDeletedDatesStarted(List<Long> deletedDatesStarted) {
+        this.deletedDatesStarted = deletedDatesStarted;
+    }
     public boolean isAutomatic() {
         return automatic;
     }
@@ -34,6 +57,10 @@ public class GamesBackup {
         this.automatic = automatic;
     }
 
+    /**
+     * The number of games in the backup.  The count in a file's header is written before its games are, so when
+     * games are deleted while the backup is being written, it's only an upper bound on the number in the file.
+     */
     public int getGameCount() {
         return gameCount;
     }
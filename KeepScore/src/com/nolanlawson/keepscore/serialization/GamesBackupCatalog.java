@@ -0,0 +1,240 @@
+package com.nolanlawson.keepscore.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.nolanlawson.keepscore.helper.SdcardHelper;
+import com.nolanlawson.keepscore.helper.SdcardHelper.Format;
+import com.nolanlawson.keepscore.helper.SdcardHelper.Location;
+import com.nolanlawson.keepscore.util.UtilLogger;
+
+/**
+ * Small index of the summaries of the files in the backups directory, so that listing the backups doesn't require
+ * opening and parsing every one of them.  Each entry remembers the size and modification time of its file, and is
+ * ignored (and re-read from the file) if either has changed.
+ *
+ * The catalog is a hidden file, so it doesn't show up in {@link SdcardHelper#list(Location)}.
+ *
+ * @author nolan
+ *
+ */
+public class GamesBackupCatalog {
+
+    private static UtilLogger log = new UtilLogger(GamesBackupCatalog.class);
+
+    private static final String FILENAME = ".catalog";
+
+    private static final int MAGIC = 0x4b534331; // "KSC1"
+
+    /**
+     * Return the summaries of the given backups, in the same order.  Backups whose summaries aren't in the catalog
+     * (or are out of date) are parsed, and the catalog is updated.
+     *
+     * @param filenames
+     *            backups in the backups directory
+     * @param contentResolver
+     * @param onProgress
+     *            called after each backup, or null
+     * @return
+     */
+    public static synchronized List<GamesBackupSummary> getSummaries(List<String> filenames,
+            ContentResolver contentResolver, Runnable onProgress) {
+
+        Map<String, Entry> entries = read();
+        Map<String, Entry> newEntries = new HashMap<String, Entry>();
+        List<GamesBackupSummary> result = new ArrayList<GamesBackupSummary>(filenames.size());
+
+        boolean changed = false;
+        for (String filename : filenames) {
+            File file = SdcardHelper.getFile(filename, Location.Backups);
+            Entry entry = entries.get(filename);
+            if (entry == null || !entry.matches(file)) {
+                log.d("reading summary of %s", filename);
+                GamesBackupSummary summary = GamesBackupSerializer.readGamesBackupSummary(
+                        Uri.fromFile(file), Format.forFilename(filename), contentResolver);
+                entry = new Entry(file, summary);
+                changed = true;
+            }
+            newEntries.put(filename, entry);
+            result.add(entry.summary);
+
+            if (onProgress != null) {
+                onProgress.run();
+            }
+        }
+
+        // drop the entries for files that have since been deleted
+        if (changed || newEntries.size() != entries.size()) {
+            write(newEntries);
+        }
+        return result;
+    }
+
+    /**
+     * Add the backup that was just saved to the backups directory.
+     *
+     * @param gamesBackup
+     *            the header that was written to the file
+     */
+    public static synchronized void put(GamesBackup gamesBackup) {
+        File file = SdcardHelper.getFile(gamesBackup.getFilename(), Location.Backups);
+
+        GamesBackupSummary summary = new GamesBackupSummary();
+        summary.setVersion(gamesBackup.getVersion());
+        summary.setGameCount(gamesBackup.getGameCount());
+        summary.setAutomatic(gamesBackup.isAutomatic());
+        summary.setDateSaved(gamesBackup.getDateSaved());
+        summary.setFilename(gamesBackup.getFilename());
+        summary.setBaseFilename(gamesBackup.getBaseFilename());
+
+        Map<String, Entry> entries = read();
+        entries.put(file.getName(), new Entry(file, summary));
+        write(entries);
+    }
+
+    /**
+     * Forget about a backup that has been deleted.
+     *
+     * @param filename
+     */
+    public static synchronized void remove(String filename) {
+        Map<String, Entry> entries = read();
+        if (entries.remove(filename) != null) {
+            write(entries);
+        }
+    }
+
+    private static File getCatalogFile() {
+        return new File(SdcardHelper.getDirectory(Location.Backups), FILENAME);
+    }
+
+    private static Map<String, Entry> read() {
+        Map<String, Entry> result = new HashMap<String, Entry>();
+
+        File catalogFile = getCatalogFile();
+        if (!catalogFile.exists()) {
+            return result;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile), 0x1000));
+            if (in.readInt() != MAGIC) {
+                log.w("unrecognized backup catalog, ignoring");
+                return result;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String filename = in.readUTF();
+                Entry entry = new Entry();
+                entry.length = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.summary = new GamesBackupSummary();
+                entry.summary.setVersion(in.readInt());
+                entry.summary.setGameCount(in.readInt());
+                entry.summary.setAutomatic(in.readBoolean());
+                entry.summary.setDateSaved(in.readLong());
+                entry.summary.setFilename(readStringOrNull(in));
+                entry.summary.setBaseFilename(readStringOrNull(in));
+                result.put(filename, entry);
+            }
+        } catch (IOException e) {
+            // everything will just be re-read from the backups themselves
+            log.e(e, "couldn't read backup catalog");
+            result.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.e(e, "couldn't close backup catalog");
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void write(Map<String, Entry> entries) {
+        // write to a temp file first, so that a crash can't leave a half-written catalog
+        File catalogFile = getCatalogFile();
+        File tempFile = new File(catalogFile.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 0x1000));
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeInt(entry.summary.getVersion());
+                out.writeInt(entry.summary.getGameCount());
+                out.writeBoolean(entry.summary.isAutomatic());
+                out.writeLong(entry.summary.getDateSaved());
+                writeStringOrNull(out, entry.summary.getFilename());
+                writeStringOrNull(out, entry.summary.getBaseFilename());
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(catalogFile)) {
+                log.w("couldn't rename %s", tempFile);
+            }
+        } catch (IOException e) {
+            log.e(e, "couldn't write backup catalog");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.e(e, "couldn't close backup catalog");
+                }
+            }
+        }
+    }
+
+    private static String readStringOrNull(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStringOrNull(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static class Entry {
+
+        private long length;
+        private long lastModified;
+        private GamesBackupSummary summary;
+
+        public Entry() {
+        }
+
+        public Entry(File file, GamesBackupSummary summary) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.summary = summary;
+        }
+
+        public boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.nolanlawson.keepscore.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.nolanlawson.keepscore.data.LoadGamesBackupResult;
+import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.helper.SdcardHelper.Format;
+import com.nolanlawson.keepscore.util.Callback;
+import com.nolanlawson.keepscore.util.CountingInputStream;
+
+/**
+ * Restores backup files into the database, saving the games a batch at a time as they're parsed, so that the
+ * backups never have to be held in memory.
+ *
+ * Several files can be restored in a row, newest first (e.g. a chain of differential backups and the full backup
+ * they're based on).  Only the first copy of each game is restored, so each game ends up in the state it was in
+ * when it was most recently backed up, and games that were deleted since an older file was written aren't restored
+ * from it.  Games that are already in the database are skipped, as always.
+ *
+ * @author nolan
+ *
+ */
+public class GamesBackupRestorer {
+
+    /** progress is reported as a percentage */
+    public static final int PROGRESS_MAX = 100;
+
+    // how many restored games to insert per transaction
+    private static final int BATCH_SIZE = 200;
+
+    private GameDBHelper dbHelper;
+    private ContentResolver contentResolver;
+    private long totalBytes;
+    private int totalGameCount;
+    private Callback<Integer> onProgress;
+
+    private long[] existingDatesStarted;
+    // games from the files restored so far, whether they were restored or not, plus the games they say were deleted
+    private Set<Long> newerDatesStarted = new HashSet<Long>();
+    // games from the current file
+    private Set<Long> fileDatesStarted = new HashSet<Long>();
+    private List<Game> batch = new ArrayList<Game>(BATCH_SIZE);
+    private long bytesReadInPreviousFiles;
+
+    private LoadGamesBackupResult result = new LoadGamesBackupResult();
+
+    /**
+     * @param dbHelper
+     * @param contentResolver
+     * @param totalBytes
+     *            total size of all the files to be restored, or -1 if unknown
+     * @param totalGameCount
+     *            total number of games, only used for the progress if the size is unknown
+     * @param onProgress
+     *            called with the progress so far, out of PROGRESS_MAX
+     */
+    public GamesBackupRestorer(GameDBHelper dbHelper, ContentResolver contentResolver, long totalBytes,
+            int totalGameCount, Callback<Integer> onProgress) {
+        this.dbHelper = dbHelper;
+        this.contentResolver = contentResolver;
+        this.totalBytes = totalBytes;
+        this.totalGameCount = totalGameCount;
+        this.onProgress = onProgress;
+
+        // check for duplicates in memory rather than querying for every game
+        existingDatesStarted = dbHelper.findAllDatesStarted();
+    }
+
+    /**
+     * Restore the games from the given file.
+     *
+     * @param uri
+     * @param format
+     * @return the rest of the backup (version, filename, etc.), without any games
+     * @throws IOException
+     * @throws XmlPullParserException
+     */
+    public GamesBackup restore(Uri uri, Format format) throws IOException, XmlPullParserException {
+        final CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(
+                contentResolver.openInputStream(uri), 0x1000));
+        InputStream inputStream = countingInputStream;
+        try {
+            if (format == Format.GZIP) { // new, gzipped format
+                inputStream = new GZIPInputStream(inputStream);
+            }
+
+            GamesBackup gamesBackup = GamesBackupSerializer.deserialize(inputStream, format, new Callback<Game>() {
+
+                @Override
+                public void onCallback(Game game) {
+                    onGame(game);
+                    reportProgress(bytesReadInPreviousFiles + countingInputStream.getCount());
+                }
+            });
+
+            newerDatesStarted.addAll(fileDatesStarted);
+            newerDatesStarted.addAll(gamesBackup.getDeletedDatesStarted());
+            fileDatesStarted.clear();
+            bytesReadInPreviousFiles += countingInputStream.getCount();
+
+            return gamesBackup;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Save any games that are still waiting to be saved.
+     *
+     * @return the counts of games found, loaded, etc.; the filename is left for the caller to fill in
+     */
+    public LoadGamesBackupResult finish() {
+        saveBatch();
+        return result;
+    }
+
+    private void onGame(Game game) {
+        // use the start date as a unique identifier; it's a
+        // millisecond-timestamp, so it should work
+        long dateStarted = game.getDateStarted();
+
+        if (newerDatesStarted.contains(dateStarted)) {
+            return; // an older copy of a game that was in a newer file
+        }
+        result.setNumFound(result.getNumFound() + 1);
+
+        boolean firstInFile = fileDatesStarted.add(dateStarted);
+        if (!firstInFile || Arrays.binarySearch(existingDatesStarted, dateStarted) >= 0) {
+            result.setNumDuplicates(result.getNumDuplicates() + 1);
+        } else {
+            batch.add(game);
+            if (batch.size() == BATCH_SIZE) {
+                saveBatch();
+            }
+        }
+    }
+
+    private void saveBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        dbHelper.saveGames(batch, false); // don't update 'dateSaved' value - keep original
+        result.setNumLoaded(result.getNumLoaded() + batch.size());
+        batch.clear();
+    }
+
+    private void reportProgress(long bytesRead) {
+        long progress = (totalBytes > 0)
+                ? bytesRead * PROGRESS_MAX / totalBytes
+                : result.getNumFound() * PROGRESS_MAX / Math.max(1, totalGameCount);
+        onProgress.onCallback((int) Math.min(progress, PROGRESS_MAX));
+    }
+}
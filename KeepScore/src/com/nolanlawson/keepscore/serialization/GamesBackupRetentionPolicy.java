@@ -0,0 +1,144 @@
+package com.nolanlawson.keepscore.serialization;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.content.Context;
+
+import com.nolanlawson.keepscore.R;
+
+/**
+ * Decides which automatic backups to delete, keeping the most recent backup from each of the last few days, weeks
+ * and months (the same backup may count for all three).  Manual backups are never deleted.
+ *
+ * A differential backup can only be restored along with the full backup it's based on and the differential
+ * backups in between, so those are kept too, as long as any backup that needs them is kept.
+ *
+ * @author nolan
+ *
+ */
+public class GamesBackupRetentionPolicy {
+
+    private int numDaily;
+    private int numWeekly;
+    private int numMonthly;
+
+    public GamesBackupRetentionPolicy(int numDaily, int numWeekly, int numMonthly) {
+        this.numDaily = numDaily;
+        this.numWeekly = numWeekly;
+        this.numMonthly = numMonthly;
+    }
+
+    /**
+     * Create the policy from the values in the resources.
+     */
+    public static GamesBackupRetentionPolicy fromResources(Context context) {
+        return new GamesBackupRetentionPolicy(
+                context.getResources().getInteger(R.integer.backup_retention_daily),
+                context.getResources().getInteger(R.integer.backup_retention_weekly),
+                context.getResources().getInteger(R.integer.backup_retention_monthly));
+    }
+
+    /**
+     * Return the backups that are no longer needed.
+     *
+     * @param summaries
+     *            all of the backups
+     * @return
+     */
+    public List<GamesBackupSummary> findBackupsToDelete(List<GamesBackupSummary> summaries) {
+
+        List<GamesBackupSummary> automaticSummaries = new ArrayList<GamesBackupSummary>();
+        for (GamesBackupSummary summary : summaries) {
+            if (summary.isAutomatic() && summary.getFilename() != null) {
+                automaticSummaries.add(summary);
+            }
+        }
+
+        // newest first
+        Collections.sort(automaticSummaries, new Comparator<GamesBackupSummary>() {
+
+            public int compare(GamesBackupSummary lhs, GamesBackupSummary rhs) {
+                return Long.valueOf(rhs.getDateSaved()).compareTo(lhs.getDateSaved());
+            }
+        });
+
+        Set<GamesBackupSummary> toKeep = new HashSet<GamesBackupSummary>();
+        keepMostRecentPerPeriod(automaticSummaries, Calendar.DAY_OF_YEAR, numDaily, toKeep);
+        keepMostRecentPerPeriod(automaticSummaries, Calendar.WEEK_OF_YEAR, numWeekly, toKeep);
+        keepMostRecentPerPeriod(automaticSummaries, Calendar.MONTH, numMonthly, toKeep);
+        if (!automaticSummaries.isEmpty()) {
+            // the latest backup is the one the next differential backup will build on
+            toKeep.add(automaticSummaries.get(0));
+        }
+
+        // keep whatever the kept differential backups need in order to be restored
+        Set<String> neededFilenames = new HashSet<String>();
+        for (GamesBackupSummary kept : toKeep) {
+            neededFilenames.add(kept.getFilename());
+            if (kept.getBaseFilename() == null) {
+                continue;
+            }
+            neededFilenames.add(kept.getBaseFilename());
+            for (GamesBackupSummary other : automaticSummaries) {
+                if (kept.getBaseFilename().equals(other.getBaseFilename())
+                        && other.getDateSaved() < kept.getDateSaved()) {
+                    neededFilenames.add(other.getFilename());
+                }
+            }
+        }
+
+        List<GamesBackupSummary> result = new ArrayList<GamesBackupSummary>();
+        for (GamesBackupSummary summary : automaticSummaries) {
+            if (!neededFilenames.contains(summary.getFilename())) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keep the first (i.e. newest) backup from each of the first <code>numPeriods</code> distinct periods.
+     *
+     * @param summaries
+     *            newest first
+     * @param calendarField
+     *            the field that, along with the year, identifies the period
+     */
+    private static void keepMostRecentPerPeriod(List<GamesBackupSummary> summaries, int calendarField,
+            int numPeriods, Set<GamesBackupSummary> toKeep) {
+
+        Calendar calendar = Calendar.getInstance();
+        int numPeriodsSeen = 0;
+        long lastPeriod = Long.MIN_VALUE;
+
+        for (GamesBackupSummary summary : summaries) {
+            if (numPeriodsSeen == numPeriods) {
+                break;
+            }
+            calendar.setTimeInMillis(summary.getDateSaved());
+            // week numbers wrap around at the end of the year, so use the year the week belongs to
+            int year = calendar.get(Calendar.YEAR);
+            if (calendarField == Calendar.WEEK_OF_YEAR) {
+                int week = calendar.get(Calendar.WEEK_OF_YEAR);
+                int month = calendar.get(Calendar.MONTH);
+                if (month == Calendar.DECEMBER && week == 1) {
+                    year++;
+                } else if (month == Calendar.JANUARY && week >= 52) {
+                    year--;
+                }
+            }
+            long period = year * 1000L + calendar.get(calendarField);
+            if (period != lastPeriod) {
+                toKeep.add(summary);
+                lastPeriod = period;
+                numPeriodsSeen++;
+            }
+        }
+    }
+}
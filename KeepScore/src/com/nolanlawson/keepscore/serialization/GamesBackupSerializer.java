@@ -1,12 +1,15 @@
 package com.nolanlawson.keepscore.serialization;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
@@ -20,12 +23,13 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.util.Xml;
 
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.Game;
 import com.nolanlawson.keepscore.db.PlayerScore;
 import com.nolanlawson.keepscore.helper.SdcardHelper.Format;
 import com.nolanlawson.keepscore.helper.PlayerColor;
 import com.nolanlawson.keepscore.helper.XmlHelper;
+import com.nolanlawson.keepscore.util.Callback;
 import com.nolanlawson.keepscore.util.CollectionUtil;
 import com.nolanlawson.keepscore.util.Pair;
 import com.nolanlawson.keepscore.util.StringUtil;
@@ -61,11 +65,21 @@ public class GamesBackupSerializer {
      */
     public static final int VERSION_FIVE = 5;
     
+    /**
+     * Version where the compact binary format was added; only used for binary backups
+     * (see {@link BinaryGamesBackupSerializer}).
+     */
+    public static final int VERSION_SIX = 6;
+    
+    /** Current version of the XML format */
     public static final int CURRENT_VERSION = VERSION_FIVE;
     
     private static final String ATTRIBUTE_NULL = "isNull";
     private static final String ATTRIBUTE_EMPTY = "isEmpty";
 
+    // newline plus enough spaces for the deepest tag
+    private static final String INDENT = "\n            ";
+
     private static UtilLogger log = new UtilLogger(GamesBackupSerializer.class);
     
     private static enum Tag {
@@ -83,6 +97,10 @@ public class GamesBackupSerializer {
     @SuppressWarnings("incomplete-switch")
     public static GamesBackupSummary readGamesBackupSummary(Uri uri, Format format, ContentResolver contentResolver) {
         
+        if (format == Format.BINARY) {
+            return readBinaryGamesBackupSummary(uri, contentResolver);
+        }
+        
         GamesBackupSummary result = new GamesBackupSummary();
         
         int infoReceived = 0;
@@ -173,85 +191,155 @@ public class GamesBackupSerializer {
         throw new RuntimeException("failed to find summary for " + uri);
     }
 
-    @SuppressWarnings("incomplete-switch")
+    private static GamesBackupSummary readBinaryGamesBackupSummary(Uri uri, ContentResolver contentResolver) {
+        InputStream inputStream = null;
+        try {
+            inputStream = new BufferedInputStream(contentResolver.openInputStream(uri), 0x1000);
+            GamesBackupSummary result = BinaryGamesBackupSerializer.readGamesBackupSummary(inputStream);
+            if (result.getFilename() == null) {
+                result.setFilename(uri.getLastPathSegment());
+            }
+            return result;
+        } catch (IOException e) {
+            log.e(e, "unexpected exception for " + uri);
+            throw new RuntimeException(e);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    log.e(e, "unexpected exception for " + uri);
+                }
+            }
+        }
+    }
+
     public static GamesBackup deserialize(String xmlData) {
-        int parserEvent = -1;
-        XmlPullParser parser = null;
+        final GamesBackup gamesBackup = new GamesBackup();
+        gamesBackup.setGames(new ArrayList<Game>());
 
-        Tag tag = null;
+        try {
+            XmlPullParser parser = XmlHelper.loadData(xmlData);
+            deserialize(parser, gamesBackup, new Callback<Game>() {
+
+                @Override
+                public void onCallback(Game game) {
+                    gamesBackup.getGames().add(game);
+                }
+            });
+        } catch (XmlPullParserException e) {
+            log.e(e, "unexpected");
+        } catch (IOException e) {
+            log.e(e, "unexpected");
+        }
+
+        // return de-serialized game backup
+        return gamesBackup;
+    }
+
+    /**
+     * Parse the backup straight from the stream, handing each Game to the callback as soon as it's been read
+     * rather than building up the whole list, so that memory use doesn't depend on the size of the backup.
+     * 
+     * @param inputStream
+     *            not closed by this method
+     * @param onGame
+     *            called once for each game, on the calling thread
+     * @return the rest of the backup (version, filename, etc.), without any games
+     * @throws IOException
+     * @throws XmlPullParserException
+     */
+    public static GamesBackup deserialize(InputStream inputStream, Callback<Game> onGame) 
+            throws IOException, XmlPullParserException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(inputStream, "UTF-8");
 
         GamesBackup gamesBackup = new GamesBackup();
-        gamesBackup.setGames(new ArrayList<Game>());
+        deserialize(parser, gamesBackup, onGame);
+        return gamesBackup;
+    }
+
+    /**
+     * Read the backup in the given format, which is binary for {@link Format#BINARY} and XML otherwise.  Unzipping
+     * is left to the caller.
+     * 
+     * @param inputStream
+     * @param format
+     * @param onGame
+     * @return
+     * @throws IOException
+     * @throws XmlPullParserException
+     */
+    public static GamesBackup deserialize(InputStream inputStream, Format format, Callback<Game> onGame)
+            throws IOException, XmlPullParserException {
+        if (format == Format.BINARY) {
+            return BinaryGamesBackupSerializer.deserialize(inputStream, onGame);
+        }
+        return deserialize(inputStream, onGame);
+    }
+
+    @SuppressWarnings("incomplete-switch")
+    private static void deserialize(XmlPullParser parser, GamesBackup gamesBackup, Callback<Game> onGame)
+            throws IOException, XmlPullParserException {
+        Tag tag = null;
+
         Game game = null;
         PlayerScore playerScore = null;
         Map<String, String> attributes = null;
 
-        try {
-            // calls service (referenced in url) to request XML serialized data
-            parser = XmlHelper.loadData(xmlData);
-            parserEvent = parser.getEventType();
-
-            while (parserEvent != XmlPullParser.END_DOCUMENT) {
-                switch (parserEvent) {
-                case XmlPullParser.START_TAG:
-                    tag = Tag.valueOf(parser.getName());
-                    switch (tag) {
-                    case Game:
-                        game = new Game();
-                        game.setPlayerScores(new ArrayList<PlayerScore>());
-                        break;
-                    case PlayerScore:
-                        playerScore = new PlayerScore();
-                        break;
-                    }
-                    // null or empty marker
-                    if (parser.getAttributeCount() != -1) {
-                        attributes = getAttributes(parser);
-                    }
+        int parserEvent = parser.getEventType();
+
+        while (parserEvent != XmlPullParser.END_DOCUMENT) {
+            switch (parserEvent) {
+            case XmlPullParser.START_TAG:
+                tag = Tag.valueOf(parser.getName());
+                switch (tag) {
+                case Game:
+                    game = new Game();
+                    game.setPlayerScores(new ArrayList<PlayerScore>());
                     break;
-                case XmlPullParser.END_TAG:
-                    tag = Tag.valueOf(parser.getName());
-                    switch (tag) {
-                    case Game:
-                        gamesBackup.getGames().add(game);
-                        break;
-                    case PlayerScore:
-                        game.getPlayerScores().add(playerScore);
-                        break;
-                    }
+                case PlayerScore:
+                    playerScore = new PlayerScore();
                     break;
-                case XmlPullParser.TEXT:
-
-                    String text = parser.getText();
-
-                    if (!StringUtil.isEmptyOrWhitespace(text)) {
-                        handleText(text, tag, attributes, gamesBackup, game, playerScore);
-                    }
+                }
+                // null or empty marker
+                if (parser.getAttributeCount() != -1) {
+                    attributes = getAttributes(parser);
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                tag = Tag.valueOf(parser.getName());
+                switch (tag) {
+                case Game:
+                    applyVersionFixes(gamesBackup, game);
+                    onGame.onCallback(game);
+                    game = null;
+                    break;
+                case PlayerScore:
+                    game.getPlayerScores().add(playerScore);
                     break;
                 }
+                break;
+            case XmlPullParser.TEXT:
+
+                String text = parser.getText();
 
-                parserEvent = parser.next();
+                if (!StringUtil.isEmptyOrWhitespace(text)) {
+                    handleText(text, tag, attributes, gamesBackup, game, playerScore);
+                }
+                break;
             }
-        } catch (XmlPullParserException e) {
-            log.e(e, "unexpected");
-        } catch (IOException e) {
-            log.e(e, "unexpected");
-        }
 
-        applyVersionFixes(gamesBackup);
-        
-        // return de-serialized game backup
-        return gamesBackup;
+            parserEvent = parser.next();
+        }
     }
 
-    private static void applyVersionFixes(GamesBackup gamesBackup) {
+    private static void applyVersionFixes(GamesBackup gamesBackup, Game game) {
         
-        // fix for older versions of keepscore without colors
+        // fix for older versions of keepscore without colors; the version always comes before the games
         if (gamesBackup.getVersion() < VERSION_FIVE) {
-            for (Game game : gamesBackup.getGames()) {
-                for (PlayerScore playerScore : game.getPlayerScores()) {
-                    playerScore.setPlayerColor(PlayerColor.BUILT_INS[playerScore.getPlayerNumber()]);
-                }
+            for (PlayerScore playerScore : game.getPlayerScores()) {
+                playerScore.setPlayerColor(PlayerColor.BUILT_INS[playerScore.getPlayerNumber()]);
             }
         }
         
@@ -293,14 +381,14 @@ public class GamesBackupSerializer {
                 playerScore.setPlayerNumber(Integer.parseInt(text));
                 break;
             case history:
-                playerScore.setHistory(Delta.fromJoinedScores(getTextOrNullOrEmpty(attributes, text)));
+                playerScore.setHistory(DeltaHistory.fromJoinedScores(getTextOrNullOrEmpty(attributes, text)));
                 break;
             case historyTimestamps:
                 // update the existing list; assume this tag always comes after the "history" tag
                 List<Long> timestamps = CollectionUtil.stringsToLongs(
                         StringUtil.split(getTextOrNullOrEmpty(attributes, text), ','));
                 for (int i = 0, len = playerScore.getHistory().size(); i < len; i++) {
-                    playerScore.getHistory().get(i).setTimestamp(timestamps.get(i));
+                    playerScore.getHistory().setTimestamp(i, timestamps.get(i));
                 }
                 break;
             case color:
@@ -325,59 +413,102 @@ public class GamesBackupSerializer {
         return text;
     }
 
+    /**
+     * Serialize the backup to a String.  Keeps the whole document in memory, so it's only suitable for small
+     * backups; use {@link #serialize(GamesBackup, Iterator, OutputStream)} to write a backup file.
+     * 
+     * @param gamesBackup
+     * @return
+     */
     public static String serialize(GamesBackup gamesBackup) {
-        String rawXml = serializeAsRawXml(gamesBackup);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            serialize(gamesBackup, gamesBackup.getGames().iterator(), outputStream);
+            return outputStream.toString("UTF-8");
+        } catch (IOException e) {
+            // should never happen
+            throw new RuntimeException(e);
+        }
+    }
 
-        // pretty-print the xml
-        return XmlHelper.prettyPrint(rawXml);
+    /**
+     * Write the backup in the given format, which is binary for {@link Format#BINARY} and XML otherwise.  Zipping
+     * is left to the caller.
+     * 
+     * @param gamesBackup
+     * @param games
+     * @param outputStream
+     * @param format
+     * @throws IOException
+     */
+    public static void serialize(GamesBackup gamesBackup, Iterator<Game> games, OutputStream outputStream,
+            Format format) throws IOException {
+        if (format == Format.BINARY) {
+            BinaryGamesBackupSerializer.serialize(gamesBackup, games, outputStream);
+        } else {
+            serialize(gamesBackup, games, outputStream);
+        }
     }
 
-    private static String serializeAsRawXml(GamesBackup gamesBackup) {
+    /**
+     * Write the backup as indented XML straight to the given stream, pulling the games from the iterator one at a
+     * time, so that the backup never has to be held in memory.  Only the header fields of the GamesBackup (version,
+     * game count, etc.) are written; its list of games is ignored.  Afterwards its game count is set to the number
+     * of games that were actually written.
+     * 
+     * @param gamesBackup
+     * @param games
+     * @param outputStream
+     *            not closed by this method
+     * @throws IOException
+     */
+    public static void serialize(GamesBackup gamesBackup, Iterator<Game> games, OutputStream outputStream)
+            throws IOException {
         XmlSerializer serializer = Xml.newSerializer();
 
-        StringWriter writer = new StringWriter();
-        try {
-            serializer.setOutput(writer);
-            serializer.startDocument("UTF-8", true);
-            serializer.startTag("", Tag.GamesBackup.name());
-            addTag(serializer, Tag.gameCount, gamesBackup.getGameCount());
-            addTag(serializer, Tag.version, gamesBackup.getVersion());
-            addTag(serializer, Tag.automatic, gamesBackup.isAutomatic());
-            addTag(serializer, Tag.backupFilename, gamesBackup.getFilename());
-            addTag(serializer, Tag.dateBackupSaved, gamesBackup.getDateSaved());
-            serializer.startTag("", Tag.Games.name());
-            for (Game game : gamesBackup.getGames()) {
-                serializer.startTag("", Tag.Game.name());
-                addTag(serializer, Tag.dateGameSaved, game.getDateSaved());
-                addTag(serializer, Tag.dateGameStarted, game.getDateStarted());
-                addTag(serializer, Tag.gameName, game.getName());
-
-                serializer.startTag("", Tag.PlayerScores.name());
-                for (PlayerScore playerScore : game.getPlayerScores()) {
-                    serializer.startTag("", Tag.PlayerScore.name());
-
-                    addTag(serializer, Tag.playerName, playerScore.getName());
-                    addTag(serializer, Tag.score, playerScore.getScore());
-                    addTag(serializer, Tag.playerNumber, playerScore.getPlayerNumber());
-                    Pair<String,String> historyAsStrings = Delta.toJoinedStrings(playerScore.getHistory());
-                    addTag(serializer, Tag.history, historyAsStrings.getFirst());
-                    addTag(serializer, Tag.historyTimestamps, historyAsStrings.getSecond());
-                    addTag(serializer, Tag.lastUpdate, Long.toString(playerScore.getLastUpdate()));
-                    addTag(serializer, Tag.color, PlayerColor.serialize(playerScore.getPlayerColor()));
-
-                    serializer.endTag("", Tag.PlayerScore.name());
-                }
-                serializer.endTag("", Tag.PlayerScores.name());
-                serializer.endTag("", Tag.Game.name());
+        serializer.setOutput(outputStream, "UTF-8");
+        serializer.startDocument("UTF-8", true);
+        startTag(serializer, Tag.GamesBackup, 0);
+        addTag(serializer, Tag.gameCount, gamesBackup.getGameCount(), 1);
+        addTag(serializer, Tag.version, gamesBackup.getVersion(), 1);
+        addTag(serializer, Tag.automatic, gamesBackup.isAutomatic(), 1);
+        addTag(serializer, Tag.backupFilename, gamesBackup.getFilename(), 1);
+        addTag(serializer, Tag.dateBackupSaved, gamesBackup.getDateSaved(), 1);
+        startTag(serializer, Tag.Games, 1);
+        int gameCount = 0;
+        while (games.hasNext()) {
+            Game game = games.next();
+            gameCount++;
+            startTag(serializer, Tag.Game, 2);
+            addTag(serializer, Tag.dateGameSaved, game.getDateSaved(), 3);
+            addTag(serializer, Tag.dateGameStarted, game.getDateStarted(), 3);
+            addTag(serializer, Tag.gameName, game.getName(), 3);
+
+            startTag(serializer, Tag.PlayerScores, 3);
+            for (PlayerScore playerScore : game.getPlayerScores()) {
+                startTag(serializer, Tag.PlayerScore, 4);
+
+                addTag(serializer, Tag.playerName, playerScore.getName(), 5);
+                addTag(serializer, Tag.score, playerScore.getScore(), 5);
+                addTag(serializer, Tag.playerNumber, playerScore.getPlayerNumber(), 5);
+                Pair<String,String> historyAsStrings = DeltaHistory.toJoinedStrings(playerScore.getHistory());
+                addTag(serializer, Tag.history, historyAsStrings.getFirst(), 5);
+                addTag(serializer, Tag.historyTimestamps, historyAsStrings.getSecond(), 5);
+                addTag(serializer, Tag.lastUpdate, Long.toString(playerScore.getLastUpdate()), 5);
+                addTag(serializer, Tag.color, PlayerColor.serialize(playerScore.getPlayerColor()), 5);
+
+                endTag(serializer, Tag.PlayerScore, 4);
             }
-            serializer.endTag("", Tag.Games.name());
-            serializer.endTag("", Tag.GamesBackup.name());
-
-            serializer.endDocument();
-            return writer.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            endTag(serializer, Tag.PlayerScores, 3);
+            endTag(serializer, Tag.Game, 2);
         }
+        endTag(serializer, Tag.Games, 1);
+        endTag(serializer, Tag.GamesBackup, 0);
+        serializer.ignorableWhitespace("\n");
+
+        serializer.endDocument();
+        serializer.flush();
+        gamesBackup.setGameCount(gameCount);
     }
 
     /**
@@ -386,9 +517,12 @@ public class GamesBackupSerializer {
      * @param serializer
      * @param tag
      * @param value
+     * @param depth
+     *            for indentation
      * @throws IOException
      */
-    private static void addTag(XmlSerializer serializer, Tag tag, Object value) throws IOException {
+    private static void addTag(XmlSerializer serializer, Tag tag, Object value, int depth) throws IOException {
+        indent(serializer, depth);
         serializer.startTag("", tag.name());
         if (value == null) {
             // explicitly mark nulls with an attribute
@@ -401,6 +535,23 @@ public class GamesBackupSerializer {
         serializer.endTag("", tag.name());
     }
 
+    private static void startTag(XmlSerializer serializer, Tag tag, int depth) throws IOException {
+        indent(serializer, depth);
+        serializer.startTag("", tag.name());
+    }
+
+    private static void endTag(XmlSerializer serializer, Tag tag, int depth) throws IOException {
+        indent(serializer, depth);
+        serializer.endTag("", tag.name());
+    }
+
+    /**
+     * Start a new line indented to the given depth, two spaces per level, like the pretty-printer used to.
+     */
+    private static void indent(XmlSerializer serializer, int depth) throws IOException {
+        serializer.ignorableWhitespace(INDENT.substring(0, 1 + depth * 2));
+    }
+
     private static Map<String, String> getAttributes(XmlPullParser parser) {
         Map<String, String> attrs = new HashMap<String, String>();
         for (int i = 0; i < parser.getAttributeCount(); i++) {
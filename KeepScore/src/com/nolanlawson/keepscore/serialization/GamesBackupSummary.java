@@ -11,6 +11,7 @@ public class GamesBackupSummary {
         private int gameCount;
         private long dateSaved;
         private String filename;
+        private String baseFilename;
         private boolean automatic;
         private int version;
         
@@ -33,6 +34,12 @@ public class GamesBackupSummary {
         public void setFilename(String filename) {
             this.filename = filename;
         }
+        public String getBaseFilename() {
+            return baseFilename;
+        }
+        public void setBaseFilename(String baseFilename) {
+            this.baseFilename = baseFilename;
+        }
         public int getGameCount() {
                 return gameCount;
         }
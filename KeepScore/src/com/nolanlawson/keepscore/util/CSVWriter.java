@@ -0,0 +1,81 @@
+package com.nolanlawson.keepscore.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Write CSV-style files, as defined by http://en.wikipedia.org/wiki/Comma-separated_values
+ *
+ * Values are escaped straight into the underlying Writer, so nothing is allocated per line.
+ * @author nolan
+ *
+ */
+public class CSVWriter {
+
+    private Writer writer;
+    private boolean startOfLine = true;
+
+    /**
+     * @param writer
+     *            should be buffered, since values are written a piece at a time
+     */
+    public CSVWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Write the next value in the current line.  Null or empty values are left blank.
+     * @param value
+     * @throws IOException
+     */
+    public void write(CharSequence value) throws IOException {
+        writeSeparator();
+        if (value == null || value.length() == 0) {
+            return;
+        }
+        String str = value.toString();
+
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\r') {
+                writer.write(str, start, i - start);
+                if (c == '"') {
+                    writer.write("\"\"");
+                } // carriage returns are dropped
+                start = i + 1;
+            }
+        }
+        writer.write(str, start, str.length() - start);
+        writer.write('"');
+    }
+
+    public void write(long value) throws IOException {
+        writeSeparator();
+        writer.write('"');
+        writer.write(Long.toString(value));
+        writer.write('"');
+    }
+
+    /**
+     * Finish the current line.
+     * @throws IOException
+     */
+    public void endLine() throws IOException {
+        writer.write("\r\n");
+        startOfLine = true;
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeSeparator() throws IOException {
+        if (startOfLine) {
+            startOfLine = false;
+        } else {
+            writer.write(',');
+        }
+    }
+}
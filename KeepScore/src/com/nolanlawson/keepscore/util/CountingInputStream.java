@@ -0,0 +1,65 @@
+package com.nolanlawson.keepscore.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that keeps track of how many bytes have been read from it, e.g. for showing progress.
+ * 
+ * @author nolan
+ * 
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private long count;
+    private long mark;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Return the number of bytes read (or skipped) so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result != -1) {
+            count++;
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int result = super.read(buffer, offset, length);
+        if (result != -1) {
+            count += result;
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long result = super.skip(n);
+        count += result;
+        return result;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        super.mark(readLimit);
+        mark = count;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        super.reset();
+        count = mark;
+    }
+}
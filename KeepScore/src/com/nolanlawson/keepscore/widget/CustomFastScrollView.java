@@ -80,6 +80,9 @@ public class CustomFastScrollView extends FrameLayout
 
     private BaseAdapter mListAdapter;
 
+    // the list's own scroll listener, since this view takes the list's only slot
+    private OnScrollListener mOnScrollListener;
+
     private boolean mChangedBounds;
 
     public CustomFastScrollView(Context context) {
@@ -221,7 +224,18 @@ public class CustomFastScrollView extends FrameLayout
                 (int) pos.right, (int) pos.bottom);
     }
 
+    /**
+     * Set a listener to be told about the list's scrolling as well.  Use this rather than
+     * ListView.setOnScrollListener(), which would replace this view's own listener.
+     */
+    public void setOnScrollListener(OnScrollListener onScrollListener) {
+        mOnScrollListener = onScrollListener;
+    }
+
     public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScrollStateChanged(view, scrollState);
+        }
         /*if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
             mCurrentThumb.setState(STATE_UNPRESSED);
         }*/
@@ -230,6 +244,10 @@ public class CustomFastScrollView extends FrameLayout
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, 
             int totalItemCount) {
 
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+
         if (totalItemCount - visibleItemCount > 0 && !mDragging) {
             mThumbY = ((getHeight() - mThumbH) * firstVisibleItem) / (totalItemCount - visibleItemCount);
             if (mChangedBounds) {
@@ -1,8 +1,9 @@
 package com.nolanlawson.keepscore.widget;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -11,7 +12,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.text.Spannable;
 import android.text.SpannableString;
@@ -32,7 +32,7 @@ import android.widget.TextView;
 import com.nolanlawson.keepscore.R;
 import com.nolanlawson.keepscore.data.RecordedChange;
 import com.nolanlawson.keepscore.data.RecordedChange.Type;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.PlayerScore;
 import com.nolanlawson.keepscore.helper.ColorScheme;
 import com.nolanlawson.keepscore.helper.DialogHelper;
@@ -62,9 +62,9 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
 
     private static final UtilLogger log = new UtilLogger(PlayerView.class);
 
-    private static final Function<Delta, Integer> DELTA_TO_LENGTH_WITH_SIGN = Functions.chain(
-            Delta.GET_VALUE, Functions.INTEGER_TO_LENGTH_WITH_SIGN);
-    
+    // increments are cheap, so run them all in order on one background thread rather than one AsyncTask per tap
+    private static final ExecutorService incrementExecutor = Executors.newSingleThreadExecutor();
+
     private PlayerScore playerScore;
     
     // use atomic booleans because I'm paranoid and frankly don't understand
@@ -281,7 +281,13 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
     }
 
     private void increment(final int delta) {
-        new IncrementDeltaAsyncTask(delta).execute(((Void) null));
+        incrementExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                incrementInBackground(delta);
+            }
+        });
     }
 
     private void incrementInBackground(int value) {
@@ -290,43 +296,52 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
         long currentTime = System.currentTimeMillis();
         long lastIncrementedTime = lastIncremented.getAndSet(currentTime);
 
-        if (currentTime - lastIncrementedTime > getUpdateDelayInMs() || playerScore.getHistory().isEmpty()) {
+        // the background writer reads the history while synchronized on the PlayerScore
+        synchronized (playerScore) {
+            recordIncrement(value, currentTime, lastIncrementedTime);
+        }
+
+        shouldAutosave.set(true);
+
+        // this runnable updates the history after 10 seconds and makes the
+        // blibbet disappear
+        createDelayedHistoryUpdateTask();
+
+        // this runnable updates the history text view and the total score text
+        // view
+        handler.post(getUpdateViewsRunnable());
+    }
+
+    private void recordIncrement(int value, long currentTime, long lastIncrementedTime) {
+        // update the score first, so that the change recorder sees the finished change
+        playerScore.setScore(playerScore.getScore() + value);
+
+        DeltaHistory history = playerScore.getHistory();
+        if (currentTime - lastIncrementedTime > getUpdateDelayInMs() || history.isEmpty()) {
             log.d("it's been awhile");
-            Delta delta = new Delta(currentTime, value);
             // if it's been awhile since the last time we incremented
-            changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.AddNew, delta));
-            playerScore.getHistory().add(delta);
+            history.add(currentTime, value);
+            changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.AddNew, 
+                    currentTime, value));
         } else {
             log.d("it hasn't been awhile");
             // else just update the most recent history item
-            int lastIndex = playerScore.getHistory().size() - 1;
-            int newValue = playerScore.getHistory().get(lastIndex).getValue() + value;
+            int newValue = history.getLastValue() + value;
             if (newValue == 0) { // don't add "0" to the list; just delete the
                 // last history item
-                Delta deletedDelta = playerScore.getHistory().remove(lastIndex);
+                long deletedTimestamp = history.getLastTimestamp();
+                int deletedValue = history.removeLast();
                 changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.DeleteLastZero,
-                        deletedDelta));
+                        deletedTimestamp, deletedValue));
                 lastIncremented.set(0); // reset the lastIncremented time so we
                 // don't update the
                 // previous value later
             } else {
-                playerScore.getHistory().set(lastIndex, new Delta(currentTime, newValue));
+                history.setLast(currentTime, newValue);
                 changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.ModifyLast, 
-                        new Delta(currentTime, value)));
+                        currentTime, value));
             }
         }
-
-        playerScore.setScore(playerScore.getScore() + value);
-
-        shouldAutosave.set(true);
-
-        // this runnable updates the history after 10 seconds and makes the
-        // blibbet disappear
-        createDelayedHistoryUpdateTask();
-
-        // this runnable updates the history text view and the total score text
-        // view
-        handler.post(getUpdateViewsRunnable());
     }
 
     public void updateViews() {
@@ -354,10 +369,10 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
             // modifiable
             // show badge (blibbet)
             makeBadgeVisible();
-            Delta lastDelta = playerScore.getHistory().get(playerScore.getHistory().size() - 1);
-            badgeTextView.setText(IntegerUtil.toCharSequenceWithSign(lastDelta.getValue()));
+            int lastValue = playerScore.getHistory().getLastValue();
+            badgeTextView.setText(IntegerUtil.toCharSequenceWithSign(lastValue));
             badgeLinearLayout
-                    .setBackgroundResource(lastDelta.getValue() >= 0 ? getPositiveBadge() : R.drawable.badge_red_fade_out);
+                    .setBackgroundResource(lastValue >= 0 ? getPositiveBadge() : R.drawable.badge_red_fade_out);
 
             // update history text view now rather than later
             setHistoryTextLazily(playerScore.getHistory(), currentTime);
@@ -485,7 +500,7 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
         }
     }
 
-    private void setHistoryTextLazily(List<Delta> history, long currentTime) {
+    private void setHistoryTextLazily(DeltaHistory history, long currentTime) {
         Integer hash = historyHash(history, currentTime);
         if (!hash.equals(historyTextView.getTag())) {
             // need to redraw the history
@@ -502,41 +517,41 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
      * @param currentTime
      * @return
      */
-    private int historyHash(List<Delta> history, long currentTime) {
-        List<Delta> historyToShow = historyToShow(history, currentTime);
+    private int historyHash(DeltaHistory history, long currentTime) {
+        int numToShow = numHistoryEntriesToShow(history, currentTime);
         // hash code implementation copied from java.util.Arrays (just the values, not the timestamps)
-        if (historyToShow.isEmpty()) {
+        if (numToShow == 0) {
             return 0;
         }
         
         int result = 1;
-        for (Delta delta : historyToShow) {
-            result = 31 * result + delta.getValue();
+        for (int i = 0; i < numToShow; i++) {
+            result = 31 * result + history.getValue(i);
         }
         return result;
     }
 
     /**
-     * Part of the history that can be shown in the little window, i.e.
+     * Number of history entries that can be shown in the little window, i.e.
      * everything but the badge
      * 
      * @param history
      * @param currentTime
      * @return
      */
-    private List<Delta> historyToShow(List<Delta> history, long currentTime) {
+    private int numHistoryEntriesToShow(DeltaHistory history, long currentTime) {
 
         boolean stillModifiable = currentTime < (lastIncremented.get() + getUpdateDelayInMs());
 
         if (history == null || history.isEmpty() || (stillModifiable && history.size() <= 1)) {
-            return Collections.emptyList();
+            return 0;
         }
 
         if (stillModifiable) {
             // last element is shown as the badge, so don't show it here
-            return history.subList(0, history.size() - 1);
+            return history.size() - 1;
         }
-        return history;
+        return history.size();
     }
 
     /**
@@ -545,26 +560,31 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
      * 
      * @param currentTime
      */
-    private Spannable fromHistory(List<Delta> history, long currentTime) {
+    private Spannable fromHistory(DeltaHistory history, long currentTime) {
 
-        history = historyToShow(history, currentTime);
+        int numToShow = numHistoryEntriesToShow(history, currentTime);
 
-        if (history.isEmpty()) {
+        if (numToShow == 0) {
             return null;
         }
 
-        history = CollectionUtil.reversedCopy(history);
-
         // if e.g. there is a double-digit delta (e.g. "+10"), then all other
         // strings need to be padded
         // so that they line up correctly
         // but ensure there's always at least enough space for 3 chars (e.g.
         // '+10'), because
         // I think it looks nicer and more consistent with most games
-        int maxChars = Math.max(MIN_NUM_HISTORY_CHARS,
-                CollectionUtil.maxValue(history, DELTA_TO_LENGTH_WITH_SIGN));
+        int maxChars = MIN_NUM_HISTORY_CHARS;
+        for (int i = 0; i < numToShow; i++) {
+            maxChars = Math.max(maxChars, Functions.INTEGER_TO_LENGTH_WITH_SIGN.apply(history.getValue(i)));
+        }
 
-        List<Spannable> spannables = CollectionUtil.transform(history, historyToSpan(maxChars));
+        // most recent first
+        Function<Integer, Spannable> historyToSpan = historyToSpan(maxChars);
+        List<Spannable> spannables = new ArrayList<Spannable>(numToShow);
+        for (int i = numToShow - 1; i >= 0; i--) {
+            spannables.add(historyToSpan.apply(history.getValue(i)));
+        }
 
         Spannable result = new SpannableString(StringUtil.joinSpannables("\n",
                 CollectionUtil.toArray(spannables, Spannable.class)));
@@ -574,18 +594,17 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
     }
 
     // I don't expect most delta strings to exceed 4 characters, e.g. "+100"
-    private SparseArray<Function<Delta, Spannable>> historyToSpanLookup = 
-            new SparseArray<CollectionUtil.Function<Delta,Spannable>>(4);
+    private SparseArray<Function<Integer, Spannable>> historyToSpanLookup = 
+            new SparseArray<CollectionUtil.Function<Integer,Spannable>>(4);
     
-    private Function<Delta, Spannable> historyToSpan(final int maxChars) {
+    private Function<Integer, Spannable> historyToSpan(final int maxChars) {
         
-        Function<Delta, Spannable> function = historyToSpanLookup.get(maxChars);
+        Function<Integer, Spannable> function = historyToSpanLookup.get(maxChars);
         if (function == null) {
-            function = new Function<Delta, Spannable>() {
+            function = new Function<Integer, Spannable>() {
 
                 @Override
-                public Spannable apply(Delta delta) {
-                    int value = delta.getValue();
+                public Spannable apply(Integer value) {
                     int colorResId = (value >= 0) ? positiveTextColor : negativeTextColor;
                     ForegroundColorSpan colorSpan = new ForegroundColorSpan(context.getResources().getColor(colorResId));
                     CharSequence str = IntegerUtil.toCharSequenceWithSign(value);
@@ -664,11 +683,11 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
         // this is designed for people playing a game like hearts, where there
         // may be a round
         // with no points for a particular player
-        synchronized (lock) {
-            Delta delta = new Delta(System.currentTimeMillis(), 0);
+        synchronized (playerScore) {
+            long currentTime = System.currentTimeMillis();
+            playerScore.getHistory().add(currentTime, 0);
             changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.AddNew, 
-                    delta));
-            playerScore.getHistory().add(delta);
+                    currentTime, 0));
         }
 
         lastIncremented.set(0); // reset last incremented
@@ -679,13 +698,15 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
 
     private void deleteLast() {
 
-        synchronized (lock) {
-            List<Delta> history = playerScore.getHistory();
+        synchronized (playerScore) {
+            DeltaHistory history = playerScore.getHistory();
             // undo the last history items
             if (history != null && !history.isEmpty()) {
-                Delta removed = history.remove((int) (history.size() - 1));
-                playerScore.setScore(playerScore.getScore() - removed.getValue());
-                changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.DeleteLast, removed));
+                long removedTimestamp = history.getLastTimestamp();
+                int removedValue = history.removeLast();
+                playerScore.setScore(playerScore.getScore() - removedValue);
+                changeRecorder.onCallback(new RecordedChange(playerScore.getPlayerNumber(), Type.DeleteLast, 
+                        removedTimestamp, removedValue));
             }
         }
         lastIncremented.set(0); // reset lastIncremented
@@ -713,10 +734,10 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
     }
 
     public void reset(Context context) {
-        synchronized (lock) {
+        synchronized (playerScore) {
             playerScore.setScore(PreferenceHelper.getIntPreference(R.string.CONSTANT_pref_initial_score,
                     R.string.CONSTANT_pref_initial_score_default, context));
-            playerScore.setHistory(new ArrayList<Delta>());
+            playerScore.setHistory(new DeltaHistory());
         }
         lastIncremented.set(0);
         shouldAutosave.set(true);
@@ -787,48 +808,46 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
     }
 
     public void revertChange(RecordedChange recordedChange) {
-        synchronized (lock) {
+        synchronized (playerScore) {
 
+            DeltaHistory history = playerScore.getHistory();
             switch (recordedChange.getType()) {
                 case AddNew:
-                    playerScore.getHistory().remove(playerScore.getHistory().size() - 1);
-                    playerScore.setScore(playerScore.getScore() - recordedChange.getDelta().getValue());
+                    history.removeLast();
+                    playerScore.setScore(playerScore.getScore() - recordedChange.getValue());
                     break;
                 case DeleteLast:
                 case DeleteLastZero:
-                    playerScore.getHistory().add(recordedChange.getDelta());
-                    playerScore.setScore(playerScore.getScore() + recordedChange.getDelta().getValue());
+                    history.add(recordedChange.getTimestamp(), recordedChange.getValue());
+                    playerScore.setScore(playerScore.getScore() + recordedChange.getValue());
                     break;
                 case ModifyLast:
                 default:
-                    int lastIdx = playerScore.getHistory().size() - 1;
-                    Delta lastDelta = playerScore.getHistory().get(lastIdx);
-                    lastDelta.setValue(lastDelta.getValue() - recordedChange.getDelta().getValue());
-                    playerScore.setScore(playerScore.getScore() - recordedChange.getDelta().getValue());
+                    history.setLast(history.getLastTimestamp(), history.getLastValue() - recordedChange.getValue());
+                    playerScore.setScore(playerScore.getScore() - recordedChange.getValue());
                     break;
             }
         }
     }
 
     public void reexecuteChange(RecordedChange recordedChange) {
-        synchronized (lock) {
+        synchronized (playerScore) {
 
+            DeltaHistory history = playerScore.getHistory();
             switch (recordedChange.getType()) {
                 case AddNew:
-                    playerScore.getHistory().add(recordedChange.getDelta());
-                    playerScore.setScore(playerScore.getScore() + recordedChange.getDelta().getValue());
+                    history.add(recordedChange.getTimestamp(), recordedChange.getValue());
+                    playerScore.setScore(playerScore.getScore() + recordedChange.getValue());
                     break;
                 case DeleteLast:
                 case DeleteLastZero:
-                    playerScore.getHistory().remove(playerScore.getHistory().size() - 1);
-                    playerScore.setScore(playerScore.getScore() - recordedChange.getDelta().getValue());
+                    history.removeLast();
+                    playerScore.setScore(playerScore.getScore() - recordedChange.getValue());
                     break;
                 case ModifyLast:
                 default:
-                    int lastIdx = playerScore.getHistory().size() - 1;
-                    Delta lastDelta = playerScore.getHistory().get(lastIdx);
-                    lastDelta.setValue(lastDelta.getValue() + recordedChange.getDelta().getValue());
-                    playerScore.setScore(playerScore.getScore() + recordedChange.getDelta().getValue());
+                    history.setLast(history.getLastTimestamp(), history.getLastValue() + recordedChange.getValue());
+                    playerScore.setScore(playerScore.getScore() + recordedChange.getValue());
                     break;
             }
         }
@@ -856,22 +875,6 @@ public class PlayerView implements OnClickListener, OnLongClickListener {
         }
     }
 
-    private class IncrementDeltaAsyncTask extends AsyncTask<Void, Void, Void> {
-
-        private int delta;
-
-        public IncrementDeltaAsyncTask(int delta) {
-            this.delta = delta;
-        }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-            incrementInBackground(delta);
-            return null;
-        }
-
-    }
-
     public void resetLastIncremented() {
         lastIncremented.set(0);
     }
@@ -0,0 +1,91 @@
+package com.nolanlawson.keepscore.widget.chart;
+
+import java.util.List;
+
+/**
+ * Picks out the points of a line that are worth drawing when there are more of them than can actually be seen,
+ * using the "largest triangle three buckets" algorithm from Sveinn Steinarsson's thesis "Downsampling Time Series
+ * for Visual Representation."  The points are split into buckets, and from each bucket we keep the point that forms
+ * the largest triangle with the point kept from the previous bucket and the average of the next bucket, which keeps
+ * the peaks and troughs that give the line its shape.
+ *
+ * The data points are assumed to be evenly spaced along the x axis, as they are in a LineChartLine.
+ *
+ * @author nolan
+ *
+ */
+public class Downsampler {
+
+    /**
+     * Return the indexes of the data points to keep, in order.  The first and last points are always kept.
+     *
+     * @param dataPoints
+     * @param threshold
+     *            the number of points to keep; if there are already no more than this many, or it's less than 3,
+     *            all of them are kept
+     * @return
+     */
+    public static int[] downsample(List<Integer> dataPoints, int threshold) {
+
+        int len = dataPoints.size();
+
+        if (threshold >= len || threshold < 3) {
+            int[] result = new int[len];
+            for (int i = 0; i < len; i++) {
+                result[i] = i;
+            }
+            return result;
+        }
+
+        int[] result = new int[threshold];
+        int resultIdx = 0;
+
+        // the first and last points get buckets of their own
+        double bucketSize = (double) (len - 2) / (threshold - 2);
+
+        int a = 0;
+        result[resultIdx++] = a;
+
+        for (int i = 0; i < threshold - 2; i++) {
+
+            // average of the next bucket
+            int avgRangeStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+            int avgRangeEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, len);
+
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgRangeStart; j < avgRangeEnd; j++) {
+                avgX += j;
+                avgY += dataPoints.get(j);
+            }
+            avgX /= (avgRangeEnd - avgRangeStart);
+            avgY /= (avgRangeEnd - avgRangeStart);
+
+            // the point in this bucket making the largest triangle with the last kept point and that average
+            int rangeStart = (int) Math.floor(i * bucketSize) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * bucketSize) + 1;
+
+            double pointAX = a;
+            double pointAY = dataPoints.get(a);
+
+            double maxArea = -1;
+            int nextA = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                // twice the area, which is fine for comparing
+                double area = Math.abs((pointAX - avgX) * (dataPoints.get(j) - pointAY)
+                        - (pointAX - j) * (avgY - pointAY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    nextA = j;
+                }
+            }
+
+            result[resultIdx++] = nextA;
+            a = nextA;
+        }
+
+        result[resultIdx++] = len - 1;
+
+        return result;
+    }
+}
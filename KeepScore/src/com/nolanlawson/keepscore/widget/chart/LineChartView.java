@@ -1,15 +1,15 @@
 package com.nolanlawson.keepscore.widget.chart;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.graphics.Paint.Style;
+import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.util.AttributeSet;
@@ -22,9 +22,14 @@ import com.nolanlawson.keepscore.util.UtilLogger;
 
 /**
  * Basic View for drawing line graphs. Uses some basic color defaults.
- * 
+ *
+ * Everything is laid out in pixels up front whenever the data, the zoom level, or the height changes, so that
+ * drawing a frame (e.g. while scrolling through a long game) just means drawing the cached paths, without any
+ * arithmetic or allocation.  Only the part of the chart that's actually on screen gets drawn, and when zoomed out
+ * so far that the points are closer together than the lines are wide, each line is downsampled first.
+ *
  * @author nolan
- * 
+ *
  */
 public class LineChartView extends View {
 
@@ -38,21 +43,27 @@ public class LineChartView extends View {
             R.color.chart_line_07,
             R.color.chart_line_08
             );
-    
+
     private static final double X_AXIS_LABEL_PADDING_TOP_RATIO = 0.1;
     private static final double X_AXIS_LABEL_PADDING_BOTTOM_RATIO = 1.0;
     private static final int MIN_INTERVAL = 5;  // round to nearest five
-	private static final List<Integer> INTERVAL_ROUNDING_POINTS = Arrays.asList(5, 10, 50, 100, 1000); // possible roundings
+	private static final int[] INTERVAL_ROUNDING_POINTS = {5, 10, 50, 100, 1000}; // possible roundings
+	// below this zoom level, only every few data points get a grid line and an x axis label
+	private static final float MIN_ZOOM_LEVEL_FOR_EVERY_GRID_LINE = 0.1F;
+	// any more detail than this is lost in the thickness of the line
+	private static final int POINTS_PER_LINE_WIDTH = 2;
+	// each line is split up into paths of this many segments, so that the ones off screen can be skipped
+	private static final int SEGMENTS_PER_PATH = 64;
 
 	private static UtilLogger log = new UtilLogger(LineChartView.class);
-	
+
 	private List<Integer> lineColors = CollectionUtil.transform(DEFAULT_LINE_COLORS, new Function<Integer, Integer>(){
         @Override
         public Integer apply(Integer colorId) {
             return getColor(colorId);
         }
 	});
-	
+
 	private boolean drawDots;
 	private List<String> xAxisLabels;
 	private Paint mainPaint;
@@ -62,21 +73,48 @@ public class LineChartView extends View {
 	private List<Paint> linePaints;
 	private List<Paint> lineLabelPaints;
 
-	private Rect bounds = new Rect();
-	
 	// values determined by the data
 	private List<LineChartLine> data;
+	private int maxNumDataPoints;
 	private int minDataPoint;
 	private int maxDataPoint;
+	private String minDataPointLabel;
+	private String maxDataPointLabel;
 	private int labelTextHeight;
 	private int yAxisLabelWidth;
 	private int legendWidth;
 	private int legendTextHeight;
+	private int[] legendLabelYs;
+	private Map<Float, int[][]> downsampledIndexesByZoomLevel = new HashMap<Float, int[][]>();
 	private int mainChartAreaWidth;
 	private int xAxisAddedWidth;
 	private int xAxisLabelPaddingTop;
 	private int xAxisLabelPaddingBottom;
-	
+
+	// values determined by the data, the zoom level, and the height, in pixels
+	private boolean layoutValid;
+	private int laidOutHeight;
+	private int yAxisLabelX;
+	private int mainChartAreaX;
+	private int mainChartAreaRight;
+	private int mainChartAreaBottom;
+	private int xAxisLabelY;
+	private int[] intervalPoints;
+	private String[] intervalPointLabels;
+	private int[] intervalPointYs;
+	private int numIntervalPointLabels;
+	private int gridStep;
+	private float[] verticalGridLines;
+	private int numVerticalGridLines;
+	private Path[][] linePaths;
+	private float[][] linePathLefts;
+	private float[][] linePathRights;
+	private float[][] dotXs;
+	private float[][] dotYs;
+	private int[] numDots;
+
+	private Rect clipBounds = new Rect();
+
 	// values taken from dimensions.xml
 	private int chartPadding;
 	private int itemWidth;
@@ -85,7 +123,7 @@ public class LineChartView extends View {
 	private int fontSize;
 	private int lineWidth;
 	private int xAxisLabelFontSize;
-	
+
 	public LineChartView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
 		init(attrs);
@@ -100,22 +138,24 @@ public class LineChartView extends View {
 		super(context);
 		init(null);
 	}
-	
+
 	public void setZoomLevel(float zoomLevel) {
 	    this.zoomLevel = zoomLevel;
 	    determineMainChartAreaWidth();
+	    layoutValid = false;
 	}
-	
+
 	public float getZoomLevel() {
 	    return zoomLevel;
 	}
-	
+
 	public List<Integer> getLineColors() {
         return lineColors;
     }
 
     public void setLineColors(List<Integer> lineColors) {
         this.lineColors = lineColors;
+        updatePaints();
     }
 
     public List<String> getxAxisLabels() {
@@ -124,6 +164,7 @@ public class LineChartView extends View {
 
     public void setxAxisLabels(List<String> xAxisLabels) {
         this.xAxisLabels = xAxisLabels;
+        layoutValid = false;
     }
 
     public boolean isDrawDots() {
@@ -132,15 +173,16 @@ public class LineChartView extends View {
 
     public void setDrawDots(boolean drawDots) {
         this.drawDots = drawDots;
+        layoutValid = false;
     }
 
     private int getColor(int colorId) {
 	    return getContext().getResources().getColor(colorId);
 	}
-	
-	private int getItemWidth() {
-	    // varies depending on the zoom level
-	    return Math.max(1, Math.round(itemWidth * zoomLevel));
+
+	private float getItemWidth() {
+	    // varies depending on the zoom level, and may be less than a pixel when zoomed all the way out
+	    return itemWidth * zoomLevel;
 	}
 
 	private void init(AttributeSet attrs) {
@@ -156,10 +198,10 @@ public class LineChartView extends View {
 				R.dimen.chart_line_width);
 		xAxisLabelFontSize = getContext().getResources().getDimensionPixelSize(
                 R.dimen.chart_x_axis_label_font_size);
-		
+
 		xAxisLabelPaddingTop = (int)Math.max(1, Math.round(xAxisLabelFontSize * X_AXIS_LABEL_PADDING_TOP_RATIO));
 		xAxisLabelPaddingBottom = (int) Math.round(xAxisLabelFontSize * X_AXIS_LABEL_PADDING_BOTTOM_RATIO);
-		
+
 		if (attrs != null) {
             TypedArray typedArray = getContext().obtainStyledAttributes(attrs,
                     R.styleable.LineChart);
@@ -175,7 +217,7 @@ public class LineChartView extends View {
         xAxisLabelPaint.setColor(getColor(R.color.chart_main));
         xAxisLabelPaint.setTextSize(xAxisLabelFontSize);
         xAxisLabelPaint.setTypeface(Typeface.MONOSPACE);
-        
+
 		secondaryPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 		secondaryPaint.setColor(getColor(R.color.chart_secondary));
 		tertiaryPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -187,7 +229,7 @@ public class LineChartView extends View {
 
 	/**
 	 * Provide a list of data lines to draw in the chart
-	 * 
+	 *
 	 * @param dataPoints
 	 */
 	public void loadData(List<LineChartLine> data) {
@@ -197,6 +239,8 @@ public class LineChartView extends View {
 		determineLegendInfo();
 		determineXAxisAddedWidth();
 		determineMainChartAreaWidth();
+		downsampledIndexesByZoomLevel.clear();
+		layoutValid = false;
 		invalidate();
 	}
 
@@ -204,9 +248,12 @@ public class LineChartView extends View {
 
 		minDataPoint = 0;
 		maxDataPoint = 0;
+		maxNumDataPoints = 0;
 
 		for (LineChartLine line : data) {
-			for (Integer dataPoint : line.getDataPoints()) {
+			List<Integer> dataPoints = line.getDataPoints();
+			for (int i = 0, len = dataPoints.size(); i < len; i++) {
+				int dataPoint = dataPoints.get(i);
 				if (dataPoint < minDataPoint) {
 					minDataPoint = dataPoint;
 				}
@@ -214,13 +261,14 @@ public class LineChartView extends View {
 					maxDataPoint = dataPoint;
 				}
 			}
+			maxNumDataPoints = Math.max(maxNumDataPoints, dataPoints.size());
 		}
 
 		// in case they're both zero somehow
 		if (minDataPoint == maxDataPoint) {
 			maxDataPoint++;
 		}
-		
+
 		// round up/down to a multiple of 5
 		while (minDataPoint % MIN_INTERVAL != 0) {
 			minDataPoint--;
@@ -228,18 +276,18 @@ public class LineChartView extends View {
 		while (maxDataPoint % MIN_INTERVAL != 0) {
 			maxDataPoint++;
 		}
+
+		minDataPointLabel = Integer.toString(minDataPoint);
+		maxDataPointLabel = Integer.toString(maxDataPoint);
 	}
 
 	private void determineYAxisLabelInfo() {
-		String minText = Integer.toString(minDataPoint);
-		String maxText = Integer.toString(maxDataPoint);
-		
 		Rect maxRect = new Rect();
-		mainPaint.getTextBounds(maxText, 0, maxText.length(), maxRect);
-		
+		mainPaint.getTextBounds(maxDataPointLabel, 0, maxDataPointLabel.length(), maxRect);
+
 		Rect minRect = new Rect();
-		mainPaint.getTextBounds(minText, 0, minText.length(), minRect);
-		
+		mainPaint.getTextBounds(minDataPointLabel, 0, minDataPointLabel.length(), minRect);
+
 		yAxisLabelWidth = Math.max(maxRect.width(), minRect.width());
 		labelTextHeight = maxRect.height();
 	}
@@ -249,9 +297,12 @@ public class LineChartView extends View {
 		Rect rect = new Rect();
 		lineLabelPaints.get(0).getTextBounds("X",0,1, rect);
 		legendTextHeight = rect.height();
-		
-		// figure out the length of the longest text
+
+		// figure out the length of the longest text, and where each label goes
 		int maxTextWidth = 0;
+		int y = chartPadding + legendTextHeight;
+		int ySpacing = (legendTextHeight / 2);
+		legendLabelYs = new int[data.size()];
 		for (int i = 0; i < data.size(); i++) {
 			LineChartLine line = data.get(i);
 			Paint paint = lineLabelPaints.get(i % lineLabelPaints.size());
@@ -259,13 +310,15 @@ public class LineChartView extends View {
 			if (rect.width() > maxTextWidth) {
 				maxTextWidth = rect.width();
 			}
+			legendLabelYs[i] = y;
+			y += rect.height() + ySpacing;
 		}
-		
+
 		legendWidth = maxTextWidth;
 	}
 
 	private void determineXAxisAddedWidth() {
-	    
+
 	    // x axis labels are drawn with the left edge of the text at each vertical line, meaning that the final label
 	    // will be left dangling over the right edge of the chart
 	    if (xAxisLabels != null) {
@@ -273,25 +326,17 @@ public class LineChartView extends View {
 	        String longestExpectedText = "00:00:00"; // very rare for a game to last >100 hours! unless it's Axis & Allies
             Rect rect = new Rect();
             xAxisLabelPaint.getTextBounds(longestExpectedText, 0, longestExpectedText.length(), rect);
-        
+
             xAxisAddedWidth = rect.width();
 	    }
 	}
-	
+
 	private void determineMainChartAreaWidth() {
-		int maxNumDataPoints = 0;
-		for (LineChartLine line : data) {
-			int numDataPoints = line.getDataPoints().size();
-			if (numDataPoints > maxNumDataPoints) {
-				maxNumDataPoints = numDataPoints;
-			}
-		}
-		
-		mainChartAreaWidth =  ((maxNumDataPoints - 1) * getItemWidth());
-		
+		mainChartAreaWidth =  Math.round((maxNumDataPoints - 1) * getItemWidth());
+
 		log.d("recalculated mainChartAreaWidth to %d", mainChartAreaWidth);
 	}
-	
+
 	private void updatePaints() {
 	       linePaints = CollectionUtil.transform(lineColors,
 	                new Function<Integer, Paint>() {
@@ -302,12 +347,12 @@ public class LineChartView extends View {
 	                        paint.setColor(color);
 	                        paint.setStyle(Paint.Style.STROKE);
 	                        paint.setStrokeWidth(lineWidth);
-	                        paint.setStyle(Style.FILL_AND_STROKE);
+	                        paint.setStrokeJoin(Paint.Join.ROUND);
 	                        paint.setTextSize(fontSize);
 	                        return paint;
 	                    }
 	                });
-	        
+
 	        lineLabelPaints = CollectionUtil.transform(lineColors,
 	                new Function<Integer, Paint>() {
 
@@ -318,16 +363,154 @@ public class LineChartView extends View {
 	                        paint.setTextSize(fontSize);
 	                        return paint;
 	                    }
-	                });     
+	                });
 	}
-	
-	
 
-	@Override
-    public void invalidate() {
-        super.invalidate();
-        updatePaints();
-    }
+	/**
+	 * Work out where everything goes, in pixels.  Only needs to be redone when the data, the zoom level, or the
+	 * height changes.
+	 *
+	 * @param height the height of the view, minus padding
+	 */
+	private void layoutChart(int height) {
+
+		int offsetY = chartPadding;
+
+		yAxisLabelX = chartPadding + legendWidth + chartPadding; // pad on the right
+		mainChartAreaX = yAxisLabelX + yAxisLabelWidth + chartPadding; // pad on the right
+
+		int heightForNonXAxisLabelArea = height;
+		if (xAxisLabels != null) {
+			heightForNonXAxisLabelArea -= (labelTextHeight + xAxisLabelPaddingTop + xAxisLabelPaddingBottom);
+		}
+		xAxisLabelY = offsetY + height - xAxisLabelPaddingBottom;
+
+		layoutIntervalPoints(height, heightForNonXAxisLabelArea, offsetY);
+
+		float pointSpacing = getItemWidth();
+		mainChartAreaRight = mainChartAreaX + mainChartAreaWidth;
+		mainChartAreaBottom = heightForNonXAxisLabelArea + offsetY;
+
+		// one vertical grid line between each data point (or every few data points, if they're too close
+		// together), as x0, y0, x1, y1 for drawLines()
+		gridStep = Math.max(1, Math.round(itemWidth * MIN_ZOOM_LEVEL_FOR_EVERY_GRID_LINE / pointSpacing));
+		numVerticalGridLines = Math.max(0, (maxNumDataPoints - 2) / gridStep);
+		verticalGridLines = new float[numVerticalGridLines * 4];
+		for (int i = 0; i < numVerticalGridLines; i++) {
+			float x = mainChartAreaX + ((i + 1) * gridStep * pointSpacing);
+			verticalGridLines[i * 4] = x;
+			verticalGridLines[(i * 4) + 1] = offsetY;
+			verticalGridLines[(i * 4) + 2] = x;
+			verticalGridLines[(i * 4) + 3] = mainChartAreaBottom;
+		}
+
+		int[][] downsampledIndexes = getDownsampledIndexes();
+		linePaths = new Path[data.size()][];
+		linePathLefts = new float[data.size()][];
+		linePathRights = new float[data.size()][];
+		dotXs = new float[data.size()][];
+		dotYs = new float[data.size()][];
+		numDots = new int[data.size()];
+		for (int i = 0; i < data.size(); i++) {
+			layoutLine(i, downsampledIndexes[i], heightForNonXAxisLabelArea, offsetY, pointSpacing);
+		}
+
+		laidOutHeight = height;
+		layoutValid = true;
+	}
+
+	private void layoutIntervalPoints(int height, int heightForNonXAxisLabelArea, int offsetY) {
+		intervalPoints = determineIntervalPoints(height);
+		intervalPointLabels = new String[intervalPoints.length];
+		intervalPointYs = new int[intervalPoints.length];
+		numIntervalPointLabels = intervalPoints.length;
+
+		for (int i = 0; i < intervalPoints.length; i++) {
+			intervalPointLabels[i] = Integer.toString(intervalPoints[i]);
+			intervalPointYs[i] = getYLocationForIntervalPoint(intervalPoints[i], heightForNonXAxisLabelArea);
+
+			// make sure it doesn't overlap with the top one, which it can because of the font size itself
+			if (i == intervalPoints.length - 1) {
+				int topOfText = offsetY + intervalPointYs[i] - labelTextHeight;
+				if (topOfText < offsetY + labelTextHeight) {
+					numIntervalPointLabels = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the indexes of the data points in each line that are worth drawing at the current zoom level, which
+	 * are worked out once per zoom level.
+	 */
+	private int[][] getDownsampledIndexes() {
+		int[][] result = downsampledIndexesByZoomLevel.get(zoomLevel);
+		if (result == null) {
+			int numColumns = Math.max(1, mainChartAreaWidth / Math.max(1, lineWidth));
+			int threshold = numColumns * POINTS_PER_LINE_WIDTH;
+
+			result = new int[data.size()][];
+			for (int i = 0; i < data.size(); i++) {
+				result[i] = Downsampler.downsample(data.get(i).getDataPoints(), threshold);
+			}
+			downsampledIndexesByZoomLevel.put(zoomLevel, result);
+			log.d("downsampled to %d points per line for zoom level %s", threshold, zoomLevel);
+		}
+		return result;
+	}
+
+	private void layoutLine(int lineIdx, int[] indexes, int height, int offsetY, float pointSpacing) {
+		List<Integer> dataPoints = data.get(lineIdx).getDataPoints();
+		int len = dataPoints.size();
+
+		int numPaths = Math.max(1, (indexes.length + SEGMENTS_PER_PATH - 2) / SEGMENTS_PER_PATH);
+		Path[] paths = linePaths[lineIdx] = new Path[numPaths];
+		float[] pathLefts = linePathLefts[lineIdx] = new float[numPaths];
+		float[] pathRights = linePathRights[lineIdx] = new float[numPaths];
+		float[] xs = dotXs[lineIdx] = new float[indexes.length];
+		float[] ys = dotYs[lineIdx] = new float[indexes.length];
+		int dotCount = 0;
+
+		for (int i = 0; i < numPaths; i++) {
+			paths[i] = new Path();
+		}
+
+		float previousDataPointX = 0;
+		float previousDataPointY = 0;
+		for (int k = 0; k < indexes.length; k++) {
+			int j = indexes[k];
+			int dataPoint = dataPoints.get(j);
+			float dataPointX = mainChartAreaX + (j * pointSpacing);
+			float dataPointY = offsetY
+					+ (int) Math.round(height - (((1.0 * dataPoint - minDataPoint) / (maxDataPoint - minDataPoint)) * height));
+
+			if (drawDots || j == 0 || j == len - 1
+					|| dataPoint != dataPoints.get(j - 1) || dataPoint != dataPoints.get(j + 1)) {
+				// I decided "drawDots" means "always draw dots", whereas "!drawDots" means "draw
+				// dots only if a value changed."  TODO: rename/refactor/re-unfuckify this wording
+				xs[dotCount] = dataPointX;
+				ys[dotCount] = dataPointY;
+				dotCount++;
+			}
+
+			if (k == 0) {
+				pathLefts[0] = pathRights[0] = dataPointX;
+			} else {
+				// draw a line to the last data point, starting a new path every so often
+				int pathIdx = (k - 1) / SEGMENTS_PER_PATH;
+				if ((k - 1) % SEGMENTS_PER_PATH == 0) {
+					paths[pathIdx].moveTo(previousDataPointX, previousDataPointY);
+					pathLefts[pathIdx] = previousDataPointX;
+				}
+				paths[pathIdx].lineTo(dataPointX, dataPointY);
+				pathRights[pathIdx] = dataPointX;
+			}
+
+			previousDataPointX = dataPointX;
+			previousDataPointY = dataPointY;
+		}
+		numDots[lineIdx] = dotCount;
+	}
 
     @Override
 	public void onDraw(Canvas canvas) {
@@ -335,49 +518,39 @@ public class LineChartView extends View {
 			return;
 		}
 
-		canvas.getClipBounds(bounds);
+		int height = getHeight() - (chartPadding * 2);
 
-		int height = bounds.bottom - (chartPadding * 2);
-		
-		// initial padding
-		int offsetY = chartPadding;
-		int offsetX = chartPadding;
-		
-		drawLegendArea(canvas, height, offsetX, offsetY);
-		
-		offsetX += legendWidth + chartPadding; //  pad on the right
-		
-		List<Integer> intervalPoints = determineIntervalPoints(canvas, height);
-		
-		int heightForNonXAxisLabelArea = height;
-		if (xAxisLabels != null) {
-		    heightForNonXAxisLabelArea -= (labelTextHeight + xAxisLabelPaddingTop + xAxisLabelPaddingBottom);
+		// only the part that's scrolled into view needs to be drawn
+		canvas.getClipBounds(clipBounds);
+
+		if (!layoutValid || height != laidOutHeight) {
+			layoutChart(height);
 		}
-		
-		drawYAxisLabel(canvas, heightForNonXAxisLabelArea, offsetX, offsetY, intervalPoints);
-		
-		offsetX += yAxisLabelWidth + chartPadding; // pad on the right
-		
+
+		drawLegendArea(canvas);
+
+		drawYAxisLabel(canvas);
+
 		if (xAxisLabels != null) {
-		    drawXAxisLabel(canvas, height, offsetX, offsetY, intervalPoints);
+		    drawXAxisLabel(canvas);
 		}
-		
-		drawMainChartArea(canvas, heightForNonXAxisLabelArea, offsetX, offsetY, intervalPoints);
+
+		drawMainChartArea(canvas);
 
 	}
 
-	private List<Integer> determineIntervalPoints(Canvas canvas, int height) {
+	private int[] determineIntervalPoints(int height) {
 		// interval points are the points on the Y axis between the min and max values.
 		// It makes the chart easier to read
-		
-		
+
+
 		// determine how many intervals we can fit in here, e.g. round to 5, round to 10, round to 50...
-		
+
 		int pixelHeight = height - (3 * labelTextHeight); // assume 0.5 padding for the min and max labels
-		for (Integer interval : INTERVAL_ROUNDING_POINTS) {
-			
+		for (int interval : INTERVAL_ROUNDING_POINTS) {
+
 			int firstInterval = minDataPoint + (interval - (Math.abs(minDataPoint % interval)));
-			
+
 			int numIntervals = 0;
 			for (int i = firstInterval; i < maxDataPoint; i+= interval) {
 				numIntervals++;
@@ -385,180 +558,134 @@ public class LineChartView extends View {
 			int pixelHeightRequired = (int)Math.round((0.5 * labelTextHeight) + (1.5 * labelTextHeight * numIntervals));
 			if (pixelHeightRequired <= pixelHeight) {
 				// use this interval length
-				List<Integer> result = new ArrayList<Integer>();
-				for (int i = firstInterval; i < maxDataPoint; i+= interval) {
-					result.add(i);
+				int[] result = new int[numIntervals];
+				for (int i = 0; i < numIntervals; i++) {
+					result[i] = firstInterval + (i * interval);
 				}
 				return result;
 			}
 		}
-		
-		return Collections.emptyList();
+
+		return new int[0];
 	}
 
 	/**
-	 * Draw the x axis labels and return the height used.
+	 * Draw the x axis labels that are in view.
 	 * @param canvas
-	 * @param height
-	 * @param offsetX
-	 * @param offsetY
-	 * @param intervalPoints
 	 */
-	private void drawXAxisLabel(Canvas canvas, int height, int offsetX, int offsetY, List<Integer> intervalPoints) {
-	    
-	    int dataPointX = offsetX;
-	    int dataPointY = offsetY + height - xAxisLabelPaddingBottom;
-	    for (int i = 0; i < xAxisLabels.size(); i++) {
-	        String label = xAxisLabels.get(i);
-	        
-	        canvas.drawText(label, dataPointX, dataPointY, xAxisLabelPaint);
-	        dataPointX += getItemWidth();
+	private void drawXAxisLabel(Canvas canvas) {
+
+	    float pointSpacing = getItemWidth();
+	    float stepWidth = pointSpacing * gridStep;
+
+	    // labels are drawn to the right of their data point
+	    int first = Math.max(0,
+	            (int) Math.ceil((clipBounds.left - xAxisAddedWidth - mainChartAreaX) / stepWidth)) * gridStep;
+	    int last = Math.min(xAxisLabels.size() - 1, (int) Math.floor((clipBounds.right - mainChartAreaX) / pointSpacing));
+
+	    for (int i = first; i <= last; i += gridStep) {
+	        canvas.drawText(xAxisLabels.get(i), mainChartAreaX + (i * pointSpacing), xAxisLabelY, xAxisLabelPaint);
 	    }
 	}
-	
-	private void drawYAxisLabel(Canvas canvas, int height, int offsetX, int offsetY, List<Integer> intervalPoints) {
-		
-		String maxText = Integer.toString(maxDataPoint);
-		String minText = Integer.toString(minDataPoint);
-		
-		canvas.drawText(maxText, offsetX, offsetY + labelTextHeight, mainPaint);
-		canvas.drawText(minText, offsetX, offsetY + height, mainPaint);	
-		
-		for (int i = 0; i < intervalPoints.size(); i++) {
-			Integer intervalPoint = intervalPoints.get(i);
-			
-			int yLocation = getYLocationForIntervalPoint(intervalPoint, height);
-			
-			// make sure it doesn't overlap with the top one, which it can because of the font size itself
-			if (i == intervalPoints.size() - 1) {
-				int topOfText = offsetY + yLocation - labelTextHeight;
-				if (topOfText < offsetY + labelTextHeight) {
-					break;
-				}
-			}
-			canvas.drawText(intervalPoint.toString(), offsetX, offsetY + yLocation, mainPaint);
+
+	private void drawYAxisLabel(Canvas canvas) {
+
+		canvas.drawText(maxDataPointLabel, yAxisLabelX, chartPadding + labelTextHeight, mainPaint);
+		canvas.drawText(minDataPointLabel, yAxisLabelX, mainChartAreaBottom, mainPaint);
+
+		for (int i = 0; i < numIntervalPointLabels; i++) {
+			canvas.drawText(intervalPointLabels[i], yAxisLabelX, chartPadding + intervalPointYs[i], mainPaint);
 		}
 	}
-	
-	
-	private int getYLocationForIntervalPoint(Integer intervalPoint, int height) {
+
+
+	private int getYLocationForIntervalPoint(int intervalPoint, int height) {
 		double scaleFactor = (1.0 * intervalPoint - minDataPoint) / (maxDataPoint - minDataPoint);
 		int yLocation = (int)Math.round(scaleFactor * height);
 		return (height - yLocation);
 	}
 
-	private void drawLegendArea(Canvas canvas, int height, int offsetX, int offsetY) {
-		
-		int maxTextWidth = 0;
-		int x = offsetX;
-		int y = offsetY + legendTextHeight;
-		int ySpacing = (legendTextHeight / 2);
-		
-		Rect rect = new Rect();
+	private void drawLegendArea(Canvas canvas) {
+
 		for (int i = 0; i < data.size(); i++) {
-			LineChartLine line = data.get(i);
 			Paint paint = lineLabelPaints.get(i % lineLabelPaints.size());
-			canvas.drawText(line.getLabel(), x, y, paint);
-			
-			paint.getTextBounds(line.getLabel(), 0, line.getLabel().length(), rect);
-			if (rect.width() > maxTextWidth) {
-				maxTextWidth = rect.width();
-			}
-			
-			y += rect.height() + ySpacing;
+			canvas.drawText(data.get(i).getLabel(), chartPadding, legendLabelYs[i], paint);
 		}
-		
+
 	}
 
-	private void drawMainChartArea(Canvas canvas, int height, int offsetX, int offsetY, 
-			List<Integer> intervalPoints) {
+	private void drawMainChartArea(Canvas canvas) {
+
+		drawChartBordersAndGrid(canvas);
+
+		float clipLeft = clipBounds.left - dotRadius - lineWidth;
+		float clipRight = clipBounds.right + dotRadius + lineWidth;
 
-		drawChartBordersAndGrid(canvas, height, offsetX, offsetY, intervalPoints);
-		
 		for (int i = 0; i < data.size(); i++) {
-			LineChartLine line = data.get(i);
 			Paint linePaint = linePaints.get(i % linePaints.size());
 			Paint lineLabelPaint = lineLabelPaints.get(i % lineLabelPaints.size());
 
-			int dataPointX = offsetX;
-			int previousDataPointX = 0;
-			int previousDataPointY = 0;
-			boolean first = true;
-			List<Integer> dataPoints = line.getDataPoints();
-			for (int j = 0, len = dataPoints.size(); j < len; j++) {
-			    Integer dataPoint = dataPoints.get(j);
-
-				// draw a dot
-				int dataPointY = offsetY
-						+ (int) Math.round(height - (((1.0 * dataPoint - minDataPoint) / (maxDataPoint - minDataPoint)) * height));
-				
-				if (drawDots || j == 0 || j == len - 1 
-				        || !dataPoint.equals(dataPoints.get(j - 1)) || !dataPoint.equals(dataPoints.get(j + 1))) {
-				    // I decided "drawDots" means "always draw dots", whereas "!drawDots" means "draw
-				    // dots only if a value changed."  TODO: rename/refactor/re-unfuckify this wording
-				    canvas.drawCircle(dataPointX, dataPointY, dotRadius, lineLabelPaint);
+			Path[] paths = linePaths[i];
+			for (int j = 0; j < paths.length; j++) {
+				if (linePathLefts[i][j] > clipRight) {
+					break;
 				}
-
-				if (!first) {
-					// draw a line to the last data point
-					canvas.drawLine(previousDataPointX, previousDataPointY,
-							dataPointX, dataPointY, linePaint);
+				if (linePathRights[i][j] >= clipLeft) {
+					canvas.drawPath(paths[j], linePaint);
 				}
+			}
 
-				previousDataPointX = dataPointX;
-				previousDataPointY = dataPointY;
-				first = false;
-				dataPointX += getItemWidth();
+			float[] xs = dotXs[i];
+			float[] ys = dotYs[i];
+			for (int j = findFirstAtLeast(xs, numDots[i], clipLeft); j < numDots[i] && xs[j] <= clipRight; j++) {
+				canvas.drawCircle(xs[j], ys[j], dotRadius, lineLabelPaint);
 			}
 		}
 	}
 
-	private void drawChartBordersAndGrid(Canvas canvas, int height, int offsetX, int offsetY, 
-			List<Integer> intervalPoints) {
-		
-		int maxLineDataPoints = CollectionUtil.max(data, new Function<LineChartLine,Integer>(){
-
-			@Override
-			public Integer apply(LineChartLine obj) {
-				return obj.getDataPoints().size();
+	/**
+	 * Binary search for the first of the first len values that's at least the given value, or len if none are.
+	 */
+	private static int findFirstAtLeast(float[] sortedValues, int len, float value) {
+		int low = 0;
+		int high = len;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sortedValues[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
 			}
-		});
-		
-		int edgeRight = offsetX + (getItemWidth() * (maxLineDataPoints - 1));
-		int edgeBottom = height + offsetY;
-		
+		}
+		return low;
+	}
+
+	private void drawChartBordersAndGrid(Canvas canvas) {
+
+		int left = mainChartAreaX;
+		int top = chartPadding;
+		int right = mainChartAreaRight;
+		int bottom = mainChartAreaBottom;
+
 		// draw border lines at the top, right, bottom, and left
-		int[] topleft     = {offsetX, offsetY};
-		int[] topright    = {edgeRight, offsetY};
-		int[] bottomright = {edgeRight, edgeBottom};
-		int[] bottomleft  = {offsetX, edgeBottom};
-		
-		
-		// top
-		canvas.drawLine(topleft[0], topleft[1], topright[0], topright[1], mainPaint);
-		
-		// right
-		canvas.drawLine(topright[0], topright[1], bottomright[0], bottomright[1], mainPaint);
-		
-		// bottom
-		canvas.drawLine(bottomright[0], bottomright[1], bottomleft[0], bottomleft[1], mainPaint);
-				
-		// left
-		canvas.drawLine(bottomleft[0], bottomleft[1], topleft[0], topleft[1], mainPaint);
-		
-		// draw vertical grid lines
-		
-		for (int i = 1; i < maxLineDataPoints - 1; i++) {
-			int x = offsetX + (i * getItemWidth());
-			canvas.drawLine(x, offsetY, x, height + offsetY, secondaryPaint);
+		canvas.drawLine(left, top, right, top, mainPaint);
+		canvas.drawLine(right, top, right, bottom, mainPaint);
+		canvas.drawLine(right, bottom, left, bottom, mainPaint);
+		canvas.drawLine(left, bottom, left, top, mainPaint);
+
+		// draw the vertical grid lines that are in view
+		float stepWidth = getItemWidth() * gridStep;
+		int first = Math.max(0, (int) Math.ceil((clipBounds.left - left) / stepWidth) - 1);
+		int last = Math.min(numVerticalGridLines - 1, (int) Math.floor((clipBounds.right - left) / stepWidth) - 1);
+		if (last >= first) {
+			canvas.drawLines(verticalGridLines, first * 4, (last - first + 1) * 4, secondaryPaint);
 		}
-		
+
 		// draw horizontal grid lines
-		for (Integer intervalDataPoint : intervalPoints) {
-			int yLocation = getYLocationForIntervalPoint(intervalDataPoint, height);
-			canvas.drawLine(offsetX, yLocation, edgeRight, yLocation, tertiaryPaint);
+		for (int i = 0; i < intervalPointYs.length; i++) {
+			canvas.drawLine(left, intervalPointYs[i], right, intervalPointYs[i], tertiaryPaint);
 		}
-		
+
 	}
 
 	@Override
@@ -567,16 +694,16 @@ public class LineChartView extends View {
 			super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 			return;
 		}
-		
-		int expectedWidth = (4 * chartPadding) 
+
+		int expectedWidth = (4 * chartPadding)
 				+ legendWidth
 				+ yAxisLabelWidth
 				+ mainChartAreaWidth
 				+ xAxisAddedWidth;
-				
+
 		log.d("expected width is %d",expectedWidth);
-		
+
 		setMeasuredDimension(expectedWidth, heightMeasureSpec);
 	}
-	
+
 }
@@ -0,0 +1,71 @@
+package com.nolanlawson.keepscore.test;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.db.DeltaHistory;
+
+/**
+ * Tests for the primitive-backed score history.
+ * @author nolan
+ *
+ */
+public class DeltaHistoryTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	public DeltaHistoryTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	public void testRunningTotals() {
+		DeltaHistory history = new DeltaHistory(1); // force it to grow
+		long sum = 0;
+		for (int i = 0; i < 100; i++) {
+			int value = (i % 2 == 0) ? i : -i * 2;
+			history.add(i * 1000L, value);
+			sum += value;
+			assertEquals(sum, history.sum());
+			assertEquals(sum + 30, history.getRunningTotal(30, i));
+		}
+		assertEquals(100, history.size());
+		assertEquals(0L, history.prefixSum(0));
+		assertEquals(0L + -2 + 2, history.prefixSum(3));
+	}
+
+	public void testModifyAndRemoveLast() {
+		DeltaHistory history = new DeltaHistory();
+		history.add(1000L, 5);
+		history.add(2000L, 3);
+
+		history.setLast(3000L, 10);
+		assertEquals(10, history.getLastValue());
+		assertEquals(3000L, history.getLastTimestamp());
+		assertEquals(15L, history.sum());
+
+		assertEquals(10, history.removeLast());
+		assertEquals(1, history.size());
+		assertEquals(5L, history.sum());
+
+		history.add(4000L, -7);
+		assertEquals(-2L, history.sum());
+		assertEquals(5L, history.getRunningTotal(0, 0));
+		assertEquals(-2L, history.getRunningTotal(0, 1));
+	}
+
+	public void testCopyAndJoinedStrings() {
+		DeltaHistory history = DeltaHistory.fromJoinedStrings("1,-2,3", "100,200,300");
+		assertEquals(3, history.size());
+		assertEquals(-2, history.getValue(1));
+		assertEquals(300L, history.getTimestamp(2));
+
+		DeltaHistory copy = history.copy();
+		assertEquals(history, copy);
+		copy.removeLast();
+		assertEquals(3, history.size());
+
+		assertEquals("1,-2,3", DeltaHistory.toJoinedStrings(history).getFirst());
+		assertEquals("100,200,300", DeltaHistory.toJoinedStrings(history).getSecond());
+
+		// legacy histories without timestamps
+		assertEquals(0L, DeltaHistory.fromJoinedScores("4,5").getTimestamp(1));
+	}
+}
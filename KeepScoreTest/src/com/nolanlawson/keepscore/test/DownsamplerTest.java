@@ -0,0 +1,61 @@
+package com.nolanlawson.keepscore.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.widget.chart.Downsampler;
+
+/**
+ * Test to make sure that downsampling a chart line keeps its ends and its peaks.
+ * @author nolan
+ *
+ */
+public class DownsamplerTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	public DownsamplerTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	public void testShortLinesUnchanged() {
+		List<Integer> dataPoints = Arrays.asList(0, 5, -3, 10);
+
+		assertEquals(Arrays.toString(new int[]{0, 1, 2, 3}), Arrays.toString(Downsampler.downsample(dataPoints, 4)));
+		assertEquals(Arrays.toString(new int[]{0, 1, 2, 3}), Arrays.toString(Downsampler.downsample(dataPoints, 100)));
+		assertEquals(Arrays.toString(new int[]{0, 1, 2, 3}), Arrays.toString(Downsampler.downsample(dataPoints, 2)));
+	}
+
+	public void testThreshold() {
+		List<Integer> dataPoints = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			dataPoints.add((int) Math.round(Math.sin(i / 10.0) * 100));
+		}
+
+		int[] indexes = Downsampler.downsample(dataPoints, 100);
+
+		assertEquals(100, indexes.length);
+		assertEquals(0, indexes[0]);
+		assertEquals(999, indexes[99]);
+		for (int i = 1; i < indexes.length; i++) {
+			assertTrue(indexes[i] > indexes[i - 1]);
+		}
+	}
+
+	public void testPeaksKept() {
+		List<Integer> dataPoints = new ArrayList<Integer>();
+		for (int i = 0; i < 500; i++) {
+			dataPoints.add(i == 123 ? 1000 : i == 321 ? -1000 : 0);
+		}
+
+		List<Integer> kept = new ArrayList<Integer>();
+		for (int index : Downsampler.downsample(dataPoints, 20)) {
+			kept.add(index);
+		}
+
+		assertTrue(kept.contains(123));
+		assertTrue(kept.contains(321));
+	}
+}
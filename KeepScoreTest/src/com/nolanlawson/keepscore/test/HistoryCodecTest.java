@@ -0,0 +1,80 @@
+package com.nolanlawson.keepscore.test;
+
+import java.util.Random;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.db.DeltaHistory;
+import com.nolanlawson.keepscore.db.HistoryCodec;
+
+/**
+ * Tests for the binary history encoding.
+ * @author nolan
+ *
+ */
+public class HistoryCodecTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	private Random random = new Random();
+
+	public HistoryCodecTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	public void testEmptyHistory() {
+		testHistory(new DeltaHistory());
+	}
+
+	public void testLegacyHistory() {
+		// histories from before we recorded timestamps
+		DeltaHistory history = new DeltaHistory();
+		for (int i = 0; i < 100; i++) {
+			history.add(0L, random.nextInt(40) - 20);
+		}
+		testHistory(history);
+	}
+
+	public void testRandomHistories() {
+		for (int i = 0; i < 100; i++) {
+			DeltaHistory history = new DeltaHistory();
+			long timestamp = System.currentTimeMillis();
+			int numRounds = random.nextInt(200);
+			for (int j = 0; j < numRounds; j++) {
+				timestamp += random.nextInt(60000) - 1000;
+				history.add(timestamp, random.nextInt());
+			}
+			testHistory(history);
+		}
+	}
+
+	public void testExtremeValues() {
+		DeltaHistory history = new DeltaHistory();
+		history.add(Long.MAX_VALUE, Integer.MAX_VALUE);
+		history.add(Long.MIN_VALUE, Integer.MIN_VALUE);
+		history.add(0L, 0);
+		history.add(-1L, -1);
+		testHistory(history);
+	}
+
+	public void testPrefix() {
+		DeltaHistory history = new DeltaHistory();
+		DeltaHistory prefix = new DeltaHistory();
+		for (int i = 0; i < 10; i++) {
+			history.add(i * 1000L, i);
+			if (i < 4) {
+				prefix.add(i * 1000L, i);
+			}
+		}
+		DeltaHistory decoded = new DeltaHistory();
+		assertEquals(4, HistoryCodec.decode(HistoryCodec.encode(history, 4), decoded));
+		assertEquals(prefix, decoded);
+	}
+
+	private void testHistory(DeltaHistory history) {
+		DeltaHistory decoded = new DeltaHistory();
+		int size = HistoryCodec.decode(HistoryCodec.encode(history), decoded);
+
+		assertEquals(history.size(), size);
+		assertEquals(history, decoded);
+	}
+}
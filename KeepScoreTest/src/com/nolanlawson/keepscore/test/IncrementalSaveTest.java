@@ -0,0 +1,158 @@
+package com.nolanlawson.keepscore.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.KeepScoreApplication;
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.db.DeltaHistory;
+import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.helper.PlayerColor;
+
+/**
+ * Test to make sure that saving a game after appending to its history writes the same number of rows however
+ * long the game already is.
+ * @author nolan
+ *
+ */
+public class IncrementalSaveTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	private GameDBHelper dbHelper;
+	private Game game;
+
+	public IncrementalSaveTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		dbHelper = KeepScoreApplication.acquireDbHelper(getActivity());
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		if (game != null && game.getId() != -1) {
+			dbHelper.deleteGame(game);
+		}
+		KeepScoreApplication.releaseDbHelper(getActivity());
+		super.tearDown();
+	}
+
+	public void testAppendOnlySaveOfNewGame() {
+		game = createGame();
+		dbHelper.saveGame(game);
+
+		assertAppendOnlySavesWriteConstantRows(game);
+	}
+
+	public void testAppendOnlySaveOfLoadedGame() {
+		Game newGame = createGame();
+		for (int i = 0; i < 20; i++) {
+			appendDelta(newGame);
+		}
+		dbHelper.saveGame(newGame);
+
+		game = dbHelper.findGameById(newGame.getId());
+		assertAppendOnlySavesWriteConstantRows(game);
+	}
+
+	public void testAppendWhileSaving() {
+		game = createGame();
+		AppendingPlayerScore playerScore = new AppendingPlayerScore();
+		playerScore.setName("Appending player");
+		playerScore.setPlayerColor(PlayerColor.BUILT_INS[2]);
+		playerScore.setPlayerNumber(2);
+		playerScore.setHistory(new DeltaHistory());
+		game.getPlayerScores().add(playerScore);
+		dbHelper.saveGame(game);
+
+		for (int i = 0; i < 10; i++) {
+			appendDelta(playerScore);
+			playerScore.appendWhileSaving = true;
+			dbHelper.saveGame(game);
+			playerScore.appendWhileSaving = false;
+		}
+		// picks up whatever was appended during the last save
+		dbHelper.saveGame(game);
+
+		PlayerScore loadedPlayerScore = dbHelper.findGameById(game.getId()).getPlayerScores().get(2);
+		assertEquals(playerScore.getHistory(), loadedPlayerScore.getHistory());
+		assertEquals(playerScore.getScore(), loadedPlayerScore.getScore());
+	}
+
+	private void assertAppendOnlySavesWriteConstantRows(Game game) {
+		long firstRowsWritten = -1;
+		for (int i = 0; i < 30; i++) {
+			appendDelta(game);
+
+			long totalChangesBefore = getTotalChanges();
+			dbHelper.saveGame(game);
+			long rowsWritten = getTotalChanges() - totalChangesBefore;
+
+			if (firstRowsWritten == -1) {
+				firstRowsWritten = rowsWritten;
+			}
+			assertEquals("rows written on save #" + i, firstRowsWritten, rowsWritten);
+		}
+	}
+
+	private long getTotalChanges() {
+		// inside a transaction, so it's the same connection that the saves use
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			return db.compileStatement("select total_changes()").simpleQueryForLong();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private static void appendDelta(Game game) {
+		appendDelta(game.getPlayerScores().get(0));
+	}
+
+	private static void appendDelta(PlayerScore playerScore) {
+		playerScore.getHistory().add(System.currentTimeMillis(), 1);
+		playerScore.setScore(playerScore.getScore() + 1);
+	}
+
+	private static Game createGame() {
+		Game game = new Game();
+		game.setDateStarted(System.currentTimeMillis());
+
+		List<PlayerScore> playerScores = new ArrayList<PlayerScore>();
+		for (int i = 0; i < 2; i++) {
+			PlayerScore playerScore = new PlayerScore();
+			playerScore.setName("Player " + i);
+			playerScore.setPlayerColor(PlayerColor.BUILT_INS[i]);
+			playerScore.setPlayerNumber(i);
+			playerScore.setHistory(new DeltaHistory());
+			playerScores.add(playerScore);
+		}
+		game.setPlayerScores(playerScores);
+		return game;
+	}
+
+	/**
+	 * PlayerScore that gets a score appended every time its id is read while it's being saved, including while its
+	 * history is being written, i.e. after the history was read but before it's marked as saved.
+	 */
+	private static class AppendingPlayerScore extends PlayerScore {
+
+		private boolean appendWhileSaving;
+
+		@Override
+		public int getId() {
+			if (appendWhileSaving) {
+				appendDelta(this);
+			}
+			return super.getId();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.nolanlawson.keepscore.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.net.Uri;
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.KeepScoreApplication;
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.db.DeltaHistory;
+import com.nolanlawson.keepscore.db.Game;
+import com.nolanlawson.keepscore.db.GameDBHelper;
+import com.nolanlawson.keepscore.db.GameSummary;
+import com.nolanlawson.keepscore.db.PlayerScore;
+import com.nolanlawson.keepscore.helper.PlayerColor;
+import com.nolanlawson.keepscore.helper.SdcardHelper.Format;
+import com.nolanlawson.keepscore.serialization.GamesBackup;
+import com.nolanlawson.keepscore.serialization.GamesBackupRestorer;
+import com.nolanlawson.keepscore.serialization.GamesBackupSerializer;
+import com.nolanlawson.keepscore.util.Callback;
+
+/**
+ * Test to make sure that restoring a differential backup along with the full backup it's based on gives back the
+ * games as they were when the differential backup was written, without the ones that were deleted in between.
+ * @author nolan
+ *
+ */
+public class RestoreChainTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	private GameDBHelper dbHelper;
+	private List<Long> datesStarted = new ArrayList<Long>();
+	private List<File> files = new ArrayList<File>();
+
+	public RestoreChainTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		dbHelper = KeepScoreApplication.acquireDbHelper(getActivity());
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		deleteGames();
+		for (File file : files) {
+			file.delete();
+		}
+		KeepScoreApplication.releaseDbHelper(getActivity());
+		super.tearDown();
+	}
+
+	public void testDeletedGameIsNotRestored() throws Exception {
+		Game renamed = createGame();
+		Game deleted = createGame();
+		Game unchanged = createGame();
+
+		long changeNumber = dbHelper.findLatestChangeNumber();
+		File fullBackup = writeBackup(Arrays.asList(renamed.getId(), deleted.getId(), unchanged.getId()),
+				Collections.<Long>emptyList());
+
+		dbHelper.updateGameName(renamed.getId(), "Renamed");
+		dbHelper.deleteGame(deleted);
+
+		// same as the automatic backup service
+		List<Integer> changedGameIds = new ArrayList<Integer>();
+		for (GameSummary gameSummary : dbHelper.findGameSummariesByIds(
+				dbHelper.findGameIdsChangedSince(changeNumber))) {
+			changedGameIds.add(gameSummary.getId());
+		}
+		List<Long> deletedDatesStarted = dbHelper.findDatesStartedDeletedSince(changeNumber);
+		assertEquals(Collections.singletonList(renamed.getId()), changedGameIds);
+		assertEquals(Collections.singletonList(deleted.getDateStarted()), deletedDatesStarted);
+		File differentialBackup = writeBackup(changedGameIds, deletedDatesStarted);
+
+		deleteGames();
+		GamesBackupRestorer restorer = new GamesBackupRestorer(dbHelper, getActivity().getContentResolver(), -1, 0,
+				new Callback<Integer>() {
+
+					@Override
+					public void onCallback(Integer progress) {
+						// ignore
+					}
+				});
+		restorer.restore(Uri.fromFile(differentialBackup), Format.BINARY);
+		restorer.restore(Uri.fromFile(fullBackup), Format.BINARY);
+		assertEquals(2, restorer.finish().getNumLoaded());
+
+		assertEquals("Renamed", dbHelper.findGameByDateStarted(renamed.getDateStarted()).getName());
+		assertNull(dbHelper.findGameByDateStarted(deleted.getDateStarted()));
+		assertNotNull(dbHelper.findGameByDateStarted(unchanged.getDateStarted()));
+	}
+
+	private File writeBackup(List<Integer> gameIds, List<Long> deletedDatesStarted) throws Exception {
+		GamesBackup gamesBackup = new GamesBackup();
+		gamesBackup.setVersion(GamesBackupSerializer.VERSION_SIX);
+		gamesBackup.setDateSaved(System.currentTimeMillis());
+		gamesBackup.setGameCount(gameIds.size());
+		gamesBackup.setDeletedDatesStarted(deletedDatesStarted);
+
+		File file = File.createTempFile("backup", ".ksbk", getActivity().getCacheDir());
+		files.add(file);
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			GamesBackupSerializer.serialize(gamesBackup, dbHelper.iterateGames(gameIds), outputStream,
+					Format.BINARY);
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	private void deleteGames() {
+		for (long dateStarted : datesStarted) {
+			Game game = dbHelper.findGameByDateStarted(dateStarted);
+			if (game != null) {
+				dbHelper.deleteGame(game);
+			}
+		}
+	}
+
+	private Game createGame() {
+		Game game = new Game();
+		// distinct start dates, since they identify the games in a backup
+		long dateStarted = System.currentTimeMillis() + datesStarted.size();
+		game.setDateStarted(dateStarted);
+		datesStarted.add(dateStarted);
+
+		List<PlayerScore> playerScores = new ArrayList<PlayerScore>();
+		for (int i = 0; i < 2; i++) {
+			PlayerScore playerScore = new PlayerScore();
+			playerScore.setName("Player " + i);
+			playerScore.setPlayerColor(PlayerColor.BUILT_INS[i]);
+			playerScore.setPlayerNumber(i);
+			playerScore.setScore(i + 1);
+			DeltaHistory history = new DeltaHistory();
+			history.add(System.currentTimeMillis(), i + 1);
+			playerScore.setHistory(history);
+			playerScores.add(playerScore);
+		}
+		game.setPlayerScores(playerScores);
+		dbHelper.saveGame(game);
+		return game;
+	}
+}
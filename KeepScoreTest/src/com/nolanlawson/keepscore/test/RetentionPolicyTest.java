@@ -0,0 +1,117 @@
+package com.nolanlawson.keepscore.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import com.nolanlawson.keepscore.MainActivity;
+import com.nolanlawson.keepscore.serialization.GamesBackupRetentionPolicy;
+import com.nolanlawson.keepscore.serialization.GamesBackupSummary;
+
+/**
+ * Test to make sure that pruning old backups never deletes manual backups or breaks a chain of differential
+ * backups.
+ * @author nolan
+ *
+ */
+public class RetentionPolicyTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+	private static final long ONE_DAY = 24L * 60 * 60 * 1000;
+
+	// Saturday, March 24, 2012 around 7:30 pm GMT
+	private static final long NOW = 1332617241000L;
+
+	private TimeZone defaultTimeZone;
+
+	public RetentionPolicyTest() {
+		super("com.nolanlawson.keepscore", MainActivity.class);
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		TimeZone.setDefault(defaultTimeZone);
+		super.tearDown();
+	}
+
+	public void testManualBackupsKept() {
+		List<GamesBackupSummary> summaries = new ArrayList<GamesBackupSummary>();
+		for (int i = 0; i < 100; i++) {
+			summaries.add(createSummary("manual" + i, NOW - i * ONE_DAY, false, null));
+			summaries.add(createSummary("auto" + i, NOW - i * ONE_DAY, true, null));
+		}
+
+		Set<String> deleted = findDeleted(new GamesBackupRetentionPolicy(0, 0, 0), summaries);
+
+		// only the latest automatic backup is kept
+		assertEquals(99, deleted.size());
+		assertFalse(deleted.contains("auto0"));
+		for (String filename : deleted) {
+			assertTrue(filename.startsWith("auto"));
+		}
+	}
+
+	public void testDailyWeeklyMonthly() {
+		List<GamesBackupSummary> summaries = new ArrayList<GamesBackupSummary>();
+		for (int i = 0; i < 100; i++) {
+			// two per day
+			summaries.add(createSummary("morning" + i, NOW - i * ONE_DAY - ONE_DAY / 2, true, null));
+			summaries.add(createSummary("evening" + i, NOW - i * ONE_DAY, true, null));
+		}
+
+		Set<String> deleted = findDeleted(new GamesBackupRetentionPolicy(3, 0, 0), summaries);
+		assertEquals(197, deleted.size());
+		assertFalse(deleted.contains("evening0"));
+		assertFalse(deleted.contains("evening1"));
+		assertFalse(deleted.contains("evening2"));
+
+		deleted = findDeleted(new GamesBackupRetentionPolicy(0, 0, 2), summaries);
+		// the latest from March and the latest from February
+		assertEquals(198, deleted.size());
+		assertFalse(deleted.contains("evening0"));
+		assertFalse(deleted.contains("evening24")); // Feb 29
+	}
+
+	public void testDifferentialChainKept() {
+		List<GamesBackupSummary> summaries = new ArrayList<GamesBackupSummary>();
+		summaries.add(createSummary("full1", NOW - 10 * ONE_DAY, true, null));
+		summaries.add(createSummary("diff1a", NOW - 9 * ONE_DAY, true, "full1"));
+		summaries.add(createSummary("diff1b", NOW - 8 * ONE_DAY, true, "full1"));
+		summaries.add(createSummary("full2", NOW - 7 * ONE_DAY, true, null));
+		summaries.add(createSummary("diff2a", NOW - 6 * ONE_DAY, true, "full2"));
+		summaries.add(createSummary("diff2b", NOW - 5 * ONE_DAY, true, "full2"));
+
+		Set<String> deleted = findDeleted(new GamesBackupRetentionPolicy(1, 0, 0), summaries);
+
+		assertEquals(new HashSet<String>(Arrays.asList("full1", "diff1a", "diff1b")), deleted);
+	}
+
+	private Set<String> findDeleted(GamesBackupRetentionPolicy policy, List<GamesBackupSummary> summaries) {
+		Set<String> result = new HashSet<String>();
+		for (GamesBackupSummary summary : policy.findBackupsToDelete(summaries)) {
+			result.add(summary.getFilename());
+		}
+		return result;
+	}
+
+	private GamesBackupSummary createSummary(String filename, long dateSaved, boolean automatic,
+			String baseFilename) {
+		GamesBackupSummary summary = new GamesBackupSummary();
+		summary.setFilename(filename);
+		summary.setDateSaved(dateSaved);
+		summary.setAutomatic(automatic);
+		summary.setBaseFilename(baseFilename);
+		return summary;
+	}
+}
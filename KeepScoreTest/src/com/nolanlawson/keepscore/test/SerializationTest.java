@@ -1,5 +1,7 @@
 package com.nolanlawson.keepscore.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -9,13 +11,15 @@ import android.graphics.Color;
 import android.test.ActivityInstrumentationTestCase2;
 
 import com.nolanlawson.keepscore.MainActivity;
-import com.nolanlawson.keepscore.db.Delta;
+import com.nolanlawson.keepscore.db.DeltaHistory;
 import com.nolanlawson.keepscore.db.Game;
 import com.nolanlawson.keepscore.db.PlayerScore;
 import com.nolanlawson.keepscore.helper.PlayerColor;
 import com.nolanlawson.keepscore.helper.PlayerColor.CustomPlayerColor;
+import com.nolanlawson.keepscore.serialization.BinaryGamesBackupSerializer;
 import com.nolanlawson.keepscore.serialization.GamesBackup;
 import com.nolanlawson.keepscore.serialization.GamesBackupSerializer;
+import com.nolanlawson.keepscore.util.Callback;
 
 /**
  * Tests for the XML serialization.
@@ -60,11 +64,56 @@ public class SerializationTest extends ActivityInstrumentationTestCase2<MainActi
 		gamesBackup.getGames().get(0).getPlayerScores().get(0).setPlayerColor(PlayerColor.BUILT_INS[7]);
 		gamesBackup.getGames().get(0).getPlayerScores().get(1).setName("");
 		gamesBackup.getGames().get(0).getPlayerScores().get(1).setPlayerColor(new CustomPlayerColor(Color.parseColor("#FF00FF00")));
-		gamesBackup.getGames().get(0).getPlayerScores().get(0).setHistory(Collections.<Delta>emptyList());
+		gamesBackup.getGames().get(0).getPlayerScores().get(0).setHistory(new DeltaHistory());
 				
 		testGamesBackup(gamesBackup);
 	}
 	
+	public void testStreaming() throws Exception {
+		GamesBackup gamesBackup = createRandomGamesBackup();
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		GamesBackupSerializer.serialize(gamesBackup, gamesBackup.getGames().iterator(), outputStream);
+		
+		final List<Game> games = new ArrayList<Game>();
+		GamesBackup deserializedGamesBackup = GamesBackupSerializer.deserialize(
+				new ByteArrayInputStream(outputStream.toByteArray()), new Callback<Game>() {
+					
+					@Override
+					public void onCallback(Game game) {
+						games.add(game);
+					}
+				});
+		deserializedGamesBackup.setGames(games);
+		
+		compareGamesBackups(gamesBackup, deserializedGamesBackup);
+	}
+	
+	public void testBinary() throws Exception {
+		GamesBackup gamesBackup = createRandomGamesBackup();
+		gamesBackup.setVersion(GamesBackupSerializer.VERSION_SIX);
+		gamesBackup.getGames().get(0).setName(null);
+		gamesBackup.getGames().get(1).setName("");
+		gamesBackup.getGames().get(0).getPlayerScores().get(0).setName(null);
+		gamesBackup.getGames().get(0).getPlayerScores().get(0).setHistory(new DeltaHistory());
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		BinaryGamesBackupSerializer.serialize(gamesBackup, gamesBackup.getGames().iterator(), outputStream);
+		
+		final List<Game> games = new ArrayList<Game>();
+		GamesBackup deserializedGamesBackup = BinaryGamesBackupSerializer.deserialize(
+				new ByteArrayInputStream(outputStream.toByteArray()), new Callback<Game>() {
+					
+					@Override
+					public void onCallback(Game game) {
+						games.add(game);
+					}
+				});
+		deserializedGamesBackup.setGames(games);
+		
+		compareGamesBackups(gamesBackup, deserializedGamesBackup);
+	}
+	
 	private void testGamesBackup(GamesBackup gamesBackup) {
 		
 		String xmlData = GamesBackupSerializer.serialize(gamesBackup);
@@ -151,11 +200,11 @@ public class SerializationTest extends ActivityInstrumentationTestCase2<MainActi
 		return playerScores;
 	}
 
-	private List<Delta> createRandomHistory(int score) {
-		List<Delta> history = new ArrayList<Delta>();
+	private DeltaHistory createRandomHistory(int score) {
+		DeltaHistory history = new DeltaHistory();
 		for (int deltaValue, sum = 0; sum < score; sum += deltaValue) {
 		    deltaValue = Math.min(random.nextInt(15) + 1, score - sum);
-			history.add(new Delta(0L, deltaValue));
+			history.add(0L, deltaValue);
 		}
 		return history;
 	}